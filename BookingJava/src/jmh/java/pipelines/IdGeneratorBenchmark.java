@@ -0,0 +1,44 @@
+package pipelines;
+
+import org.openjdk.jmh.annotations.*;
+import pipelines.data.IdGenerator;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id throughput of {@link UUID#randomUUID()} against {@link IdGenerator#timeOrdered()}, single-threaded
+ * and with eight threads drawing ids at once as during a write burst.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+    private final IdGenerator random = IdGenerator.random();
+    private final IdGenerator timeOrdered = IdGenerator.timeOrdered();
+
+    @Benchmark
+    public UUID randomUuid() {
+        return random.nextId();
+    }
+
+    @Benchmark
+    public UUID timeOrdered() {
+        return timeOrdered.nextId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public UUID randomUuidContended() {
+        return random.nextId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public UUID timeOrderedContended() {
+        return timeOrdered.nextId();
+    }
+}
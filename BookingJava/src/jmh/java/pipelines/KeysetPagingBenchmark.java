@@ -0,0 +1,55 @@
+package pipelines;
+
+import org.openjdk.jmh.annotations.*;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One keyset page at growing depth in a single-hotel snapshot, where the leading sort field never changes, so
+ * any cost that grows with the rows sharing the cursor's key shows up as latency growing with depth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeysetPagingBenchmark {
+    private static final int ROWS = 200_000;
+    private static final int LIMIT = 50;
+
+    @Param({"0", "1000", "50000", "199000"})
+    public int depth;
+
+    @Param({"hotelName", "hotelName DESC"})
+    public String sortBy;
+
+    private List<SortField> sort;
+    private Page page;
+    private InMemoryBookingRepository repository;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(17);
+        var bookings = new HashMap<UUID, Booking>();
+        for (int i = 0; i < ROWS; i++) {
+            var checkIn = LocalDate.of(2024, 1, 1).plusDays(random.nextInt(730));
+            var booking = new Booking(new UUID(1L, i), "Ritz", "Guest " + random.nextInt(10_000),
+                    "guest" + i + "@example.com", checkIn, checkIn.plusDays(1 + random.nextInt(14)));
+            bookings.put(booking.id(), booking);
+        }
+        repository = new InMemoryBookingRepository(bookings, IdGenerator.timeOrdered(), ParallelScan.DISABLED);
+        sort = Cursor.keyOrder(DataExpressionParser.parseSort(sortBy));
+        var last = repository.get(null, sort, new Page(depth, 1)).getFirst();
+        page = new Page(0, LIMIT, Cursor.after(sort, last));
+    }
+
+    @Benchmark
+    public List<Booking> nextPage() {
+        return repository.get(null, sort, page);
+    }
+}
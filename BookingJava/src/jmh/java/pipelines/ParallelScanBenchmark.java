@@ -0,0 +1,69 @@
+package pipelines;
+
+import org.openjdk.jmh.annotations.*;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unindexed queries over snapshots of growing size, scanned sequentially and in parallel, to find the row count
+ * from which {@link ParallelScan} pays off. Set {@code -Dbooking.parallelThreshold} to the crossover measured on
+ * the target machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+    private static final List<String> HOTELS = List.of("Hilton", "Marriott", "Ritz", "Sheraton", "Savoy", "Plaza");
+
+    @Param({"1000", "10000", "50000", "200000", "1000000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private final Map<String, DataFilter<?>> guestFilter = Map.of("guestName", new StringFilter("7", Operator.IN));
+    private final List<SortField> byCheckIn = List.of(new SortField("checkIn", false), new SortField("id", true));
+    private final List<SortField> byGuest = List.of(new SortField("guestName", true), new SortField("id", true));
+    private InMemoryBookingRepository repository;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(17);
+        var bookings = new HashMap<UUID, Booking>();
+        for (int i = 0; i < rows; i++) {
+            var checkIn = LocalDate.of(2024, 1, 1).plusDays(random.nextInt(730));
+            var booking = new Booking(new UUID(1L, i), HOTELS.get(random.nextInt(HOTELS.size())), "Guest " + random.nextInt(10_000),
+                    "guest" + i + "@example.com", checkIn, checkIn.plusDays(1 + random.nextInt(14)));
+            bookings.put(booking.id(), booking);
+        }
+        var scan = parallel ? new ParallelScan(0, Runtime.getRuntime().availableProcessors()) : ParallelScan.DISABLED;
+        repository = new InMemoryBookingRepository(bookings, IdGenerator.timeOrdered(), scan);
+    }
+
+    @Benchmark
+    public List<Booking> filterOnly() {
+        return repository.get(guestFilter, null);
+    }
+
+    @Benchmark
+    public List<Booking> sortAllByDate() {
+        return repository.get(null, byCheckIn);
+    }
+
+    @Benchmark
+    public List<Booking> filterAndSortByName() {
+        return repository.get(guestFilter, byGuest);
+    }
+
+    @Benchmark
+    public List<Booking> largePageByDate() {
+        return repository.get(null, byCheckIn, new Page(0, rows / 2));
+    }
+}
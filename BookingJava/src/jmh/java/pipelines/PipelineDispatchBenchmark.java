@@ -0,0 +1,85 @@
+package pipelines;
+
+import an.awesome.pipelinr.Command;
+import an.awesome.pipelinr.Notification;
+import an.awesome.pipelinr.Pipelinr;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import pipelines.commands.GetBookingsByIdQuery;
+import pipelines.data.InMemoryBookingRepository;
+import pipelines.domain.Booking;
+import pipelines.handlers.*;
+import pipelines.infrastructure.HandlerRegistry;
+import pipelines.infrastructure.LoggableMiddleware;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sending a cheap query through {@code Pipelinr} wired to Spring's {@link ObjectProvider}s as in {@code IoC},
+ * through {@link HandlerRegistry} built from the same providers, and of calling its handler directly. Both pipelines
+ * run the query through {@link LoggableMiddleware}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineDispatchBenchmark {
+    private GetBookingsByIdHandler handler;
+    private Pipelinr pipelinr;
+    private HandlerRegistry registry;
+    private GetBookingsByIdQuery query;
+
+    @Setup
+    public void setUp() {
+        var repository = new InMemoryBookingRepository();
+        var booking = new Booking(repository.getNextId(), "Ritz", "Alice", "alice@example.com",
+                LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 3));
+        repository.add(booking);
+        query = new GetBookingsByIdQuery(booking.id());
+        handler = new GetBookingsByIdHandler(repository);
+
+        // the query handlers of the application, so both pipelines choose among as many candidates as in production
+        var beans = new DefaultListableBeanFactory();
+        List<Command.Handler<?, ?>> handlers = List.of(handler,
+                new GetBookingsHandler(repository),
+                new StreamBookingsHandler(repository),
+                new GetVersionedBookingHandler(repository),
+                new GetBookingsVersionHandler(repository),
+                new GetBookingsByIdsHandler(repository),
+                new GetBookingsPerHotelHandler(repository),
+                new GetCheckInsPerDayHandler(repository),
+                new GetNightsPerHotelAndMonthHandler(repository));
+        for (int i = 0; i < handlers.size(); i++) beans.registerSingleton("handler" + i, handlers.get(i));
+        beans.registerSingleton("loggableMiddleware", new LoggableMiddleware());
+
+        ObjectProvider<Command.Handler> commandHandlers = beans.getBeanProvider(Command.Handler.class);
+        ObjectProvider<Command.Middleware> middlewares = beans.getBeanProvider(Command.Middleware.class);
+        ObjectProvider<Notification.Handler> notificationHandlers = beans.getBeanProvider(Notification.Handler.class);
+        pipelinr = new Pipelinr()
+                .with(() -> commandHandlers.stream())
+                .with(() -> middlewares.orderedStream())
+                .with(() -> notificationHandlers.stream());
+        registry = new HandlerRegistry(commandHandlers::stream, middlewares::orderedStream, notificationHandlers::stream).refresh();
+    }
+
+    @Benchmark
+    public Booking direct() {
+        return handler.handle(query);
+    }
+
+    @Benchmark
+    public Booking pipelinr() {
+        return pipelinr.send(query);
+    }
+
+    @Benchmark
+    public Booking registry() {
+        return registry.send(query);
+    }
+}
@@ -0,0 +1,93 @@
+package pipelines;
+
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import pipelines.controllers.BookingController;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static pipelines.infrastructure.WebAppCreator.createJavalinApp;
+
+/**
+ * Bookings created over HTTP by 1000 concurrent clients, served from Jetty's pool of platform threads and from
+ * virtual threads. The application is wired by {@link IoC} with a journal, so every request waits for the group
+ * commit that makes its booking durable and spends most of its time blocked; with fewer threads than clients the
+ * platform pool queues the rest. Compare the throughput run with the p99 of the sample-time run, and point
+ * {@code java.io.tmpdir} at the disk the journal would live on, as fsync latency decides how long requests block.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(1000)
+@State(Scope.Benchmark)
+public class RequestThreadsBenchmark {
+    private static final List<String> HOTELS = List.of("Hilton", "Marriott", "Ritz", "Sheraton", "Savoy", "Plaza");
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private Path dataDirectory;
+    private AnnotationConfigApplicationContext context;
+    private Javalin app;
+    private HttpClient client;
+    private URI bookings;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataDirectory = Files.createTempDirectory("request-threads");
+        System.setProperty("booking.data", dataDirectory.toString());
+        System.setProperty("booking.rooms", "1000000");
+        // IoC picks where blocking command handlers run from the same flag
+        System.setProperty("booking.virtualThreads", Boolean.toString(virtualThreads));
+        // the console email service prints every confirmation
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        context = new AnnotationConfigApplicationContext(IoC.class);
+        app = createJavalinApp(context.getBean(BookingController.class), virtualThreads, config -> config.showJavalinBanner = false)
+                .start(0);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        bookings = URI.create("http://localhost:" + app.port() + "/bookings");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        app.stop();
+        context.close();
+        client.close();
+        System.setOut(out);
+        try (var files = Files.walk(dataDirectory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public int createBooking() throws IOException, InterruptedException {
+        var random = ThreadLocalRandom.current();
+        var checkIn = LocalDate.of(2025, 1, 1).plusDays(random.nextInt(730));
+        var body = """
+                {"hotelName": "%s", "guestName": "Guest %d", "email": "guest@example.com", "checkIn": "%s", "checkOut": "%s"}"""
+                .formatted(HOTELS.get(random.nextInt(HOTELS.size())), random.nextInt(10_000), checkIn, checkIn.plusDays(1));
+        var response = client.send(HttpRequest.newBuilder(bookings).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 201) throw new IllegalStateException("Booking failed with " + response.statusCode());
+        return response.statusCode();
+    }
+}
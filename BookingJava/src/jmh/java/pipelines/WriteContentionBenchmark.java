@@ -0,0 +1,60 @@
+package pipelines;
+
+import org.openjdk.jmh.annotations.*;
+import pipelines.data.BookingRepository;
+import pipelines.data.InMemoryBookingRepository;
+import pipelines.data.ShardedBookingRepository;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bookings added by 1, 4 and 16 threads at once to one {@link InMemoryBookingRepository}, whose writers all
+ * compare-and-set the same root, and to a {@link ShardedBookingRepository} of 16 shards. The thread count where the
+ * single repository's throughput stops growing is the write-scaling limit of one root; run on at least 16 cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteContentionBenchmark {
+    private static final int HOTELS = 64;
+    private static final LocalDate CHECK_IN = LocalDate.of(2024, 6, 1);
+
+    @Param({"1", "16"})
+    public int shards;
+
+    private BookingRepository repository;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = shards == 1 ? new InMemoryBookingRepository() : new ShardedBookingRepository(shards);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addOneWriter() {
+        add();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addFourWriters() {
+        add();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void addSixteenWriters() {
+        add();
+    }
+
+    private void add() {
+        int hotel = ThreadLocalRandom.current().nextInt(HOTELS);
+        repository.add(new Booking(repository.getNextId(), "Hotel " + hotel, "Guest", "guest@example.com", CHECK_IN, CHECK_IN.plusDays(1)));
+    }
+}
@@ -2,35 +2,135 @@ package pipelines;
 
 import an.awesome.pipelinr.Command;
 import an.awesome.pipelinr.Notification;
-import an.awesome.pipelinr.Pipelinr;
 import io.javalin.Javalin;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import pipelines.controllers.BookingController;
+import pipelines.data.BookingRepository;
+import pipelines.data.InMemoryBookingRepository;
+import pipelines.data.Page;
+import pipelines.data.ShardedBookingRepository;
+import pipelines.data.journal.FsyncPolicy;
+import pipelines.data.journal.JournaledBookingRepository;
+import pipelines.domain.RoomInventory;
+import pipelines.infrastructure.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.UnaryOperator;
 
 import static pipelines.infrastructure.WebAppCreator.createJavalinApp;
 
 @Configuration
 @ComponentScan(basePackages = "pipelines")
 class IoC {
+    /**
+     * Handlers are looked up once the context is refreshed, when every handler bean exists; the providers are lazy
+     * because handlers publishing notifications depend on the pipeline themselves. Commands sent asynchronously
+     * that only have a blocking handler run where {@link WebAppCreator#blockingHandlers} puts them for the
+     * request threads chosen by {@code -Dbooking.virtualThreads}.
+     */
     @Bean
-    public Pipelinr pipeline(ObjectProvider<Command.Handler> commandHandlers,
-                             ObjectProvider<Command.Middleware> middlewares,
-                             ObjectProvider<Notification.Handler> notificationHandlers
+    public HandlerRegistry pipeline(ObjectProvider<Command.Handler> commandHandlers,
+                                    ObjectProvider<Command.Middleware> middlewares,
+                                    ObjectProvider<Notification.Handler> notificationHandlers,
+                                    ObjectProvider<AsyncPipeline.Handler> asyncHandlers,
+                                    ObjectProvider<AsyncPipeline.Middleware> asyncMiddlewares,
+                                    AsyncNotificationBus notificationBus
     ) {
-        return new Pipelinr()
-                .with(() -> commandHandlers.stream())
-                .with(() -> middlewares.orderedStream())
-                .with(() -> notificationHandlers.stream())
-                ;
+        boolean async = "async".equalsIgnoreCase(System.getProperty("booking.notifications"));
+        return new HandlerRegistry(commandHandlers::stream, middlewares::orderedStream, notificationHandlers::stream,
+                async ? notificationBus::queued : UnaryOperator.identity())
+                .withAsync(asyncHandlers::stream, asyncMiddlewares::orderedStream,
+                        WebAppCreator.blockingHandlers(Boolean.getBoolean("booking.virtualThreads")));
+    }
+
+    /**
+     * With {@code -Dbooking.notifications=async} notification handlers run on their own virtual threads instead of
+     * the publishing request. Each has a queue of {@code -Dbooking.notificationQueue=<capacity>} notifications,
+     * {@value AsyncNotificationBus#DEFAULT_CAPACITY} by default, and {@code -Dbooking.notificationOverflow=block|drop|caller_runs}
+     * decides what happens when it is full. Queued notifications are handled before the context closes.
+     */
+    @Bean
+    @DependsOn("emailService")
+    public AsyncNotificationBus notificationBus() {
+        return new AsyncNotificationBus(Integer.getInteger("booking.notificationQueue", AsyncNotificationBus.DEFAULT_CAPACITY),
+                AsyncNotificationBus.OverflowPolicy.valueOf(System.getProperty("booking.notificationOverflow", "block").toUpperCase()));
+    }
+
+    @EventListener
+    public void resolveHandlers(ContextRefreshedEvent event) {
+        event.getApplicationContext().getBean(HandlerRegistry.class).refresh();
+    }
+
+
+    /**
+     * Bookings are kept in memory only, unless {@code -Dbooking.data=<directory>} points at a directory for the
+     * write-ahead journal and snapshots, which the repository is recovered from on startup. With
+     * {@code -Dbooking.shards=<count>} they are partitioned by hotel over that many shards with their own write
+     * path, for write loads beyond what the single compare-and-set of {@link InMemoryBookingRepository} sustains.
+     */
+    @Bean
+    @Primary
+    public BookingRepository bookingRepository(InMemoryBookingRepository repository) throws IOException {
+        int shards = Integer.getInteger("booking.shards", 1);
+        BookingRepository bookings = shards > 1 ? new ShardedBookingRepository(shards) : repository;
+        var dataDirectory = System.getProperty("booking.data");
+        if (dataDirectory == null) return bookings;
+        return JournaledBookingRepository.open(bookings, Path.of(dataDirectory), FsyncPolicy.batch(), Duration.ofMinutes(5));
     }
 
+    /**
+     * Emails are printed, unless {@code -Dbooking.smtp=<host>:<port>} names a mail relay. They are then stored in an
+     * outbox in {@code -Dbooking.outbox=<directory>}, {@code outbox} by default, and sent from there in the background.
+     */
+    @Bean
+    @Primary
+    public EmailService emailService(ConsoleLoggingEmailService console) throws IOException {
+        var relay = System.getProperty("booking.smtp");
+        if (relay == null) return console;
+        int colon = relay.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("booking.smtp must be <host>:<port>: " + relay);
+        var transport = new SmtpTransport(relay.substring(0, colon), Integer.parseInt(relay.substring(colon + 1)),
+                System.getProperty("booking.mailFrom", "bookings@localhost"), Duration.ofSeconds(30));
+        return new EmailOutbox(Path.of(System.getProperty("booking.outbox", "outbox")), transport);
+    }
+
+    /**
+     * Every hotel has {@code -Dbooking.rooms=<count>} rooms, {@value RoomInventory#DEFAULT_ROOMS} by default;
+     * nights already booked are counted from the repository on startup.
+     */
+    @Bean
+    public RoomInventory roomInventory(BookingRepository repository) {
+        return new RoomInventory(Integer.getInteger("booking.rooms", RoomInventory.DEFAULT_ROOMS))
+                .load(repository.stream(null, null, Page.ALL));
+    }
+
+    /**
+     * Encoded listings are cached up to {@code -Dbooking.queryCacheBytes=<bytes>}, 32 MiB by default; 0 disables the cache.
+     */
+    @Bean
+    public QueryResultCache queryResultCache(BookingRepository repository) {
+        return new QueryResultCache(Long.getLong("booking.queryCacheBytes", QueryResultCache.DEFAULT_MAX_BYTES))
+                .invalidatedBy(repository);
+    }
 
+    /**
+     * With {@code -Dbooking.virtualThreads=true} requests run on virtual threads and the commands they send on the
+     * request thread, so the number of requests in flight is not capped by the size of a thread pool. Otherwise
+     * requests run on Jetty's pool and commands with a blocking handler on virtual threads of their own.
+     */
     @Bean
     public Javalin javalin(BookingController bookingController) {
-        return createJavalinApp(bookingController, config -> config.bundledPlugins.enableDevLogging());
+        return createJavalinApp(bookingController, Boolean.getBoolean("booking.virtualThreads"),
+                config -> config.bundledPlugins.enableDevLogging());
     }
 }
 
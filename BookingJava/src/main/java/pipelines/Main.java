@@ -3,14 +3,19 @@ package pipelines;
 import an.awesome.pipelinr.*;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
+import java.lang.management.ManagementFactory;
 import java.util.*;
 
 public class Main {
     public static void main(String[] args) {
         var context = new AnnotationConfigApplicationContext(IoC.class);
+        // closing the context on exit lets queued notifications finish
+        context.registerShutdownHook();
 
         var app = context.getBean(io.javalin.Javalin.class);
         app.start(8080);
-        System.out.println("🚀 Server running at http://localhost:" + app.port());
+        // JVM uptime at this point is the time until the first request can be accepted, recovery included
+        System.out.println("🚀 Server running at http://localhost:" + app.port()
+                + " (ready in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms)");
     }
 }
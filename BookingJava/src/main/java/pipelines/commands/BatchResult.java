@@ -0,0 +1,29 @@
+package pipelines.commands;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Outcome of a batch command, one item per input item in the same order.
+ */
+public record BatchResult(int succeeded, int failed, List<Item> items) {
+    public enum Status {
+        CREATED, UPDATED, DELETED, NOT_FOUND, INVALID, NO_VACANCY;
+
+        public boolean isSuccess() {
+            return this == CREATED || this == UPDATED || this == DELETED;
+        }
+    }
+
+    public record Item(int index, UUID bookingId, Status status, String error) {
+        public static Item of(int index, UUID bookingId, Status status) {
+            return new Item(index, bookingId, status, null);
+        }
+    }
+
+    public static BatchResult of(Item[] items) {
+        int succeeded = (int) Arrays.stream(items).filter(item -> item.status().isSuccess()).count();
+        return new BatchResult(succeeded, items.length - succeeded, List.of(items));
+    }
+}
@@ -0,0 +1,11 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @param bookings fields of each booking, as in {@link BookHotelCommand}, dates as ISO-8601 strings
+ */
+public record BookHotelBatchCommand(List<Map<?, ?>> bookings) implements Command<BatchResult> {}
@@ -0,0 +1,8 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Notification;
+import pipelines.domain.Booking;
+
+import java.util.List;
+
+public record BookingsConfirmedNotification(List<Booking> bookings) implements Notification {}
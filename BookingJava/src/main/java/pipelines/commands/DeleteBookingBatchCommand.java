@@ -0,0 +1,8 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+
+import java.util.List;
+import java.util.UUID;
+
+public record DeleteBookingBatchCommand(List<UUID> bookingIds) implements Command<BatchResult> {}
@@ -0,0 +1,9 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.domain.Booking;
+
+import java.util.List;
+import java.util.UUID;
+
+public record GetBookingsByIdsQuery(List<UUID> bookingIds) implements Command<List<Booking>> {}
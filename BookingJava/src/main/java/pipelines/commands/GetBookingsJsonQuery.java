@@ -0,0 +1,8 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+
+/**
+ * Result of {@code query} as the encoded JSON array, which may come from the query result cache.
+ */
+public record GetBookingsJsonQuery(GetBookingsQuery query) implements Command<byte[]> {}
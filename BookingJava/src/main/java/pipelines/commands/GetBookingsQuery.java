@@ -7,6 +7,8 @@ import pipelines.domain.Booking;
 import java.util.*;
 
 
-public record GetBookingsQuery(Map<String, DataFilter<?>> filter, Iterable<SortField> sort) implements Command<List<Booking>> {
+public record GetBookingsQuery(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) implements Command<List<Booking>> {
     public GetBookingsQuery() {this(null, null);}
+
+    public GetBookingsQuery(Map<String, DataFilter<?>> filter, Iterable<SortField> sort) {this(filter, sort, Page.ALL);}
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+
+/**
+ * Version of the last write to any booking; equal versions mean every query still has the same result.
+ */
+public record GetBookingsVersionQuery() implements Command<Long> {}
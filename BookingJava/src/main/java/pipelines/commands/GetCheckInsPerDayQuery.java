@@ -0,0 +1,10 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.data.DataFilter;
+import pipelines.data.CheckInCount;
+
+import java.util.List;
+import java.util.Map;
+
+public record GetCheckInsPerDayQuery(Map<String, DataFilter<?>> filter) implements Command<List<CheckInCount>> {}
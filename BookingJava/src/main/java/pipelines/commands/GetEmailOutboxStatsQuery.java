@@ -0,0 +1,9 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.infrastructure.EmailOutbox;
+
+/**
+ * Answered with {@code null} when emails are not sent through an outbox.
+ */
+public record GetEmailOutboxStatsQuery() implements Command<EmailOutbox.Stats> {}
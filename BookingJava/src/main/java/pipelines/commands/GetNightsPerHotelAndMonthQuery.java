@@ -0,0 +1,10 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.data.DataFilter;
+import pipelines.data.NightsCount;
+
+import java.util.List;
+import java.util.Map;
+
+public record GetNightsPerHotelAndMonthQuery(Map<String, DataFilter<?>> filter) implements Command<List<NightsCount>> {}
@@ -0,0 +1,6 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.infrastructure.QueryResultCache;
+
+public record GetQueryCacheStatsQuery() implements Command<QueryResultCache.Stats> {}
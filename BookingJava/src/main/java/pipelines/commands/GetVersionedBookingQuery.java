@@ -0,0 +1,8 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.data.VersionedBooking;
+
+import java.util.UUID;
+
+public record GetVersionedBookingQuery(UUID bookingId) implements Command<VersionedBooking> {}
@@ -1,8 +1,16 @@
 package pipelines.commands;
 
 import an.awesome.pipelinr.Command;
+import pipelines.data.BookingRepository;
 
 import java.util.Map;
 import java.util.UUID;
 
-public record PatchBookingCommand(UUID bookingId, Map<?, ?> fields) implements Command<Boolean> {}
+/**
+ * @param expectedVersion version the booking has to be at, {@link BookingRepository#ANY_VERSION} to patch any
+ */
+public record PatchBookingCommand(UUID bookingId, Map<?, ?> fields, long expectedVersion) implements Command<Boolean> {
+    public PatchBookingCommand(UUID bookingId, Map<?, ?> fields) {
+        this(bookingId, fields, BookingRepository.ANY_VERSION);
+    }
+}
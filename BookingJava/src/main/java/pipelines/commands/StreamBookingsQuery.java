@@ -0,0 +1,11 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+
+public record StreamBookingsQuery(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) implements Command<Stream<Booking>> {}
@@ -0,0 +1,11 @@
+package pipelines.commands;
+
+import an.awesome.pipelinr.Command;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @param bookings all fields of each booking including its {@code id}, dates as ISO-8601 strings
+ */
+public record UpdateBookingBatchCommand(List<Map<?, ?>> bookings) implements Command<BatchResult> {}
@@ -1,9 +1,17 @@
 package pipelines.commands;
 
 import an.awesome.pipelinr.Command;
+import pipelines.data.BookingRepository;
 
 import java.time.LocalDate;
 import java.util.UUID;
 
+/**
+ * @param expectedVersion version the booking has to be at, {@link BookingRepository#ANY_VERSION} to overwrite any
+ */
 public record UpdateBookingCommand(UUID bookingId, String hotelName, String guestName, String email, LocalDate checkIn,
-                                   LocalDate checkOut) implements Command<Boolean> {}
+                                   LocalDate checkOut, long expectedVersion) implements Command<Boolean> {
+    public UpdateBookingCommand(UUID bookingId, String hotelName, String guestName, String email, LocalDate checkIn, LocalDate checkOut) {
+        this(bookingId, hotelName, guestName, email, checkIn, checkOut, BookingRepository.ANY_VERSION);
+    }
+}
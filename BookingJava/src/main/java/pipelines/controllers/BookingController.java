@@ -1,28 +1,38 @@
 package pipelines.controllers;
 
-import an.awesome.pipelinr.Pipeline;
+import an.awesome.pipelinr.Command;
 import io.javalin.apibuilder.EndpointGroup;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.openapi.*;
 import org.springframework.stereotype.Component;
 import pipelines.commands.*;
-import pipelines.data.DataExpressionParser;
+import pipelines.data.*;
 import pipelines.domain.Booking;
+import pipelines.infrastructure.AsyncPipeline;
 import pipelines.infrastructure.BookingWebSocketHub;
 import pipelines.response.*;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Function;
 
 import static io.javalin.apibuilder.ApiBuilder.*;
 
 @Component
-public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocketHub) implements EndpointGroup {
+public record BookingController(AsyncPipeline pipeline, BookingWebSocketHub webSocketHub) implements EndpointGroup {
     private static final String RESOURCE_NAME = "Bookings";
     private static final String BASE_PATH = "/bookings";
     private static final String ID_PATH = BASE_PATH + "/{id}";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    // versions are clock stamps, so no booking is ever at version 0
+    private static final long UNKNOWN_VERSION = 0;
 
     @Override
     public void addEndpoints() {
@@ -30,6 +40,23 @@ public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocket
             post(this::createBooking);
             get(this::listBookings);
 
+            // registered before {id}, which would otherwise match "batch", "aggregates", "query-cache" and "email-outbox"
+            path("batch", () -> {
+                post(this::createBookings);
+                get(this::getBookingsByIds);
+                put(this::updateBookings);
+                delete(this::deleteBookings);
+            });
+
+            path("aggregates", () -> {
+                get("hotels", ctx -> getAggregate(ctx, GetBookingsPerHotelQuery::new));
+                get("check-ins", ctx -> getAggregate(ctx, GetCheckInsPerDayQuery::new));
+                get("nights", ctx -> getAggregate(ctx, GetNightsPerHotelAndMonthQuery::new));
+            });
+
+            get("query-cache", ctx -> ctx.json(pipeline.send(new GetQueryCacheStatsQuery())).status(HttpStatus.OK));
+            get("email-outbox", this::getEmailOutboxStats);
+
             path("{id}", () -> {
                 get(this::getBooking);
                 put(this::updateBooking);
@@ -59,7 +86,8 @@ public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocket
             methods = {HttpMethod.POST},
             responses = {
                     @OpenApiResponse(status = "201", content = @OpenApiContent(from = BookingCreatedResponse.class)),
-                    @OpenApiResponse(status = "400", description = "Missing or invalid fields, dates not in ISO-8601 format, checkOut before checkIn")
+                    @OpenApiResponse(status = "400", description = "Missing or invalid fields, dates not in ISO-8601 format, checkOut before checkIn"),
+                    @OpenApiResponse(status = "409", description = "The hotel has no rooms left on a night of the stay")
             }
     )
     private void createBooking(Context ctx) {
@@ -70,29 +98,99 @@ public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocket
         var checkIn = getRequiredDate(body, "checkIn");
         var checkOut = getRequiredDate(body, "checkOut");
 
-        var bookingId = pipeline.send(new BookHotelCommand(hotel, guest, email, checkIn, checkOut));
+        ctx.future(() -> pipeline.sendAsync(new BookHotelCommand(hotel, guest, email, checkIn, checkOut)).thenAccept(bookingId -> {
+            webSocketHub.broadcast(Map.of("event", "BookingCreated", "bookingId", bookingId.toString(), "guestName", guest, "hotelName", hotel));
+
+
+            String baseUrl = ctx.url();
+            String bookingUrl = baseUrl + "/" + bookingId;
+
+
+            ctx.status(HttpStatus.CREATED)
+                    .header("Location", bookingUrl)
+                    .json(
+                            new BookingCreatedResponse(
+                                    bookingId.toString(),
+                                    new Links(
+                                            new Link(bookingUrl, "GET"),
+                                            new Link(bookingUrl, "PUT"),
+                                            new Link(bookingUrl, "PATCH"),
+                                            new Link(bookingUrl, "DELETE"),
+                                            new Link(baseUrl, "GET")
+                                    )
+                            )
+                    );
+        }));
+    }
 
-        webSocketHub.broadcast(Map.of("event", "BookingCreated", "bookingId", bookingId.toString(), "guestName", guest, "hotelName", hotel));
+    @OpenApi(summary = "Create many bookings at once",
+            description = "Each booking is validated and checked for vacancy on its own; the accepted ones are stored in one write. " +
+                    "A single event reporting every item is broadcast to WebSocket clients",
+            requestBody = @OpenApiRequestBody(content = @OpenApiContent(from = BookHotelCommand[].class), required = true),
+            tags = {RESOURCE_NAME},
+            path = BASE_PATH + "/batch",
+            methods = {HttpMethod.POST},
+            responses = {
+                    @OpenApiResponse(status = "200", content = @OpenApiContent(from = BatchResult.class)),
+                    @OpenApiResponse(status = "400", description = "Body is not an array of objects or holds more than 10000 items")
+            }
+    )
+    private void createBookings(Context ctx) {
+        sendBatch(ctx, new BookHotelBatchCommand(getBatchItems(ctx)), "BookingsCreated");
+    }
+
+    private void getBookingsByIds(Context ctx) {
+        var ids = ctx.queryParam("ids");
+        if (ids == null || ids.isBlank()) throw new BadRequestResponse("Missing required query parameter: ids");
+        var bookingIds = Arrays.stream(ids.split(",")).map(String::trim).toList();
+        ctx.json(pipeline.send(new GetBookingsByIdsQuery(parseUuids(bookingIds)))).status(HttpStatus.OK);
+    }
 
+    private void updateBookings(Context ctx) {
+        sendBatch(ctx, new UpdateBookingBatchCommand(getBatchItems(ctx)), "BookingsUpdated");
+    }
 
-        String baseUrl = ctx.url();
-        String bookingUrl = baseUrl + "/" + bookingId;
+    private void deleteBookings(Context ctx) {
+        var body = ctx.bodyAsClass(List.class);
+        if (body.size() > MAX_BATCH_SIZE) throw new BadRequestResponse("A batch holds at most %d items".formatted(MAX_BATCH_SIZE));
+        sendBatch(ctx, new DeleteBookingBatchCommand(parseUuids(body)), "BookingsDeleted");
+    }
 
+    private void sendBatch(Context ctx, Command<BatchResult> command, String event) {
+        ctx.future(() -> pipeline.sendAsync(command).thenAccept(result -> {
+            broadcastBatch(event, result);
+            ctx.json(result).status(HttpStatus.OK);
+        }));
+    }
 
-        ctx.status(HttpStatus.CREATED)
-                .header("Location", bookingUrl)
-                .json(
-                        new BookingCreatedResponse(
-                                bookingId.toString(),
-                                new Links(
-                                        new Link(bookingUrl, "GET"),
-                                        new Link(bookingUrl, "PUT"),
-                                        new Link(bookingUrl, "PATCH"),
-                                        new Link(bookingUrl, "DELETE"),
-                                        new Link(baseUrl, "GET")
-                                )
-                        )
-                );
+    private void broadcastBatch(String event, BatchResult result) {
+        webSocketHub.broadcast(Map.of(
+                "event", event,
+                "succeeded", result.succeeded(),
+                "failed", result.failed(),
+                "items", result.items()
+        ));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<?, ?>> getBatchItems(Context ctx) {
+        var body = ctx.bodyAsClass(List.class);
+        if (body.size() > MAX_BATCH_SIZE) throw new BadRequestResponse("A batch holds at most %d items".formatted(MAX_BATCH_SIZE));
+        for (var item : body)
+            if (!(item instanceof Map)) throw new BadRequestResponse("Every batch item has to be an object");
+        return (List<Map<?, ?>>) body;
+    }
+
+    private static List<UUID> parseUuids(List<?> values) {
+        var bookingIds = new ArrayList<UUID>(values.size());
+        for (var value : values) {
+            try {
+                bookingIds.add(UUID.fromString((String) value));
+            } catch (IllegalArgumentException | ClassCastException | NullPointerException e) {
+                throw new BadRequestResponse("Invalid booking id: " + value);
+            }
+        }
+        return bookingIds;
     }
 
     @OpenApi(summary = "Get all bookings. Supported fields: hotelName, guestName, email, checkIn, checkOut.",
@@ -103,29 +201,107 @@ public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocket
             methods = {HttpMethod.GET},
             queryParams = {
                     @OpenApiParam(name = "filter",
-                            description = "Filter bookings by criteria. Supported operators: eq, neq, has (for strings), dates operators (gt, lt, gte, lte). Combine conditions with AND",
+                            description = "Filter bookings by criteria. Supported operators: eq, neq, has (for strings), dates operators (gt, lt, gte, lte), overlaps (for stay, a yyyy-MM-dd..yyyy-MM-dd range). Combine conditions with AND",
                             example = "guestName eq 'John' and hotelName eq 'Hilton'"
                     ),
                     @OpenApiParam(name = "sort",
                             description = "Sort bookings by field name and direction (ASC-default or DESC). Multiple fields can be separated by commas.",
                             example = "checkIn DESC, hotelName ASC, guestName"
+                    ),
+                    @OpenApiParam(name = "limit", type = Integer.class,
+                            description = "Maximum number of bookings to return",
+                            example = "50"
+                    ),
+                    @OpenApiParam(name = "offset", type = Integer.class,
+                            description = "Number of bookings to skip. Without sort the order is unspecified",
+                            example = "100"
+                    ),
+                    @OpenApiParam(name = "cursor",
+                            description = "Opaque keyset position. Pass an empty value to get the first page as a BookingsPageResponse object, then follow its next link",
+                            example = ""
                     )
             }
     )
     private void listBookings(Context ctx) {
         var filter = DataExpressionParser.parseFilter(ctx.queryParam("filter"), Booking.class);
         var sort = DataExpressionParser.parseSort(ctx.queryParam("sort"));
+        var offset = getOptionalNonNegativeInt(ctx, "offset");
+        var limit = getOptionalNonNegativeInt(ctx, "limit");
+
+        var cursor = ctx.queryParam("cursor");
+        if (cursor != null && offset != null) throw new BadRequestResponse("offset cannot be combined with cursor");
+        // an empty page has no last row to continue after
+        if (cursor != null && limit != null && limit == 0) throw new BadRequestResponse("limit must be positive with cursor");
+        if (notModified(ctx, listEtag(filter, sort, offset, limit, cursor))) return;
+
+        if (cursor != null) {
+            listBookingsPage(ctx, filter, sort, limit == null ? DEFAULT_PAGE_SIZE : limit, cursor.isBlank() ? null : Cursor.decode(cursor));
+            return;
+        }
+
+        // bounded listings are served from the query result cache, unbounded ones are streamed as they are read
+        if (limit != null) {
+            var json = pipeline.send(new GetBookingsJsonQuery(new GetBookingsQuery(filter, sort, Page.of(offset, limit))));
+            ctx.status(HttpStatus.OK).contentType(ContentType.APPLICATION_JSON).result(json);
+            return;
+        }
+
+        var bookings = pipeline.send(new StreamBookingsQuery(filter, sort, Page.of(offset, limit)));
+        ctx.status(HttpStatus.OK).writeJsonStream(bookings);
+    }
+
+    @OpenApi(summary = "Count bookings per hotel, check-ins per day or nights sold per hotel and month",
+            description = "Served from counters that are kept up to date on every write, when the filter only names the grouped field " +
+                    "(hotelName for hotels and nights, checkIn for check-ins). Other filters are counted over the matching bookings",
+            tags = {RESOURCE_NAME},
+            path = BASE_PATH + "/aggregates/{aggregate}",
+            methods = {HttpMethod.GET},
+            pathParams = @OpenApiParam(name = "aggregate", description = "hotels, check-ins or nights", required = true),
+            queryParams = @OpenApiParam(name = "filter", description = "Same syntax as for listing bookings", example = "hotelName eq 'Hilton'"),
+            responses = {
+                    @OpenApiResponse(status = "200", description = "Array of HotelCount, CheckInCount or NightsCount"),
+                    @OpenApiResponse(status = "400", description = "Invalid filter")
+            }
+    )
+    private <R> void getAggregate(Context ctx, Function<Map<String, DataFilter<?>>, Command<List<R>>> query) {
+        var filter = DataExpressionParser.parseFilter(ctx.queryParam("filter"), Booking.class);
+        ctx.json(pipeline.send(query.apply(filter))).status(HttpStatus.OK);
+    }
 
-        var bookings = pipeline.send(new GetBookingsQuery(filter, sort));
-        ctx.json(bookings).status(HttpStatus.OK);
+    private void getEmailOutboxStats(Context ctx) {
+        var stats = pipeline.send(new GetEmailOutboxStatsQuery());
+        if (stats == null) ctx.status(HttpStatus.NOT_FOUND).result("Emails are not sent through an outbox");
+        else ctx.json(stats).status(HttpStatus.OK);
+    }
+
+    private void listBookingsPage(Context ctx, Map<String, DataFilter<?>> filter, Iterable<SortField> sort, int limit, Cursor after) {
+        // one extra row tells whether there is a next page
+        var rows = pipeline.send(new GetBookingsQuery(filter, sort, new Page(0, limit == Integer.MAX_VALUE ? limit : limit + 1, after)));
+
+        var items = rows.size() > limit ? rows.subList(0, limit) : rows;
+        var nextCursor = rows.size() > limit ? Cursor.after(sort, items.getLast()).encode() : null;
+        var next = nextCursor == null ? null : new Link(pageUrl(ctx, limit, nextCursor), "GET");
+
+        ctx.json(new BookingsPageResponse(items, nextCursor, new PageLinks(new Link(ctx.fullUrl(), "GET"), next)))
+                .status(HttpStatus.OK);
+    }
+
+    private static String pageUrl(Context ctx, int limit, String cursor) {
+        var query = new StringJoiner("&");
+        for (String name : List.of("filter", "sort")) {
+            var value = ctx.queryParam(name);
+            if (value != null) query.add(name + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8));
+        }
+        query.add("limit=" + limit);
+        query.add("cursor=" + cursor);
+        return ctx.url() + "?" + query;
     }
 
     private void getBooking(Context ctx) {
         UUID bookingId = getUuidFromPath(ctx);
-        var bookings = pipeline.send(new GetBookingsByIdQuery(bookingId));
-        if (bookings != null)
-            ctx.json(bookings).status(HttpStatus.OK);
-        else ctx.status(HttpStatus.NOT_FOUND);
+        var booking = pipeline.send(new GetVersionedBookingQuery(bookingId));
+        if (booking == null) ctx.status(HttpStatus.NOT_FOUND);
+        else if (!notModified(ctx, etag(booking.version()))) ctx.json(booking.booking()).status(HttpStatus.OK);
     }
 
     private void updateBooking(Context ctx) {
@@ -138,44 +314,108 @@ public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocket
 
 
         var bookingId = getUuidFromPath(ctx);
-        boolean updated = pipeline.send(new UpdateBookingCommand(bookingId, hotel, guest, email, checkIn, checkOut));
-
-        if (updated)
-            webSocketHub.broadcast(Map.of(
-                    "event", "BookingUpdated",
-                    "bookingId", bookingId.toString()
-            ));
-
-        if (updated) ctx.status(HttpStatus.NO_CONTENT);
-        else ctx.status(HttpStatus.NOT_FOUND).result("Booking ID not found: " + bookingId);
+        var command = new UpdateBookingCommand(bookingId, hotel, guest, email, checkIn, checkOut, getExpectedVersion(ctx));
+        ctx.future(() -> pipeline.sendAsync(command).thenAccept(updated -> {
+            if (updated)
+                webSocketHub.broadcast(Map.of(
+                        "event", "BookingUpdated",
+                        "bookingId", bookingId.toString()
+                ));
+
+            if (updated) ctx.status(HttpStatus.NO_CONTENT);
+            else ctx.status(notFoundStatus(ctx)).result("Booking ID not found: " + bookingId);
+        }));
     }
 
     private void patchBooking(Context ctx) {
         var bookingId = getUuidFromPath(ctx);
         var body = ctx.bodyAsClass(Map.class);
 
-        boolean patched = pipeline.send(new PatchBookingCommand(bookingId, body));
+        var command = new PatchBookingCommand(bookingId, body, getExpectedVersion(ctx));
+        ctx.future(() -> pipeline.sendAsync(command).thenAccept(patched -> {
+            if (patched)
+                webSocketHub.broadcast(Map.of(
+                        "event", "BookingPatched",
+                        "bookingId", bookingId.toString()
+                ));
+
+            if (patched) ctx.status(HttpStatus.NO_CONTENT);
+            else ctx.status(notFoundStatus(ctx)).result("Booking ID not found: " + bookingId);
+        }));
+    }
 
-        if (patched)
-            webSocketHub.broadcast(Map.of(
-                    "event", "BookingPatched",
-                    "bookingId", bookingId.toString()
-            ));
+    private static String etag(long version) {
+        return '"' + Long.toHexString(version) + '"';
+    }
 
-        if (patched) ctx.status(HttpStatus.NO_CONTENT);
-        else ctx.status(HttpStatus.NOT_FOUND).result("Booking ID not found: " + bookingId);
+    /**
+     * Weak tag of a listing made of the repository version and a hash of the normalized query; filters are ordered
+     * by field name, so query strings that differ only in spacing or in the order of conditions share it.
+     * The version is read before the query runs, so a tag never claims newer content than was sent with it.
+     */
+    private String listEtag(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Integer offset, Integer limit, String cursor) {
+        long version = pipeline.send(new GetBookingsVersionQuery());
+        var query = (filter == null ? "" : new TreeMap<>(filter).toString()) + '|' + sort + '|' + offset + '|' + limit + '|' + cursor;
+        long hash = 1125899906842597L;
+        for (int i = 0; i < query.length(); i++) hash = 31 * hash + query.charAt(i);
+        return "W/\"" + Long.toHexString(version) + '-' + Long.toHexString(hash) + '"';
+    }
+
+    /**
+     * Sets {@code etag} and answers {@code 304} when {@code If-None-Match} names it, compared weakly.
+     *
+     * @return whether the response is complete
+     */
+    private static boolean notModified(Context ctx, String etag) {
+        ctx.header(Header.ETAG, etag);
+        var ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch == null) return false;
+        for (var tag : ifNoneMatch.split(",")) {
+            var candidate = tag.trim();
+            if (candidate.equals("*") || weak(candidate).equals(weak(etag))) {
+                ctx.status(HttpStatus.NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * @return version named by the {@code If-Match} header, {@link BookingRepository#ANY_VERSION} without the header
+     * or for {@code *}, and a version no booking has for a tag that is not one of ours or weak, as If-Match compares strongly
+     */
+    private static long getExpectedVersion(Context ctx) {
+        var ifMatch = ctx.header(Header.IF_MATCH);
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) return BookingRepository.ANY_VERSION;
+        var tag = ifMatch.trim();
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') return UNKNOWN_VERSION;
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1), 16);
+        } catch (NumberFormatException e) {
+            return UNKNOWN_VERSION;
+        }
+    }
+
+    // a conditional request on a booking that does not exist fails its precondition
+    private static HttpStatus notFoundStatus(Context ctx) {
+        return ctx.header(Header.IF_MATCH) == null ? HttpStatus.NOT_FOUND : HttpStatus.PRECONDITION_FAILED;
     }
 
     private void deleteBooking(Context ctx) {
         UUID bookingId = getUuidFromPath(ctx);
 
-        boolean deleted = pipeline.send(new DeleteBookingCommand(bookingId));
-        if (deleted)
-            webSocketHub.broadcast(Map.of(
-                    "event", "BookingDeleted",
-                    "bookingId", bookingId.toString()
-            ));
-        ctx.status(deleted ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+        ctx.future(() -> pipeline.sendAsync(new DeleteBookingCommand(bookingId)).thenAccept(deleted -> {
+            if (deleted)
+                webSocketHub.broadcast(Map.of(
+                        "event", "BookingDeleted",
+                        "bookingId", bookingId.toString()
+                ));
+            ctx.status(deleted ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND);
+        }));
     }
 
     private static UUID getUuidFromPath(Context ctx) {
@@ -186,6 +426,18 @@ public record BookingController(Pipeline pipeline, BookingWebSocketHub webSocket
         }
     }
 
+    private static Integer getOptionalNonNegativeInt(Context ctx, String paramName) {
+        var value = ctx.queryParam(paramName);
+        if (value == null || value.isBlank()) return null;
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result < 0) throw new NumberFormatException("value cannot be negative");
+            return result;
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse("Invalid value for query parameter %s: %s".formatted(paramName, e.getMessage()));
+        }
+    }
+
     private static String requireNonEmptyString(Map<?, ?> body, String fieldName) {
         var value = body.get(fieldName);
         if (value == null || ((String) value).isBlank()) throw new BadRequestResponse("Missing or empty required field: " + fieldName);
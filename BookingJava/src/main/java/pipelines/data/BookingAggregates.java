@@ -0,0 +1,147 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Immutable counters for reporting: bookings per hotel, check-ins per day and nights sold per hotel and month.
+ * Like {@link BookingIndexes} they are replaced on every write, so a read costs a lookup per reported row
+ * instead of a scan over the bookings.
+ * <p>
+ * A filter that only constrains the grouping field is answered from the counters directly; see {@link #answers}.
+ */
+record BookingAggregates(PersistentHashMap<String, Long> bookingsPerHotel,
+                         PersistentHashMap<LocalDate, Long> checkInsPerDay, PersistentTreeSet<LocalDate> checkInDays,
+                         PersistentHashMap<String, PersistentHashMap<YearMonth, Long>> nightsPerHotel) {
+
+    static final String HOTEL_NAME = "hotelName";
+    static final String CHECK_IN = "checkIn";
+
+    static final BookingAggregates EMPTY = new BookingAggregates(
+            PersistentHashMap.empty(), PersistentHashMap.empty(), PersistentTreeSet.empty(Comparator.naturalOrder()), PersistentHashMap.empty());
+
+    /**
+     * Counters over the given bookings only, for filters the maintained counters cannot answer.
+     */
+    static BookingAggregates of(Stream<Booking> bookings) {
+        var result = new BookingAggregates[]{EMPTY};
+        bookings.forEach(booking -> result[0] = result[0].replace(null, booking));
+        return result[0];
+    }
+
+    /**
+     * @return whether {@code filter} constrains nothing but {@code fieldName}
+     */
+    static boolean answers(Map<String, DataFilter<?>> filter, String fieldName) {
+        return filter == null || filter.isEmpty() || filter.size() == 1 && filter.containsKey(fieldName);
+    }
+
+    BookingAggregates replace(Booking removed, Booking added) {
+        if (removed != null && added != null && removed.hotelName().equals(added.hotelName())
+                && removed.checkIn().equals(added.checkIn()) && removed.checkOut().equals(added.checkOut()))
+            return this;
+
+        var result = this;
+        if (removed != null) result = result.count(removed, -1);
+        if (added != null) result = result.count(added, 1);
+        return result;
+    }
+
+    private BookingAggregates count(Booking booking, long delta) {
+        var hotels = adjust(bookingsPerHotel, booking.hotelName(), delta);
+
+        var day = booking.checkIn();
+        var checkIns = adjust(checkInsPerDay, day, delta);
+        var days = checkInDays;
+        if (!checkIns.containsKey(day)) days = days.minus(day);
+        else if (!checkInsPerDay.containsKey(day)) days = days.plus(day);
+
+        var months = nightsPerHotel.get(booking.hotelName());
+        if (months == null) months = PersistentHashMap.empty();
+        for (var night = booking.checkIn(); night.isBefore(booking.checkOut()); ) {
+            var month = YearMonth.from(night);
+            var end = month.plusMonths(1).atDay(1);
+            if (end.isAfter(booking.checkOut())) end = booking.checkOut();
+            months = adjust(months, month, delta * ChronoUnit.DAYS.between(night, end));
+            night = end;
+        }
+        var nights = months.isEmpty() ? nightsPerHotel.minus(booking.hotelName()) : nightsPerHotel.plus(booking.hotelName(), months);
+
+        return new BookingAggregates(hotels, checkIns, days, nights);
+    }
+
+    private static <K> PersistentHashMap<K, Long> adjust(PersistentHashMap<K, Long> counts, K key, long delta) {
+        var count = counts.get(key);
+        long updated = (count == null ? 0 : count) + delta;
+        return updated == 0 ? counts.minus(key) : counts.plus(key, updated);
+    }
+
+    /**
+     * @param filter constrains {@value #HOTEL_NAME} only
+     */
+    List<HotelCount> countPerHotel(Map<String, DataFilter<?>> filter) {
+        var single = singleHotel(filter);
+        if (single != null) {
+            var count = bookingsPerHotel.get(single);
+            return count == null ? List.of() : List.of(new HotelCount(single, count));
+        }
+
+        var hotels = CompiledFilter.of(filter);
+        var result = new ArrayList<HotelCount>();
+        bookingsPerHotel.forEach((hotelName, count) -> {
+            if (hotels.test(hotel(hotelName))) result.add(new HotelCount(hotelName, count));
+        });
+        result.sort(Comparator.comparing(HotelCount::hotelName));
+        return result;
+    }
+
+    /**
+     * @param filter constrains {@value #CHECK_IN} only
+     */
+    List<CheckInCount> countPerCheckInDay(Map<String, DataFilter<?>> filter) {
+        var dateFilter = filter == null ? null : filter.get(CHECK_IN);
+        ToIntFunction<LocalDate> range = dateFilter instanceof DateFilter df && df.operator() != Operator.NEQ
+                ? BookingIndexes.position(df)
+                : date -> 0;
+        var days = CompiledFilter.of(filter);
+        var result = new ArrayList<CheckInCount>();
+        checkInDays.forEach(range, day -> {
+            if (days.test(new Booking(null, null, null, null, day, null))) result.add(new CheckInCount(day, checkInsPerDay.get(day)));
+        });
+        return result;
+    }
+
+    /**
+     * @param filter constrains {@value #HOTEL_NAME} only
+     */
+    List<NightsCount> countNightsPerHotelAndMonth(Map<String, DataFilter<?>> filter) {
+        var result = new ArrayList<NightsCount>();
+        var single = singleHotel(filter);
+        if (single != null) {
+            var months = nightsPerHotel.get(single);
+            if (months != null) months.forEach((month, nights) -> result.add(new NightsCount(single, month, nights)));
+        } else {
+            var hotels = CompiledFilter.of(filter);
+            nightsPerHotel.forEach((hotelName, months) -> {
+                if (hotels.test(hotel(hotelName)))
+                    months.forEach((month, nights) -> result.add(new NightsCount(hotelName, month, nights)));
+            });
+        }
+        result.sort(Comparator.comparing(NightsCount::hotelName).thenComparing(NightsCount::month));
+        return result;
+    }
+
+    private static String singleHotel(Map<String, DataFilter<?>> filter) {
+        return filter != null && filter.get(HOTEL_NAME) instanceof StringFilter sf && sf.operator() == Operator.EQ ? sf.value() : null;
+    }
+
+    private static Booking hotel(String hotelName) {
+        return new Booking(null, hotelName, null, null, null, null);
+    }
+}
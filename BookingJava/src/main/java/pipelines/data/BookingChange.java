@@ -0,0 +1,19 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.util.Map;
+
+/**
+ * One committed write: {@code before} is {@code null} for an added booking, {@code after} for a deleted one.
+ */
+public record BookingChange(Booking before, Booking after) {
+    /**
+     * @return whether the result of a query with {@code filter} may differ after this change, which is the case
+     * exactly when the booking matched the filter before or matches it afterward
+     */
+    public boolean affects(Map<String, DataFilter<?>> filter) {
+        var predicate = CompiledFilter.of(filter);
+        return before != null && predicate.test(before) || after != null && predicate.test(after);
+    }
+}
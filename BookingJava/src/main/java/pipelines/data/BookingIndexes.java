@@ -0,0 +1,416 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable secondary indexes over bookings: hash and trigram indexes on the string fields and ordered indexes
+ * on every sortable field, which the dates also answer range filters from. They are replaced together with the
+ * primary map, so an index always describes exactly the same snapshot.
+ */
+record BookingIndexes(HashIndex hotelName, HashIndex guestName, HashIndex email,
+                      NgramIndex hotelNameGrams, NgramIndex guestNameGrams, NgramIndex emailGrams,
+                      OrderedIndex<LocalDate> checkIn, OrderedIndex<LocalDate> checkOut,
+                      OrderedIndex<UUID> byId, OrderedIndex<String> byHotelName, OrderedIndex<String> byGuestName,
+                      OrderedIndex<String> byEmail) {
+
+    static final BookingIndexes EMPTY = new BookingIndexes(
+            HashIndex.empty(Booking::hotelName),
+            HashIndex.empty(Booking::guestName),
+            HashIndex.empty(Booking::email),
+            NgramIndex.empty(Booking::hotelName),
+            NgramIndex.empty(Booking::guestName),
+            NgramIndex.empty(Booking::email),
+            OrderedIndex.empty(Booking::checkIn, b -> b.checkOut().toEpochDay()),
+            OrderedIndex.empty(Booking::checkOut),
+            OrderedIndex.empty(Booking::id),
+            OrderedIndex.empty(Booking::hotelName),
+            OrderedIndex.empty(Booking::guestName),
+            OrderedIndex.empty(Booking::email)
+    );
+
+    /**
+     * Indexes over {@code bookings}, which have distinct ids, each index built by its own task in parallel.
+     */
+    static BookingIndexes of(List<Booking> bookings) {
+        var hotelName = build(bookings, EMPTY.hotelName(), HashIndex::replace);
+        var guestName = build(bookings, EMPTY.guestName(), HashIndex::replace);
+        var email = build(bookings, EMPTY.email(), HashIndex::replace);
+        var hotelNameGrams = build(bookings, EMPTY.hotelNameGrams(), NgramIndex::replace);
+        var guestNameGrams = build(bookings, EMPTY.guestNameGrams(), NgramIndex::replace);
+        var emailGrams = build(bookings, EMPTY.emailGrams(), NgramIndex::replace);
+        var checkIn = build(bookings, EMPTY.checkIn(), OrderedIndex::replace);
+        var checkOut = build(bookings, EMPTY.checkOut(), OrderedIndex::replace);
+        var byId = build(bookings, EMPTY.byId(), OrderedIndex::replace);
+        var byHotelName = build(bookings, EMPTY.byHotelName(), OrderedIndex::replace);
+        var byGuestName = build(bookings, EMPTY.byGuestName(), OrderedIndex::replace);
+        var byEmail = build(bookings, EMPTY.byEmail(), OrderedIndex::replace);
+        return new BookingIndexes(hotelName.join(), guestName.join(), email.join(),
+                hotelNameGrams.join(), guestNameGrams.join(), emailGrams.join(),
+                checkIn.join(), checkOut.join(), byId.join(), byHotelName.join(), byGuestName.join(), byEmail.join());
+    }
+
+    private static <I> CompletableFuture<I> build(List<Booking> bookings, I empty, Replace<I> replace) {
+        return CompletableFuture.supplyAsync(() -> {
+            var index = empty;
+            for (var booking : bookings) index = replace.apply(index, null, booking);
+            return index;
+        });
+    }
+
+    @FunctionalInterface
+    private interface Replace<I> {
+        I apply(I index, Booking removed, Booking added);
+    }
+
+    BookingIndexes replace(Booking removed, Booking added) {
+        return new BookingIndexes(
+                hotelName.replace(removed, added),
+                guestName.replace(removed, added),
+                email.replace(removed, added),
+                hotelNameGrams.replace(removed, added),
+                guestNameGrams.replace(removed, added),
+                emailGrams.replace(removed, added),
+                checkIn.replace(removed, added),
+                checkOut.replace(removed, added),
+                byId.replace(removed, added),
+                byHotelName.replace(removed, added),
+                byGuestName.replace(removed, added),
+                byEmail.replace(removed, added)
+        );
+    }
+
+    /**
+     * Candidates are {@code null} when no index applies and the caller has to scan everything.
+     * Residual filters are the ones not answered exactly by an index and still need to be evaluated on candidates.
+     */
+    record QueryPlan(List<Booking> candidates, Map<String, DataFilter<?>> residual) {}
+
+    /**
+     * @param bookings primary map of the same snapshot, used to resolve ids from the trigram postings
+     */
+    QueryPlan plan(Map<String, DataFilter<?>> filter, PersistentHashMap<UUID, Booking> bookings) {
+        var probes = new ArrayList<Probe>();
+        var residual = new HashMap<String, DataFilter<?>>();
+
+        for (var kvp : filter.entrySet()) {
+            var probe = probe(kvp.getKey(), kvp.getValue(), bookings);
+            if (probe == null || !probe.exact()) residual.put(kvp.getKey(), kvp.getValue());
+            if (probe != null) probes.add(probe);
+        }
+        if (probes.isEmpty()) return new QueryPlan(null, residual);
+
+        // drive from the most selective index and intersect with the others
+        probes.sort(Comparator.comparingInt(Probe::size));
+        var driver = probes.getFirst();
+        var others = probes.subList(1, probes.size());
+
+        var candidates = new ArrayList<Booking>(driver.size());
+        driver.forEach(booking -> {
+            for (var other : others)
+                if (!other.contains(booking)) return;
+            candidates.add(booking);
+        });
+        return new QueryPlan(candidates, residual);
+    }
+
+    /**
+     * @return ordered index on the given field or {@code null} when the field has none
+     */
+    OrderedIndex<?> ordered(String fieldName) {
+        return switch (fieldName) {
+            case "id" -> byId;
+            case "hotelName" -> byHotelName;
+            case "guestName" -> byGuestName;
+            case "email" -> byEmail;
+            case "checkIn" -> checkIn;
+            case "checkOut" -> checkOut;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return position of a date relative to the range of {@code filter}, as used by {@link PersistentTreeSet}
+     */
+    static ToIntFunction<LocalDate> position(DateFilter filter) {
+        var value = filter.value();
+        return switch (filter.operator()) {
+            case EQ -> date -> Integer.signum(date.compareTo(value));
+            case GT -> date -> date.isAfter(value) ? 0 : -1;
+            case GTE -> date -> date.isBefore(value) ? -1 : 0;
+            case LT -> date -> date.isBefore(value) ? 0 : 1;
+            case LTE -> date -> date.isAfter(value) ? 1 : 0;
+            default -> throw new IllegalArgumentException("Unsupported operator for ordered index: " + filter.operator());
+        };
+    }
+
+    private Probe probe(String fieldName, DataFilter<?> dataFilter, PersistentHashMap<UUID, Booking> bookings) {
+        return switch (dataFilter) {
+            case StringFilter sf when sf.operator() == Operator.EQ -> switch (fieldName) {
+                case "hotelName" -> hotelName.probe(sf.value());
+                case "guestName" -> guestName.probe(sf.value());
+                case "email" -> email.probe(sf.value());
+                default -> null;
+            };
+            case StringFilter sf when sf.operator() == Operator.IN && sf.value().length() >= NgramIndex.N -> switch (fieldName) {
+                case "hotelName" -> hotelNameGrams.probe(sf.value(), bookings);
+                case "guestName" -> guestNameGrams.probe(sf.value(), bookings);
+                case "email" -> emailGrams.probe(sf.value(), bookings);
+                default -> null;
+            };
+            case DateFilter df when df.operator() != Operator.NEQ -> switch (fieldName) {
+                case "checkIn" -> checkIn.probe(position(df));
+                case "checkOut" -> checkOut.probe(position(df));
+                default -> null;
+            };
+            case DateRangeFilter rf when fieldName.equals(DataExpressionParser.STAY) -> stayProbe(rf.value());
+            default -> null;
+        };
+    }
+
+    /**
+     * Stays overlapping the range: the check-in index keeps the latest check-out of every subtree, so the walk over
+     * check-ins up to the end of the range skips whole subtrees of stays that ended before it starts.
+     */
+    private Probe stayProbe(DateRange range) {
+        var to = range.to();
+        long from = range.from().toEpochDay();
+        ToIntFunction<Booking> startedByEnd = b -> b.checkIn().isAfter(to) ? 1 : 0;
+        // upper bound of the result, good enough to pick the driving probe
+        int size = Math.min(checkIn.tree().count(startedByEnd), checkOut.tree().count(b -> b.checkOut().toEpochDay() < from ? -1 : 0));
+
+        return new Probe() {
+            @Override
+            public int size() {return size;}
+
+            @Override
+            public boolean contains(Booking booking) {
+                return !booking.checkIn().isAfter(to) && booking.checkOut().toEpochDay() >= from;
+            }
+
+            @Override
+            public void forEach(Consumer<Booking> action) {checkIn.tree().forEachReaching(startedByEnd, from, action);}
+        };
+    }
+
+    private interface Probe {
+        int size();
+
+        boolean contains(Booking booking);
+
+        void forEach(Consumer<Booking> action);
+
+        /**
+         * @return {@code false} when the probe may yield false positives that the filter still has to reject
+         */
+        default boolean exact() {
+            return true;
+        }
+    }
+
+    record HashIndex(Function<Booking, String> key,
+                     PersistentHashMap<String, PersistentHashMap<UUID, Booking>> postings) {
+        static HashIndex empty(Function<Booking, String> key) {
+            return new HashIndex(key, PersistentHashMap.empty());
+        }
+
+        HashIndex replace(Booking removed, Booking added) {
+            var result = postings;
+            if (removed != null) {
+                var k = key.apply(removed);
+                var posting = result.get(k);
+                if (posting != null) {
+                    posting = posting.minus(removed.id());
+                    result = posting.isEmpty() ? result.minus(k) : result.plus(k, posting);
+                }
+            }
+            if (added != null) {
+                var k = key.apply(added);
+                var posting = result.get(k);
+                result = result.plus(k, (posting == null ? PersistentHashMap.<UUID, Booking>empty() : posting).plus(added.id(), added));
+            }
+            return result == postings ? this : new HashIndex(key, result);
+        }
+
+        PersistentHashMap<UUID, Booking> lookup(String value) {
+            var posting = postings.get(value);
+            return posting == null ? PersistentHashMap.empty() : posting;
+        }
+
+        private Probe probe(String value) {
+            var posting = lookup(value);
+            return new Probe() {
+                @Override
+                public int size() {return posting.size();}
+
+                @Override
+                public boolean contains(Booking booking) {return posting.containsKey(booking.id());}
+
+                @Override
+                public void forEach(Consumer<Booking> action) {posting.forEach((id, b) -> action.accept(b));}
+            };
+        }
+    }
+
+    /**
+     * Trigram posting lists. A substring of at least {@link #N} characters can only occur in values that contain
+     * all of its trigrams, so intersecting their postings yields a small superset of the matches.
+     * Postings hold ids only: a booking whose indexed field is unchanged does not touch the index.
+     */
+    record NgramIndex(Function<Booking, String> key,
+                      PersistentHashMap<Long, PersistentHashMap<UUID, UUID>> postings) {
+        static final int N = 3;
+
+        static NgramIndex empty(Function<Booking, String> key) {
+            return new NgramIndex(key, PersistentHashMap.empty());
+        }
+
+        NgramIndex replace(Booking removed, Booking added) {
+            var oldValue = removed == null ? null : key.apply(removed);
+            var newValue = added == null ? null : key.apply(added);
+            if (removed != null && added != null && removed.id().equals(added.id()) && Objects.equals(oldValue, newValue))
+                return this;
+
+            var result = postings;
+            if (oldValue != null)
+                for (long gram : grams(oldValue)) {
+                    var posting = result.get(gram);
+                    if (posting == null) continue;
+                    posting = posting.minus(removed.id());
+                    result = posting.isEmpty() ? result.minus(gram) : result.plus(gram, posting);
+                }
+            if (newValue != null)
+                for (long gram : grams(newValue)) {
+                    var posting = result.get(gram);
+                    result = result.plus(gram, (posting == null ? PersistentHashMap.<UUID, UUID>empty() : posting).plus(added.id(), added.id()));
+                }
+            return result == postings ? this : new NgramIndex(key, result);
+        }
+
+        /**
+         * Distinct trigrams of the value, each packed into a long as three 16-bit chars.
+         */
+        static long[] grams(String value) {
+            int count = value.length() - N + 1;
+            if (count <= 0) return new long[0];
+
+            var result = new long[count];
+            for (int i = 0; i < count; i++)
+                result[i] = ((long) value.charAt(i) << 32) | ((long) value.charAt(i + 1) << 16) | value.charAt(i + 2);
+            return Arrays.stream(result).distinct().toArray();
+        }
+
+        private Probe probe(String value, PersistentHashMap<UUID, Booking> bookings) {
+            var grams = grams(value);
+            var lists = new ArrayList<PersistentHashMap<UUID, UUID>>(grams.length);
+            for (long gram : grams) {
+                var posting = postings.get(gram);
+                lists.add(posting == null ? PersistentHashMap.empty() : posting);
+            }
+            lists.sort(Comparator.comparingInt(PersistentHashMap::size));
+            var smallest = lists.getFirst();
+            var others = lists.subList(1, lists.size());
+
+            return new Probe() {
+                @Override
+                public int size() {return smallest.size();}
+
+                @Override
+                public boolean contains(Booking booking) {
+                    for (var posting : lists)
+                        if (!posting.containsKey(booking.id())) return false;
+                    return true;
+                }
+
+                @Override
+                public void forEach(Consumer<Booking> action) {
+                    smallest.forEach((id, ignored) -> {
+                        for (var posting : others)
+                            if (!posting.containsKey(id)) return;
+                        action.accept(bookings.get(id));
+                    });
+                }
+
+                @Override
+                public boolean exact() {return false;}
+            };
+        }
+    }
+
+    /**
+     * Bookings ordered by a key that every valid booking has, ties broken by id.
+     */
+    record OrderedIndex<K extends Comparable<? super K>>(Function<Booking, K> key, PersistentTreeSet<Booking> tree) {
+        static <K extends Comparable<? super K>> OrderedIndex<K> empty(Function<Booking, K> key) {
+            return new OrderedIndex<>(key, PersistentTreeSet.empty(Comparator.comparing(key).thenComparing(Booking::id)));
+        }
+
+        /**
+         * @param end interval end whose subtree maximum is kept, turning the index into an interval tree
+         */
+        static <K extends Comparable<? super K>> OrderedIndex<K> empty(Function<Booking, K> key, ToLongFunction<Booking> end) {
+            return new OrderedIndex<>(key, PersistentTreeSet.empty(Comparator.comparing(key).thenComparing(Booking::id), end));
+        }
+
+        OrderedIndex<K> replace(Booking removed, Booking added) {
+            var result = tree;
+            if (removed != null) result = result.minus(removed);
+            if (added != null) result = result.plus(added);
+            return result == tree ? this : new OrderedIndex<>(key, result);
+        }
+
+        ToIntFunction<Booking> range(ToIntFunction<K> position) {
+            return b -> position.applyAsInt(key.apply(b));
+        }
+
+        /**
+         * Visits bookings starting at the key of {@code from} (inclusive) in ascending or descending key order
+         * until the action returns {@code false}.
+         */
+        void forEachFrom(Booking from, boolean descending, Predicate<Booking> action) {
+            var start = from == null ? null : key.apply(from);
+            ToIntFunction<Booking> range = start == null
+                    ? b -> 0
+                    : descending
+                    ? b -> key.apply(b).compareTo(start) > 0 ? 1 : 0
+                    : b -> key.apply(b).compareTo(start) < 0 ? -1 : 0;
+            tree.forEachWhile(range, descending, action);
+        }
+
+        /**
+         * Visits bookings strictly after {@code from} in the tree's (key, id) order, read backwards when
+         * {@code descending}, until the action returns {@code false}. The descent goes straight to {@code from},
+         * so no earlier row sharing its key is visited.
+         */
+        void forEachAfter(Booking from, boolean descending, Predicate<Booking> action) {
+            var order = tree.comparator();
+            ToIntFunction<Booking> range = descending
+                    ? b -> order.compare(b, from) >= 0 ? 1 : 0
+                    : b -> order.compare(b, from) <= 0 ? -1 : 0;
+            tree.forEachWhile(range, descending, action);
+        }
+
+        private Probe probe(ToIntFunction<K> position) {
+            var range = range(position);
+            int size = tree.count(range);
+            return new Probe() {
+                @Override
+                public int size() {return size;}
+
+                @Override
+                public boolean contains(Booking booking) {return range.applyAsInt(booking) == 0;}
+
+                @Override
+                public void forEach(Consumer<Booking> action) {tree.forEach(range, action);}
+            };
+        }
+    }
+}
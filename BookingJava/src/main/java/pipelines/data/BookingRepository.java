@@ -2,22 +2,145 @@ package pipelines.data;
 
 import pipelines.domain.Booking;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface BookingRepository {
+    /**
+     * Expected version of conditional writes that accepts the booking whatever its version.
+     */
+    long ANY_VERSION = -1;
+
     UUID getNextId();
 
     void add(Booking booking);
 
-    List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort);
+    /**
+     * Adds all {@code bookings} as one write: either all of them are added or, when one is invalid, none.
+     */
+    default void addAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        bookings.forEach(this::add);
+    }
+
+    /**
+     * Fills an empty repository with {@code blocks} of bookings with distinct ids, such as a recovered snapshot.
+     * Implementations may build their state in one step and skip the change listeners.
+     */
+    default void load(List<List<Booking>> blocks) {
+        for (var block : blocks) addAll(block);
+    }
+
+    List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page);
+
+    default List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort) {
+        return get(filter, sort, Page.ALL);
+    }
+
+    /**
+     * Same rows as {@link #get(Map, Iterable, Page)}, produced lazily where the implementation can avoid materializing them.
+     */
+    default Stream<Booking> stream(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        return get(filter, sort, page).stream();
+    }
 
     Booking getById(UUID bookingId);
 
+    /**
+     * @return the booking with the version of its last write, {@code null} when there is none
+     */
+    VersionedBooking getVersioned(UUID bookingId);
+
+    /**
+     * Registers {@code listener} for every write committed from now on. It is called on the writing thread after the
+     * write is visible to readers and before the write returns, once per booking added, replaced or removed.
+     */
+    void onChange(Consumer<BookingChange> listener);
+
+    /**
+     * @return version of the last write to any booking, on the same clock as {@link VersionedBooking#version()};
+     * it changes whenever the result of any query may have changed
+     */
+    long version();
+
+    /**
+     * @return the booking for each id, in the same order, {@code null} where there is none
+     */
+    default List<Booking> getByIds(List<UUID> bookingIds) {
+        var bookings = new ArrayList<Booking>(bookingIds.size());
+        for (var bookingId : bookingIds) bookings.add(getById(bookingId));
+        return bookings;
+    }
+
     boolean delete(UUID bookingId);
 
-    boolean update(Booking booking);
+    /**
+     * @return for each id whether it was deleted
+     */
+    default boolean[] deleteAll(List<UUID> bookingIds) {
+        var deleted = new boolean[bookingIds.size()];
+        for (int i = 0; i < deleted.length; i++) deleted[i] = delete(bookingIds.get(i));
+        return deleted;
+    }
+
+    default boolean update(Booking booking) {
+        return update(booking, ANY_VERSION);
+    }
+
+    /**
+     * Replaces the booking as one compare-and-set against {@code expectedVersion}.
+     *
+     * @return {@code false} when there is no such booking
+     * @throws VersionConflictException when the booking was written since it was at {@code expectedVersion}
+     */
+    boolean update(Booking booking, long expectedVersion);
+
+    /**
+     * Updates all {@code bookings} as one write; none is updated when one is invalid.
+     *
+     * @return for each booking whether it existed and was updated
+     */
+    default boolean[] updateAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        var updated = new boolean[bookings.size()];
+        for (int i = 0; i < updated.length; i++) updated[i] = update(bookings.get(i));
+        return updated;
+    }
+
+    default boolean patch(UUID bookingId, Map<?, ?> fields) {
+        return patch(bookingId, fields, ANY_VERSION);
+    }
+
+    /**
+     * Merges {@code fields} into the booking as one compare-and-set against {@code expectedVersion}.
+     *
+     * @return {@code false} when there is no such booking
+     * @throws VersionConflictException when the booking was written since it was at {@code expectedVersion}
+     */
+    boolean patch(UUID bookingId, Map<?, ?> fields, long expectedVersion);
+
+    /**
+     * @return number of bookings matching {@code filter} per hotel, ordered by hotel name
+     */
+    default List<HotelCount> countPerHotel(Map<String, DataFilter<?>> filter) {
+        return BookingAggregates.of(stream(filter, null, Page.ALL)).countPerHotel(null);
+    }
+
+    /**
+     * @return number of bookings matching {@code filter} per check-in day, ordered by day
+     */
+    default List<CheckInCount> countPerCheckInDay(Map<String, DataFilter<?>> filter) {
+        return BookingAggregates.of(stream(filter, null, Page.ALL)).countPerCheckInDay(null);
+    }
 
-    boolean patch(UUID bookingId, Map<?, ?> fields);
+    /**
+     * @return nights booked by bookings matching {@code filter} per hotel and month, ordered by hotel name and month
+     */
+    default List<NightsCount> countNightsPerHotelAndMonth(Map<String, DataFilter<?>> filter) {
+        return BookingAggregates.of(stream(filter, null, Page.ALL)).countNightsPerHotelAndMonth(null);
+    }
 }
@@ -0,0 +1,48 @@
+package pipelines.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Small bounded cache that is read without locking. Once it grows past its capacity, a random quarter of the entries
+ * is dropped instead of tracking recency on every read; a dropped entry still in use is computed again on its next miss.
+ * Values are computed outside the map, so two threads missing on the same key may both compute it - the first one
+ * stored wins and both get it.
+ */
+final class BoundedCache<K, V> {
+    private final int capacity;
+    private final ConcurrentHashMap<K, V> entries = new ConcurrentHashMap<>();
+
+    BoundedCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return the value stored for {@code key}: {@code value}, or the one another thread stored first
+     */
+    V put(K key, V value) {
+        var existing = entries.putIfAbsent(key, value);
+        if (existing != null) return existing;
+        if (entries.size() > capacity) evict();
+        return value;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        return value != null ? value : put(key, mappingFunction.apply(key));
+    }
+
+    private void evict() {
+        var random = ThreadLocalRandom.current();
+        entries.keySet().removeIf(key -> random.nextInt(4) == 0);
+    }
+}
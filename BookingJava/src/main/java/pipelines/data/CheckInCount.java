@@ -0,0 +1,5 @@
+package pipelines.data;
+
+import java.time.LocalDate;
+
+public record CheckInCount(LocalDate date, long checkIns) {}
@@ -0,0 +1,183 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Filter compiled into a flat array of conditions that read {@link Booking} components directly.
+ * Date bounds are turned into inclusive epoch-day ranges up front, so evaluation does not allocate.
+ */
+final class CompiledFilter implements Predicate<Booking> {
+    static final CompiledFilter ALL = new CompiledFilter(new Condition[0]);
+
+    private static final BoundedCache<Map<String, DataFilter<?>>, CompiledFilter> CACHE = new BoundedCache<>(512);
+
+    private final Condition[] conditions;
+
+    private CompiledFilter(Condition[] conditions) {
+        this.conditions = conditions;
+    }
+
+    static CompiledFilter of(Map<String, DataFilter<?>> filter) {
+        if (filter == null || filter.isEmpty()) return ALL;
+
+        var compiled = CACHE.get(filter);
+        if (compiled == null) {
+            compiled = compile(filter);
+            compiled = CACHE.put(Map.copyOf(filter), compiled);
+        }
+        return compiled;
+    }
+
+    static CompiledFilter compile(Map<String, DataFilter<?>> filter) {
+        var conditions = new Condition[filter.size()];
+        int i = 0;
+        for (var kvp : filter.entrySet())
+            conditions[i++] = compile(kvp.getKey(), kvp.getValue());
+        return new CompiledFilter(conditions);
+    }
+
+    boolean matchesAll() {
+        return conditions.length == 0;
+    }
+
+    @Override
+    public boolean test(Booking booking) {
+        for (Condition condition : conditions)
+            if (!condition.test(booking)) return false;
+        return true;
+    }
+
+    private static Condition compile(String fieldName, DataFilter<?> dataFilter) {
+        return switch (dataFilter) {
+            case StringFilter sf -> {
+                var field = StringField.of(fieldName);
+                yield switch (sf.operator()) {
+                    case EQ -> new StringEquals(field, sf.value(), false);
+                    case NEQ -> new StringEquals(field, sf.value(), true);
+                    case IN -> new StringContains(field, sf.value());
+                    default -> throw new IllegalArgumentException("Unsupported operator for string field: " + sf.operator());
+                };
+            }
+            case DateFilter df -> {
+                var field = DateField.of(fieldName);
+                long day = df.value().toEpochDay();
+                yield switch (df.operator()) {
+                    case EQ -> new DateBetween(field, day, day);
+                    case NEQ -> new DateNotEquals(field, day);
+                    case GT -> new DateBetween(field, day + 1, Long.MAX_VALUE);
+                    case GTE -> new DateBetween(field, day, Long.MAX_VALUE);
+                    case LT -> new DateBetween(field, Long.MIN_VALUE, day - 1);
+                    case LTE -> new DateBetween(field, Long.MIN_VALUE, day);
+                    default -> throw new IllegalArgumentException("Unsupported operator for date field: " + df.operator());
+                };
+            }
+            case DateRangeFilter rf -> {
+                if (!fieldName.equals(DataExpressionParser.STAY)) throw new IllegalArgumentException("Unsupported date range field: " + fieldName);
+                yield new StayOverlaps(rf.value().from().toEpochDay(), rf.value().to().toEpochDay());
+            }
+            case UuidFilter uf -> {
+                if (!fieldName.equals("id")) throw new IllegalArgumentException("Unsupported UUID field: " + fieldName);
+                yield new IdEquals(uf.value(), uf.operator() == Operator.NEQ);
+            }
+        };
+    }
+
+    enum StringField {
+        HOTEL_NAME, GUEST_NAME, EMAIL;
+
+        static StringField of(String fieldName) {
+            return switch (fieldName) {
+                case "hotelName" -> HOTEL_NAME;
+                case "guestName" -> GUEST_NAME;
+                case "email" -> EMAIL;
+                default -> throw new IllegalArgumentException("Unknown string field: " + fieldName);
+            };
+        }
+
+        String get(Booking booking) {
+            return switch (this) {
+                case HOTEL_NAME -> booking.hotelName();
+                case GUEST_NAME -> booking.guestName();
+                case EMAIL -> booking.email();
+            };
+        }
+    }
+
+    enum DateField {
+        CHECK_IN, CHECK_OUT;
+
+        static DateField of(String fieldName) {
+            return switch (fieldName) {
+                case "checkIn" -> CHECK_IN;
+                case "checkOut" -> CHECK_OUT;
+                default -> throw new IllegalArgumentException("Unknown date field: " + fieldName);
+            };
+        }
+
+        LocalDate get(Booking booking) {
+            return switch (this) {
+                case CHECK_IN -> booking.checkIn();
+                case CHECK_OUT -> booking.checkOut();
+            };
+        }
+    }
+
+    private sealed interface Condition permits StringEquals, StringContains, DateBetween, DateNotEquals, StayOverlaps, IdEquals {
+        boolean test(Booking booking);
+    }
+
+    private record StringEquals(StringField field, String value, boolean negate) implements Condition {
+        @Override
+        public boolean test(Booking booking) {
+            return Objects.equals(value, field.get(booking)) != negate;
+        }
+    }
+
+    private record StringContains(StringField field, String value) implements Condition {
+        @Override
+        public boolean test(Booking booking) {
+            var actual = field.get(booking);
+            return actual != null && actual.contains(value);
+        }
+    }
+
+    private record DateBetween(DateField field, long min, long max) implements Condition {
+        @Override
+        public boolean test(Booking booking) {
+            var date = field.get(booking);
+            if (date == null) return false;
+            long day = date.toEpochDay();
+            return day >= min && day <= max;
+        }
+    }
+
+    private record DateNotEquals(DateField field, long day) implements Condition {
+        @Override
+        public boolean test(Booking booking) {
+            var date = field.get(booking);
+            return date == null || date.toEpochDay() != day;
+        }
+    }
+
+    private record StayOverlaps(long from, long to) implements Condition {
+        @Override
+        public boolean test(Booking booking) {
+            var checkIn = booking.checkIn();
+            var checkOut = booking.checkOut();
+            return checkIn != null && checkOut != null && checkIn.toEpochDay() <= to && checkOut.toEpochDay() >= from;
+        }
+    }
+
+    private record IdEquals(UUID value, boolean negate) implements Condition {
+        @Override
+        public boolean test(Booking booking) {
+            return value.equals(booking.id()) != negate;
+        }
+    }
+}
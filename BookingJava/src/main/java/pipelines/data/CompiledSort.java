@@ -0,0 +1,130 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sort order compiled into a single comparator looping over its keys instead of a {@code thenComparing} chain.
+ * Nulls sort last in ascending order, matching the original comparator chain.
+ */
+final class CompiledSort implements Comparator<Booking> {
+    private static final BoundedCache<List<SortField>, CompiledSort> CACHE = new BoundedCache<>(512);
+
+    private final List<SortField> fields;
+    private final Key[] keys;
+
+    private CompiledSort(List<SortField> fields) {
+        this.fields = fields;
+        this.keys = fields.stream().map(Key::of).toArray(Key[]::new);
+    }
+
+    /**
+     * @return compiled comparator or {@code null} when there is nothing to sort by
+     */
+    static CompiledSort of(Iterable<SortField> sort) {
+        if (sort == null) return null;
+
+        List<SortField> fields;
+        if (sort instanceof List<SortField> list) fields = list;
+        else {
+            fields = new ArrayList<>();
+            sort.forEach(fields::add);
+        }
+        if (fields.isEmpty()) return null;
+
+        var compiled = CACHE.get(fields);
+        if (compiled == null) {
+            compiled = new CompiledSort(List.copyOf(fields));
+            compiled = CACHE.put(compiled.fields, compiled);
+        }
+        return compiled;
+    }
+
+    List<SortField> fields() {
+        return fields;
+    }
+
+    @Override
+    public int compare(Booking a, Booking b) {
+        return compareFrom(0, a, b);
+    }
+
+    private int compareFrom(int first, Booking a, Booking b) {
+        for (int i = first; i < keys.length; i++) {
+            int c = keys[i].compare(a, b);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts {@code rows} with {@link Arrays#parallelSort}, which forks into the pool of the calling worker thread.
+     * A leading date key is extracted once per row as an epoch day, so most comparisons are a {@code long} compare
+     * and only ties look at the bookings again.
+     */
+    void parallelSort(Booking[] rows) {
+        var lead = keys[0];
+        if (lead.field() != Field.CHECK_IN && lead.field() != Field.CHECK_OUT) {
+            Arrays.parallelSort(rows, this);
+            return;
+        }
+
+        var keyed = new Keyed[rows.length];
+        Arrays.parallelSetAll(keyed, i -> new Keyed(lead.epochDay(rows[i]), rows[i]));
+        Arrays.parallelSort(keyed, (a, b) -> {
+            int c = Long.compare(a.key(), b.key());
+            if (c != 0) return lead.ascending() ? c : -c;
+            return compareFrom(1, a.booking(), b.booking());
+        });
+        Arrays.parallelSetAll(rows, i -> keyed[i].booking());
+    }
+
+    private record Keyed(long key, Booking booking) {
+    }
+
+    private enum Field {ID, HOTEL_NAME, GUEST_NAME, EMAIL, CHECK_IN, CHECK_OUT}
+
+    private record Key(Field field, boolean ascending) {
+        static Key of(SortField sortField) {
+            var field = switch (sortField.field()) {
+                case "id" -> Field.ID;
+                case "hotelName" -> Field.HOTEL_NAME;
+                case "guestName" -> Field.GUEST_NAME;
+                case "email" -> Field.EMAIL;
+                case "checkIn" -> Field.CHECK_IN;
+                case "checkOut" -> Field.CHECK_OUT;
+                default -> throw new IllegalArgumentException("Unknown sort field: " + sortField.field());
+            };
+            return new Key(field, sortField.ascending());
+        }
+
+        int compare(Booking a, Booking b) {
+            int c = switch (field) {
+                case ID -> nullsLast(a.id(), b.id());
+                case HOTEL_NAME -> nullsLast(a.hotelName(), b.hotelName());
+                case GUEST_NAME -> nullsLast(a.guestName(), b.guestName());
+                case EMAIL -> nullsLast(a.email(), b.email());
+                case CHECK_IN -> nullsLast(a.checkIn(), b.checkIn());
+                case CHECK_OUT -> nullsLast(a.checkOut(), b.checkOut());
+            };
+            return ascending ? c : -c;
+        }
+
+        // nulls sort last in ascending order, as in nullsLast
+        long epochDay(Booking booking) {
+            var date = field == Field.CHECK_IN ? booking.checkIn() : booking.checkOut();
+            return date == null ? Long.MAX_VALUE : date.toEpochDay();
+        }
+
+        private static <T extends Comparable<? super T>> int nullsLast(T a, T b) {
+            if (a == b) return 0;
+            if (a == null) return 1;
+            if (b == null) return -1;
+            return a.compareTo(b);
+        }
+    }
+}
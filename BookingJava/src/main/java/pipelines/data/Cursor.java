@@ -0,0 +1,84 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Position in a sorted result set used for keyset paging. It holds the sort key of the last returned row;
+ * {@link #key()} is a {@link Booking} with only the key fields set. The sort order always ends with {@code id},
+ * so the key identifies exactly one position even when other fields repeat.
+ */
+public record Cursor(List<SortField> sort, Booking key) {
+    private static final String ID = "id";
+
+    public Cursor {
+        sort = List.copyOf(sort);
+        Objects.requireNonNull(key, "key");
+    }
+
+    public static Cursor after(Iterable<SortField> sort, Booking last) {
+        return new Cursor(keyOrder(sort), last);
+    }
+
+    /**
+     * Requested sort order up to and including {@code id}, which is unique, so fields after it never decide the order;
+     * {@code id} is appended as the final tiebreaker when the sort does not name it, in the direction of the leading
+     * field so the order matches the (key, id) order of the leading field's index read forwards or backwards.
+     */
+    public static List<SortField> keyOrder(Iterable<SortField> sort) {
+        var result = new ArrayList<SortField>();
+        if (sort != null)
+            for (var field : sort) {
+                result.add(field);
+                if (field.field().equals(ID)) return List.copyOf(result);
+            }
+        result.add(new SortField(ID, result.isEmpty() || result.getFirst().ascending()));
+        return List.copyOf(result);
+    }
+
+    public String encode() {
+        var sb = new StringBuilder();
+        for (SortField sf : sort) {
+            if (!sb.isEmpty()) sb.append('&');
+            Object value = Booking.getFieldAccessor(sf.field()).apply(key);
+            sb.append(sf.field()).append(sf.ascending() ? ":A:" : ":D:")
+                    .append(value == null ? "" : URLEncoder.encode(value.toString(), StandardCharsets.UTF_8));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Cursor decode(String token) {
+        try {
+            var text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            var sort = new ArrayList<SortField>();
+            var values = new HashMap<String, String>();
+            for (String part : text.split("&")) {
+                String[] tokens = part.split(":", 3);
+                if (tokens.length != 3) throw new IllegalArgumentException("malformed key");
+                sort.add(new SortField(tokens[0], tokens[1].equals("A")));
+                values.put(tokens[0], tokens[2].isEmpty() ? null : URLDecoder.decode(tokens[2], StandardCharsets.UTF_8));
+            }
+            if (!sort.getLast().field().equals(ID)) throw new IllegalArgumentException("missing id");
+
+            var key = new Booking(
+                    UUID.fromString(values.get(ID)),
+                    values.get("hotelName"),
+                    values.get("guestName"),
+                    values.get("email"),
+                    parseDate(values.get("checkIn")),
+                    parseDate(values.get("checkOut")));
+            return new Cursor(sort, key);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + e.getMessage());
+        }
+    }
+
+    private static LocalDate parseDate(String value) {
+        return value == null ? null : LocalDate.parse(value);
+    }
+}
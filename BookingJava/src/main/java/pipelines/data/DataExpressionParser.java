@@ -1,17 +1,45 @@
 package pipelines.data;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.RecordComponent;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class DataExpressionParser {
+    /**
+     * Virtual field for the range from {@code checkIn} to {@code checkOut}, e.g. {@code stay overlaps '2024-06-01..2024-06-10'}.
+     */
+    public static final String STAY = "stay";
+
+    private static final int CACHE_CAPACITY = 512;
+
+    private record CacheKey(Class<?> type, String expression) {}
+
+    private static final BoundedCache<String, List<SortField>> SORT_CACHE = new BoundedCache<>(CACHE_CAPACITY);
+    private static final BoundedCache<CacheKey, Map<String, DataFilter<?>>> FILTER_CACHE = new BoundedCache<>(CACHE_CAPACITY);
+
+    // field name -> type, resolved once per class instead of reflecting on every request
+    private static final ClassValue<Map<String, Class<?>>> FIELD_TYPES = new ClassValue<>() {
+        @Override
+        protected Map<String, Class<?>> computeValue(Class<?> type) {
+            var result = new HashMap<String, Class<?>>();
+            if (type.isRecord())
+                for (RecordComponent component : type.getRecordComponents()) result.put(component.getName(), component.getType());
+            else
+                for (Field field : type.getDeclaredFields()) result.put(field.getName(), field.getType());
+            return Map.copyOf(result);
+        }
+    };
+
     public static Iterable<SortField> parseSort(String sortParam) {
         if (sortParam == null || sortParam.isBlank()) return null;
 
+        return SORT_CACHE.computeIfAbsent(normalize(sortParam), DataExpressionParser::doParseSort);
+    }
+
+    private static List<SortField> doParseSort(String sortParam) {
         List<SortField> sortFields = new ArrayList<>();
         for (String part : sortParam.split(",")) {
             String[] tokens = part.trim().split("\\s+");
@@ -19,20 +47,27 @@ public class DataExpressionParser {
             boolean descending = tokens.length == 2 && tokens[1].equalsIgnoreCase("DESC");
             sortFields.add(new SortField(field, !descending));
         }
-        return sortFields;
+        return List.copyOf(sortFields);
     }
 
     // regex: field operator 'value', value can have '' escaped quote
     private static final Pattern CONDITION_PATTERN = Pattern.compile(
-            "(\\w+)\\s+(eq|neq|has|gt|lt|gte|lte)\\s+'((?:[^']|'')*)'",
+            "(\\w+)\\s+(eq|neq|has|gt|lt|gte|lte|overlaps)\\s+'((?:[^']|'')*)'",
             Pattern.CASE_INSENSITIVE
     );
 
-    //TODO make generic to recognize field types from T
+    /**
+     * Parsed filters are cached by their normalized expression and returned as immutable maps.
+     */
     public static <T> Map<String, DataFilter<?>> parseFilter(String filterParam, Class<T> clazz) {
         if (filterParam == null || filterParam.isBlank()) return null;
 
-        var result = new java.util.HashMap<String, DataFilter<?>>();
+        return FILTER_CACHE.computeIfAbsent(new CacheKey(clazz, normalize(filterParam)),
+                key -> doParseFilter(key.expression(), FIELD_TYPES.get(key.type())));
+    }
+
+    private static Map<String, DataFilter<?>> doParseFilter(String filterParam, Map<String, Class<?>> fieldTypes) {
+        var result = new HashMap<String, DataFilter<?>>();
 
 
         String[] conditions = filterParam.split("(?i)\\s+AND\\s+");// Split by AND (case-insensitive)
@@ -44,13 +79,15 @@ public class DataExpressionParser {
             String op = matcher.group(2);
             String valueRaw = matcher.group(3).replace("''", "'"); // unescape ''
 
-            Class<?> fieldType;
-            try {
-                fieldType = clazz.getDeclaredField(field).getType();
-            } catch (NoSuchFieldException e) {
-                throw new IllegalArgumentException("Unknown field: " + field);
+            if (field.equals(STAY) && fieldTypes.get("checkIn") == LocalDate.class && fieldTypes.get("checkOut") == LocalDate.class) {
+                result.put(field, new DateRangeFilter(DateRange.parse(valueRaw), Operator.fromString(op)));
+                continue;
             }
 
+            Class<?> fieldType = fieldTypes.get(field);
+            if (fieldType == null)
+                throw new IllegalArgumentException("Unknown field: " + field);
+
             if (fieldType.equals(String.class))
                 result.put(field, new StringFilter(valueRaw, Operator.fromString(op)));
             else if (fieldType.equals(LocalDate.class))
@@ -60,6 +97,28 @@ public class DataExpressionParser {
             else
                 throw new IllegalArgumentException("Unsupported field type: " + fieldType);
         }
-        return result;
+        return Map.copyOf(result);
+    }
+
+    /**
+     * Trims the expression and collapses whitespace outside quoted values, so equivalent expressions share a cache entry.
+     */
+    static String normalize(String expression) {
+        var sb = new StringBuilder(expression.length());
+        boolean quoted = false, pendingSpace = false;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                pendingSpace = !sb.isEmpty();
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            if (c == '\'') quoted = !quoted;
+            sb.append(c);
+        }
+        return sb.toString();
     }
 }
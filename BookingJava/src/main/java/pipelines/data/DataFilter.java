@@ -3,6 +3,6 @@ package pipelines.data;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
-public sealed interface DataFilter<TValue> permits DateFilter, StringFilter, UuidFilter {
+public sealed interface DataFilter<TValue> permits DateFilter, DateRangeFilter, StringFilter, UuidFilter {
     <TEntity> Predicate<TEntity> getPredicate(Function<TEntity, TValue> getter);
 }
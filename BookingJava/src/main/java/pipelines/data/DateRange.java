@@ -0,0 +1,33 @@
+package pipelines.data;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Closed range of days, {@code from} and {@code to} included.
+ */
+public record DateRange(LocalDate from, LocalDate to) {
+    public DateRange {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        if (from.isAfter(to)) throw new IllegalArgumentException("Range start cannot be after its end: " + from + ".." + to);
+    }
+
+    /**
+     * Parses {@code yyyy-MM-dd..yyyy-MM-dd}.
+     */
+    public static DateRange parse(String value) {
+        int separator = value.indexOf("..");
+        if (separator < 0) throw new IllegalArgumentException("Expected a date range as yyyy-MM-dd..yyyy-MM-dd: " + value);
+        return new DateRange(LocalDate.parse(value.substring(0, separator).trim()), LocalDate.parse(value.substring(separator + 2).trim()));
+    }
+
+    public boolean overlaps(DateRange other) {
+        return !from.isAfter(other.to) && !to.isBefore(other.from);
+    }
+
+    @Override
+    public String toString() {
+        return from + ".." + to;
+    }
+}
@@ -0,0 +1,19 @@
+package pipelines.data;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Filter on the stay of a booking, the range from check-in to check-out.
+ */
+public record DateRangeFilter(DateRange value, Operator operator) implements DataFilter<DateRange> {
+    public DateRangeFilter {
+        if (operator != Operator.OVERLAPS)
+            throw new IllegalArgumentException("Invalid operator for date range: " + operator);
+    }
+
+    @Override
+    public <TEntity> Predicate<TEntity> getPredicate(Function<TEntity, DateRange> getter) {
+        return b -> getter.apply(b).overlaps(value);
+    }
+}
@@ -0,0 +1,3 @@
+package pipelines.data;
+
+public record HotelCount(String hotelName, long bookings) {}
@@ -0,0 +1,22 @@
+package pipelines.data;
+
+import java.util.UUID;
+
+@FunctionalInterface
+public interface IdGenerator {
+    UUID nextId();
+
+    /**
+     * @return version 4 UUIDs from the shared {@link java.security.SecureRandom}
+     */
+    static IdGenerator random() {
+        return UUID::randomUUID;
+    }
+
+    /**
+     * @return the process-wide generator of time-ordered version 7 UUIDs, see {@link TimeOrderedIdGenerator}
+     */
+    static IdGenerator timeOrdered() {
+        return TimeOrderedIdGenerator.SHARED;
+    }
+}
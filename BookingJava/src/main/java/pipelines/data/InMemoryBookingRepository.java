@@ -3,127 +3,370 @@ package pipelines.data;
 import org.springframework.stereotype.Repository;
 import pipelines.domain.Booking;
 
-import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
+/**
+ * Bookings, their secondary indexes and reporting counters live in an immutable {@link State} that is swapped atomically on every write.
+ * Readers never lock and always work on a consistent snapshot; writers retry their compare-and-set
+ * against the latest snapshot, so concurrent modifications of the same booking are never lost.
+ * <p>
+ * Every write therefore goes through one compare-and-set on the root, and a writer that loses the race rebuilds
+ * its new state, all indexes and counters included, before it tries again. Writes do not scale with cores: past
+ * a few concurrent writers, added threads mostly redo work (see {@code WriteContentionBenchmark}). Write-heavy
+ * deployments partition the bookings with {@link ShardedBookingRepository}, {@code -Dbooking.shards=<count>}.
+ */
 @Repository
 public class InMemoryBookingRepository implements BookingRepository {
-    private final Map<UUID, Booking> bookings;
+    // writes of a batch applied by one compare-and-set
+    static final int BATCH_CHUNK = 256;
+
+    private final AtomicReference<State> state;
+    private final IdGenerator idGenerator;
+    private final ParallelScan parallelScan;
+    private final List<Consumer<BookingChange>> listeners = new CopyOnWriteArrayList<>();
 
     public InMemoryBookingRepository() {
         this(null);
     }
 
     public InMemoryBookingRepository(Map<UUID, Booking> bookings) {
-        this.bookings = bookings == null ? new HashMap<>() : bookings;
+        this(bookings, IdGenerator.timeOrdered());
+    }
+
+    public InMemoryBookingRepository(Map<UUID, Booking> bookings, IdGenerator idGenerator) {
+        this(bookings, idGenerator, ParallelScan.shared());
+    }
+
+    /**
+     * @param bookings     initial content; the map is copied and not modified afterward
+     * @param parallelScan decides when queries without a usable index are scanned and sorted in parallel
+     */
+    public InMemoryBookingRepository(Map<UUID, Booking> bookings, IdGenerator idGenerator, ParallelScan parallelScan) {
+        this.idGenerator = idGenerator;
+        this.parallelScan = parallelScan;
+        var initial = State.EMPTY;
+        if (bookings != null)
+            for (var booking : bookings.values()) initial = initial.put(booking);
+        this.state = new AtomicReference<>(initial);
+    }
+
+    private record State(PersistentHashMap<UUID, Booking> bookings, PersistentHashMap<UUID, Long> versions, long version,
+                         BookingIndexes indexes, BookingAggregates aggregates) {
+        static final State EMPTY = new State(PersistentHashMap.empty(), PersistentHashMap.empty(), 0, BookingIndexes.EMPTY, BookingAggregates.EMPTY);
+
+        State put(Booking booking) {
+            var old = bookings.get(booking.id());
+            long version = VersionedBooking.nextVersion();
+            return new State(bookings.plus(booking.id(), booking), versions.plus(booking.id(), version), version,
+                    indexes.replace(old, booking), aggregates.replace(old, booking));
+        }
+
+        State remove(UUID bookingId) {
+            var old = bookings.get(bookingId);
+            return old == null ? this : new State(bookings.minus(bookingId), versions.minus(bookingId), VersionedBooking.nextVersion(),
+                    indexes.replace(old, null), aggregates.replace(old, null));
+        }
+
+        BookingIndexes.QueryPlan plan(Map<String, DataFilter<?>> filter) {
+            return indexes.plan(filter, bookings);
+        }
     }
 
     @Override
     public UUID getNextId() {
-        return UUID.randomUUID();
+        return idGenerator.nextId();
+    }
+
+    @Override
+    public void onChange(Consumer<BookingChange> listener) {
+        listeners.add(listener);
+    }
+
+    private void publish(Booking before, Booking after) {
+        if (listeners.isEmpty()) return;
+        var change = new BookingChange(before, after);
+        for (var listener : listeners) listener.accept(change);
     }
 
     @Override
     public void add(Booking booking) {
         booking.validate();
-        bookings.put(booking.id(), booking);
+        var previous = state.getAndUpdate(snapshot -> snapshot.put(booking));
+        publish(previous.bookings().get(booking.id()), booking);
     }
 
+    /**
+     * Batches are validated as a whole and applied in chunks of {@link #BATCH_CHUNK} bookings, each with its own
+     * compare-and-set, so a batch that loses a race to other writers redoes one chunk and not the whole batch.
+     * Readers may see part of a large batch while it is applied. The same holds for the other batch writes.
+     */
     @Override
-    public List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort) {
-        List<Booking> result = new ArrayList<>(bookings.values());
+    public void addAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        for (int from = 0; from < bookings.size(); from += BATCH_CHUNK) {
+            var chunk = bookings.subList(from, Math.min(from + BATCH_CHUNK, bookings.size()));
+            var previous = state.getAndUpdate(snapshot -> {
+                for (var booking : chunk) snapshot = snapshot.put(booking);
+                return snapshot;
+            });
+            if (!listeners.isEmpty())
+                for (var booking : chunk) publish(previous.bookings().get(booking.id()), booking);
+        }
+    }
 
-        // Apply filters only if filter != null
-        if (filter != null) {
-            Predicate<Booking> predicate = booking -> true;
+    /**
+     * Builds the primary map, the versions, every index and the aggregates from all {@code blocks} at once, each in
+     * its own task, and installs them with a single compare-and-set instead of putting one booking at a time through
+     * all of them. Change listeners are not notified.
+     *
+     * @throws IllegalStateException when the repository is not empty
+     */
+    @Override
+    public void load(List<List<Booking>> blocks) {
+        var current = state.get();
+        if (!current.bookings().isEmpty()) throw new IllegalStateException("Repository is not empty");
+        var bookings = blocks.stream().flatMap(List::stream).toList();
+        bookings.parallelStream().forEach(Booking::validate);
 
-            for (var kvp : filter.entrySet()) {
-                final String fieldName = kvp.getKey();
-                final DataFilter<?> dataFilter = kvp.getValue();
+        var primary = CompletableFuture.supplyAsync(() -> {
+            var map = PersistentHashMap.<UUID, Booking>empty();
+            for (var booking : bookings) map = map.plus(booking.id(), booking);
+            return map;
+        });
+        var versions = CompletableFuture.supplyAsync(() -> {
+            var map = PersistentHashMap.<UUID, Long>empty();
+            for (var booking : bookings) map = map.plus(booking.id(), VersionedBooking.nextVersion());
+            return map;
+        });
+        var aggregates = CompletableFuture.supplyAsync(() -> BookingAggregates.of(bookings.stream()));
+        var indexes = BookingIndexes.of(bookings);
 
-                predicate = predicate.and(
-                        switch (dataFilter) {
-                            case StringFilter sf -> sf.getPredicate(Booking.getFieldAccessor(fieldName));
-                            case DateFilter df -> df.getPredicate(Booking.getFieldAccessor(fieldName));
-                            case UuidFilter uf -> uf.getPredicate(Booking.getFieldAccessor(fieldName));
-                        }
-                );
-            }
+        if (primary.join().size() != bookings.size()) throw new IllegalArgumentException("Duplicate booking ids");
+        var loaded = new State(primary.join(), versions.join(), VersionedBooking.nextVersion(), indexes, aggregates.join());
+        if (!state.compareAndSet(current, loaded)) throw new IllegalStateException("Repository written while loading");
+    }
+
+    @Override
+    public List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        var snapshot = state.get();
+        if (page != null && page.after() != null) return getAfter(snapshot, filter, sort, page);
+
+        var comparator = CompiledSort.of(sort);
+        var plan = filter == null ? null : snapshot.plan(filter);
+        var predicate = plan == null ? CompiledFilter.ALL : CompiledFilter.of(plan.residual());
+        if ((plan == null || plan.candidates() == null) && parallelScan.appliesTo(snapshot.bookings().size(), comparator, page))
+            return parallelScan.collect(snapshot.bookings().parallelValueStream(), predicate, comparator, page);
+
+        var collector = PageCollector.create(comparator, page);
+        Predicate<Booking> sink = predicate.matchesAll()
+                ? collector::offer
+                : booking -> !predicate.test(booking) || collector.offer(booking);
 
-            result = result.stream().filter(predicate).collect(Collectors.toList());
+        if (plan == null || plan.candidates() == null) snapshot.bookings().forEachValueWhile(sink);
+        else for (Booking booking : plan.candidates()) if (!sink.test(booking)) break;
+
+        return collector.result();
+    }
+
+    /**
+     * Unsorted results are streamed straight from the snapshot. A sort order needs every row before the first one
+     * can be emitted, so sorted results are collected by {@link #get(Map, Iterable, Page)} first.
+     */
+    @Override
+    public Stream<Booking> stream(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        if (CompiledSort.of(sort) != null || (page != null && page.after() != null))
+            return get(filter, sort, page).stream();
+
+        var rows = matching(state.get(), filter);
+        if (page != null) {
+            if (page.offset() > 0) rows = rows.skip(page.offset());
+            if (page.limit() != null) rows = rows.limit(page.limit());
         }
+        return rows;
+    }
 
-        // Apply sorting only if sort != null and not empty
-        if (sort != null) {
-            Iterator<SortField> it = sort.iterator();
-            if (it.hasNext()) {
-                Comparator<Booking> combined = null;
-                for (SortField sf : sort) {
-                    String field = sf.field();
-                    Comparator<Booking> comp = switch (field) {
-                        case "id" -> Comparator.comparing(Booking.getFieldAccessor(field), Comparator.nullsLast(UUID::compareTo));
-                        case "hotelName", "guestName", "email" ->
-                                Comparator.comparing(Booking.getFieldAccessor(field), Comparator.nullsLast(String::compareTo));
-                        case "checkIn", "checkOut" -> Comparator.comparing(Booking.getFieldAccessor(field), Comparator.nullsLast(LocalDate::compareTo));
-                        default -> throw new IllegalArgumentException("Unknown sort field: " + field);
-                    };
-                    if (!sf.ascending()) comp = comp.reversed();
-                    combined = combined == null ? comp : combined.thenComparing(comp);
-                }
-                result.sort(combined);
+    private static Stream<Booking> matching(State snapshot, Map<String, DataFilter<?>> filter) {
+        if (filter == null) return snapshot.bookings().valueStream();
+        var plan = snapshot.plan(filter);
+        var predicate = CompiledFilter.of(plan.residual());
+        var rows = plan.candidates() == null ? snapshot.bookings().valueStream() : plan.candidates().stream();
+        return predicate.matchesAll() ? rows : rows.filter(predicate);
+    }
+
+    /**
+     * Answered from the counters of the snapshot when the filter only names the hotel,
+     * otherwise counted over the bookings the indexes select.
+     */
+    @Override
+    public List<HotelCount> countPerHotel(Map<String, DataFilter<?>> filter) {
+        var snapshot = state.get();
+        if (BookingAggregates.answers(filter, BookingAggregates.HOTEL_NAME)) return snapshot.aggregates().countPerHotel(filter);
+        return BookingAggregates.of(matching(snapshot, filter)).countPerHotel(null);
+    }
+
+    @Override
+    public List<CheckInCount> countPerCheckInDay(Map<String, DataFilter<?>> filter) {
+        var snapshot = state.get();
+        if (BookingAggregates.answers(filter, BookingAggregates.CHECK_IN)) return snapshot.aggregates().countPerCheckInDay(filter);
+        return BookingAggregates.of(matching(snapshot, filter)).countPerCheckInDay(null);
+    }
+
+    @Override
+    public List<NightsCount> countNightsPerHotelAndMonth(Map<String, DataFilter<?>> filter) {
+        var snapshot = state.get();
+        if (BookingAggregates.answers(filter, BookingAggregates.HOTEL_NAME)) return snapshot.aggregates().countNightsPerHotelAndMonth(filter);
+        return BookingAggregates.of(matching(snapshot, filter)).countNightsPerHotelAndMonth(null);
+    }
+
+    /**
+     * Keyset paging. When no index narrows the filter, the ordered index of the leading sort field, which every
+     * sortable field has, is entered directly at the cursor, so the cost depends on the page size and not on its
+     * depth. For a single sort field the index order is the page order and rows are taken as they come; with more
+     * fields each group sharing the leading key is sorted before it is emitted. Otherwise the candidates are scanned and the rows after the cursor selected with a bounded heap.
+     */
+    private List<Booking> getAfter(State snapshot, Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        var keyOrder = Cursor.keyOrder(sort);
+        var cursor = page.after();
+        if (!cursor.sort().equals(keyOrder))
+            throw new IllegalArgumentException("Cursor does not match the requested sort order");
+
+        var comparator = CompiledSort.of(keyOrder);
+        var key = cursor.key();
+        var plan = filter == null ? null : snapshot.plan(filter);
+        var predicate = plan == null ? CompiledFilter.ALL : CompiledFilter.of(plan.residual());
+        var leading = keyOrder.getFirst();
+        var index = snapshot.indexes().ordered(leading.field());
+
+        if (index != null && (plan == null || plan.candidates() == null)) {
+            if (keyOrder.size() == 1 || keyOrder.size() == 2 && keyOrder.get(1).ascending() == leading.ascending()) {
+                // the key order is the index's own (key, id) order, so rows after the cursor come in page order
+                var collector = PageCollector.inOrder(page);
+                index.forEachAfter(key, !leading.ascending(), booking -> !predicate.test(booking) || collector.offer(booking));
+                return collector.result();
             }
+            var collector = PageCollector.presorted(comparator, index.key(), page);
+            index.forEachFrom(key, !leading.ascending(), booking ->
+                    !predicate.test(booking) || comparator.compare(booking, key) <= 0 || collector.offer(booking));
+            return collector.result();
         }
 
-        return result;
+        var collector = PageCollector.create(comparator, page);
+        Predicate<Booking> sink = booking ->
+                !predicate.test(booking) || comparator.compare(booking, key) <= 0 || collector.offer(booking);
+        if (plan == null || plan.candidates() == null) snapshot.bookings().forEachValueWhile(sink);
+        else for (Booking booking : plan.candidates()) if (!sink.test(booking)) break;
+        return collector.result();
     }
 
     @Override
     public Booking getById(UUID bookingId) {
-        return bookings.get(bookingId);
+        return state.get().bookings().get(bookingId);
     }
 
     @Override
-    public boolean delete(UUID bookingId) {
-        return bookings.remove(bookingId) != null;
+    public VersionedBooking getVersioned(UUID bookingId) {
+        var snapshot = state.get();
+        var booking = snapshot.bookings().get(bookingId);
+        return booking == null ? null : new VersionedBooking(booking, snapshot.versions().get(bookingId));
     }
 
     @Override
-    public boolean update(Booking booking) {
-        booking.validate();
-        if (bookings.containsKey(booking.id())) {
-            bookings.put(booking.id(), booking);
-            return true;
+    public long version() {
+        return state.get().version();
+    }
+
+    @Override
+    public List<Booking> getByIds(List<UUID> bookingIds) {
+        var bookings = state.get().bookings();
+        var result = new ArrayList<Booking>(bookingIds.size());
+        for (var bookingId : bookingIds) result.add(bookings.get(bookingId));
+        return result;
+    }
+
+    @Override
+    public boolean delete(UUID bookingId) {
+        while (true) {
+            var snapshot = state.get();
+            var next = snapshot.remove(bookingId);
+            if (next == snapshot) return false;
+            if (state.compareAndSet(snapshot, next)) {
+                publish(snapshot.bookings().get(bookingId), null);
+                return true;
+            }
         }
-        return false;
     }
 
     @Override
-    public boolean patch(UUID bookingId, Map<?, ?> fields) {
-        Booking old = bookings.get(bookingId);
-        if (old == null) return false;
+    public boolean[] deleteAll(List<UUID> bookingIds) {
+        var deleted = new boolean[bookingIds.size()];
+        for (int from = 0; from < deleted.length; from += BATCH_CHUNK) {
+            int start = from, end = Math.min(from + BATCH_CHUNK, deleted.length);
+            var previous = state.getAndUpdate(snapshot -> {
+                for (int i = start; i < end; i++) {
+                    var next = snapshot.remove(bookingIds.get(i));
+                    deleted[i] = next != snapshot;
+                    snapshot = next;
+                }
+                return snapshot;
+            });
+            for (int i = start; i < end; i++)
+                if (deleted[i]) publish(previous.bookings().get(bookingIds.get(i)), null);
+        }
+        return deleted;
+    }
 
-        String hotelName = fields.containsKey("hotelName") ? (String) fields.get("hotelName") : old.hotelName();
-        String guestName = fields.containsKey("guestName") ? (String) fields.get("guestName") : old.guestName();
-        String email = fields.containsKey("email") ? (String) fields.get("email") : old.email();
+    @Override
+    public boolean update(Booking booking, long expectedVersion) {
+        booking.validate();
+        return replace(booking.id(), old -> booking, expectedVersion);
+    }
 
-        LocalDate checkIn = fields.containsKey("checkIn") ? getDateFromBody(fields, "checkIn") : old.checkIn();
-        LocalDate checkOut = fields.containsKey("checkOut") ? getDateFromBody(fields, "checkOut") : old.checkOut();
+    @Override
+    public boolean[] updateAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        var updated = new boolean[bookings.size()];
+        for (int from = 0; from < updated.length; from += BATCH_CHUNK) {
+            int start = from, end = Math.min(from + BATCH_CHUNK, updated.length);
+            var previous = state.getAndUpdate(snapshot -> {
+                for (int i = start; i < end; i++) {
+                    var booking = bookings.get(i);
+                    updated[i] = snapshot.bookings().get(booking.id()) != null;
+                    if (updated[i]) snapshot = snapshot.put(booking);
+                }
+                return snapshot;
+            });
+            for (int i = start; i < end; i++)
+                if (updated[i]) publish(previous.bookings().get(bookings.get(i).id()), bookings.get(i));
+        }
+        return updated;
+    }
 
-        bookings.put(bookingId, new Booking(bookingId, hotelName, guestName, email, checkIn, checkOut).validate());
-        return true;
+    @Override
+    public boolean patch(UUID bookingId, Map<?, ?> fields, long expectedVersion) {
+        return replace(bookingId, old -> old.merge(fields), expectedVersion);
     }
 
-    private static LocalDate getDateFromBody(Map<?, ?> fields, String fieldName) {
-        try {
-            var dateStr = (String) fields.get(fieldName);
-            return LocalDate.parse(dateStr);
-        } catch (Exception e) {
-            throw new IllegalArgumentException(
-                    "Expected ISO-8601 (yyyy-MM-dd) format for field %s: %s"
-                            .formatted(fieldName, e.getMessage())
-            );
+    /**
+     * Without an expected version a lost race is retried against the newer snapshot; with one it is a conflict.
+     */
+    private boolean replace(UUID bookingId, UnaryOperator<Booking> change, long expectedVersion) {
+        while (true) {
+            var snapshot = state.get();
+            Booking old = snapshot.bookings().get(bookingId);
+            if (old == null) return false;
+            VersionConflictException.check(bookingId, expectedVersion, snapshot.versions().get(bookingId));
+            var booking = change.apply(old);
+            if (state.compareAndSet(snapshot, snapshot.put(booking))) {
+                publish(old, booking);
+                return true;
+            }
         }
     }
-}
\ No newline at end of file
+}
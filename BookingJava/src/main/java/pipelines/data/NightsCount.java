@@ -0,0 +1,5 @@
+package pipelines.data;
+
+import java.time.YearMonth;
+
+public record NightsCount(String hotelName, YearMonth month, long nights) {}
@@ -1,7 +1,7 @@
 package pipelines.data;
 
 public enum Operator {
-    EQ, NEQ, IN, GT, LT, GTE, LTE;
+    EQ, NEQ, IN, GT, LT, GTE, LTE, OVERLAPS;
 
     public static Operator fromString(String op) {
         return switch (op.toLowerCase()) {
@@ -12,6 +12,7 @@ public enum Operator {
             case "lt" -> LT;
             case "gte" -> GTE;
             case "lte" -> LTE;
+            case "overlaps" -> OVERLAPS;
             default -> throw new IllegalArgumentException("Unknown operator: " + op);
         };
     }
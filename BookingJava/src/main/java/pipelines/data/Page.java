@@ -0,0 +1,33 @@
+package pipelines.data;
+
+/**
+ * Window of a result set. Without a sort order the rows come in unspecified order.
+ *
+ * @param offset number of leading rows to skip
+ * @param limit  maximum number of rows to return, {@code null} for no limit
+ * @param after  keyset position; when set only rows sorting after it are considered
+ */
+public record Page(int offset, Integer limit, Cursor after) {
+    public static final Page ALL = new Page(0, null, null);
+
+    public Page(int offset, Integer limit) {
+        this(offset, limit, null);
+    }
+
+    public Page {
+        if (offset < 0) throw new IllegalArgumentException("offset cannot be negative");
+        if (limit != null && limit < 0) throw new IllegalArgumentException("limit cannot be negative");
+    }
+
+    public static Page of(Integer offset, Integer limit) {
+        if (offset == null && limit == null) return ALL;
+        return new Page(offset == null ? 0 : offset, limit);
+    }
+
+    /**
+     * @return number of rows needed to produce this page or {@code Integer.MAX_VALUE} when unbounded
+     */
+    int end() {
+        return limit == null ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+    }
+}
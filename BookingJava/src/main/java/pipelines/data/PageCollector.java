@@ -0,0 +1,166 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Collects the requested {@link Page} from rows offered in arbitrary order. With a sort order and a limit
+ * only the best {@code offset + limit} rows are kept in a bounded heap, so selecting them costs O(n log k).
+ */
+abstract sealed class PageCollector {
+    protected final Page page;
+
+    private PageCollector(Page page) {
+        this.page = page;
+    }
+
+    static PageCollector create(Comparator<Booking> comparator, Page page) {
+        if (page == null) page = Page.ALL;
+        if (comparator == null) return new Unsorted(page);
+        if (page.limit() == null) return new FullSort(comparator, page);
+        return new TopK(comparator, page);
+    }
+
+    /**
+     * Collector for rows arriving already in the requested order; it keeps them as they come and stops once the
+     * page is covered.
+     */
+    static PageCollector inOrder(Page page) {
+        return new Unsorted(page == null ? Page.ALL : page);
+    }
+
+    /**
+     * Collector for rows arriving already ordered by {@code groupKey}, the leading sort field. Rows sharing
+     * a group key are sorted with the full comparator once the group is complete, and collection stops at
+     * the first group boundary after the page is filled.
+     */
+    static PageCollector presorted(Comparator<Booking> comparator, Function<Booking, ?> groupKey, Page page) {
+        return new Presorted(comparator, groupKey, page == null ? Page.ALL : page);
+    }
+
+    /**
+     * @return {@code false} when no more rows are needed
+     */
+    abstract boolean offer(Booking booking);
+
+    abstract List<Booking> result();
+
+    protected List<Booking> window(List<Booking> rows) {
+        int from = Math.min(page.offset(), rows.size());
+        int to = Math.min(page.end(), rows.size());
+        return from == 0 && to == rows.size() ? rows : new ArrayList<>(rows.subList(from, to));
+    }
+
+    private static final class Unsorted extends PageCollector {
+        private final List<Booking> rows = new ArrayList<>();
+
+        Unsorted(Page page) {
+            super(page);
+        }
+
+        @Override
+        boolean offer(Booking booking) {
+            rows.add(booking);
+            return rows.size() < page.end();
+        }
+
+        @Override
+        List<Booking> result() {
+            return window(rows);
+        }
+    }
+
+    private static final class FullSort extends PageCollector {
+        private final Comparator<Booking> comparator;
+        private final List<Booking> rows = new ArrayList<>();
+
+        FullSort(Comparator<Booking> comparator, Page page) {
+            super(page);
+            this.comparator = comparator;
+        }
+
+        @Override
+        boolean offer(Booking booking) {
+            rows.add(booking);
+            return true;
+        }
+
+        @Override
+        List<Booking> result() {
+            rows.sort(comparator);
+            return window(rows);
+        }
+    }
+
+    private static final class Presorted extends PageCollector {
+        private final Comparator<Booking> comparator;
+        private final Function<Booking, ?> groupKey;
+        private final List<Booking> rows = new ArrayList<>();
+        private final List<Booking> group = new ArrayList<>();
+        private Object currentKey;
+
+        Presorted(Comparator<Booking> comparator, Function<Booking, ?> groupKey, Page page) {
+            super(page);
+            this.comparator = comparator;
+            this.groupKey = groupKey;
+        }
+
+        @Override
+        boolean offer(Booking booking) {
+            var key = groupKey.apply(booking);
+            if (!group.isEmpty() && !Objects.equals(key, currentKey)) {
+                flush();
+                if (rows.size() >= page.end()) return false;
+            }
+            currentKey = key;
+            group.add(booking);
+            return true;
+        }
+
+        private void flush() {
+            group.sort(comparator);
+            rows.addAll(group);
+            group.clear();
+        }
+
+        @Override
+        List<Booking> result() {
+            flush();
+            return window(rows);
+        }
+    }
+
+    private static final class TopK extends PageCollector {
+        private final Comparator<Booking> comparator;
+        private final int capacity;
+        // head is the worst of the rows kept so far
+        private final PriorityQueue<Booking> heap;
+
+        TopK(Comparator<Booking> comparator, Page page) {
+            super(page);
+            this.comparator = comparator;
+            this.capacity = page.end();
+            this.heap = new PriorityQueue<>(Math.min(capacity, 1024) + 1, comparator.reversed());
+        }
+
+        @Override
+        boolean offer(Booking booking) {
+            if (capacity == 0) return false;
+            if (heap.size() < capacity) heap.add(booking);
+            else if (comparator.compare(booking, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(booking);
+            }
+            return true;
+        }
+
+        @Override
+        List<Booking> result() {
+            var rows = new ArrayList<>(heap);
+            rows.sort(comparator);
+            return window(rows);
+        }
+    }
+}
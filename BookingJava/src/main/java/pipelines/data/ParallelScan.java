@@ -0,0 +1,94 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Runs queries that no index narrows as a parallel filter followed by a parallel sort, once the snapshot has at least
+ * {@code threshold} rows. Below that the sequential scan is faster, as splitting and merging cost more than they save.
+ * <p>
+ * The work runs on a dedicated fork-join pool with a fixed number of threads, so a large scan neither competes with
+ * the common pool nor grows beyond its share of the machine. The shared instance is configured with
+ * {@code -Dbooking.parallelThreshold=<rows>} and {@code -Dbooking.parallelThreads=<threads>}.
+ */
+public final class ParallelScan {
+    public static final int DEFAULT_THRESHOLD = 50_000;
+    public static final ParallelScan DISABLED = new ParallelScan(Integer.MAX_VALUE, 1);
+
+    private final int threshold;
+    private final int parallelism;
+    private volatile ForkJoinPool pool;
+
+    /**
+     * @param threshold   smallest number of rows scanned in parallel
+     * @param parallelism number of threads of the pool, which is started on first use
+     */
+    public ParallelScan(int threshold, int parallelism) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold must not be negative");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+    }
+
+    public static ParallelScan shared() {
+        return Shared.INSTANCE;
+    }
+
+    private static final class Shared {
+        static final ParallelScan INSTANCE = new ParallelScan(
+                Integer.getInteger("booking.parallelThreshold", DEFAULT_THRESHOLD),
+                Integer.getInteger("booking.parallelThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * An unsorted page with a limit stops the sequential scan as soon as it is filled, so only sorted or unbounded
+     * results are worth splitting.
+     */
+    boolean appliesTo(int rows, Comparator<Booking> comparator, Page page) {
+        return rows >= threshold && (comparator != null || page == null || page.limit() == null);
+    }
+
+    List<Booking> collect(Stream<Booking> rows, Predicate<Booking> predicate, CompiledSort comparator, Page page) {
+        var window = page == null ? Page.ALL : page;
+        return pool().submit(() -> {
+            var matches = rows.parallel().filter(predicate).toArray(Booking[]::new);
+            if (comparator == null || window.limit() != null && window.end() < matches.length / 8) {
+                // a short page of a long result is cheaper to select with a bounded heap than to sort in full
+                var collector = PageCollector.create(comparator, window);
+                for (var booking : matches) if (!collector.offer(booking)) break;
+                return collector.result();
+            }
+            comparator.parallelSort(matches);
+            int from = Math.min(window.offset(), matches.length), to = Math.min(window.end(), matches.length);
+            return new ArrayList<>(Arrays.asList(matches).subList(from, to));
+        }).join();
+    }
+
+    private ForkJoinPool pool() {
+        var result = pool;
+        if (result == null) {
+            synchronized (this) {
+                result = pool;
+                if (result == null) pool = result = new ForkJoinPool(parallelism, ParallelScan::newThread, null, false,
+                        0, parallelism, 1, saturated -> true, 60, TimeUnit.SECONDS);
+            }
+        }
+        return result;
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("booking-scan-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
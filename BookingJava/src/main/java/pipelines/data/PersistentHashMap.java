@@ -0,0 +1,427 @@
+package pipelines.data;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable hash array mapped trie. Every modification returns a new map that shares all untouched
+ * nodes with the previous one, so a reference to a map is always a consistent point-in-time snapshot.
+ */
+final class PersistentHashMap<K, V> {
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    static <K, V> PersistentHashMap<K, V> from(Map<? extends K, ? extends V> source) {
+        PersistentHashMap<K, V> result = empty();
+        if (source != null)
+            for (var entry : source.entrySet())
+                result = result.plus(entry.getKey(), entry.getValue());
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        return root == null ? null : (V) root.find(0, hash(key), key);
+    }
+
+    boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    PersistentHashMap<K, V> plus(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+
+        var added = new boolean[1];
+        Node newRoot = (root == null ? BitmapNode.EMPTY : root).assoc(0, hash(key), key, value, added);
+        if (newRoot == root) return this;
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    PersistentHashMap<K, V> minus(K key) {
+        if (root == null) return this;
+        Node newRoot = root.without(0, hash(key), key);
+        if (newRoot == root) return this;
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    /**
+     * Visits values until the action returns {@code false}.
+     *
+     * @return {@code false} when the iteration was stopped early
+     */
+    @SuppressWarnings("unchecked")
+    boolean forEachValueWhile(Predicate<? super V> action) {
+        return root == null || root.forEachValueWhile((Predicate<Object>) action);
+    }
+
+    /**
+     * Lazy stream over the values of this snapshot.
+     */
+    Stream<V> valueStream() {
+        var spliterator = Spliterators.spliterator(new ValueIterator<V>(root), size,
+                Spliterator.SIZED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Parallel stream over the values of this snapshot, split along the subtrees of the trie.
+     */
+    Stream<V> parallelValueStream() {
+        var array = root == null ? new Object[0] : root.array();
+        return StreamSupport.stream(new ValueSpliterator<V>(array, 0, array.length, size), true);
+    }
+
+    List<V> values() {
+        var result = new ArrayList<V>(size);
+        forEach((k, v) -> result.add(v));
+        return result;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 0x1f);
+    }
+
+    private sealed interface Node permits BitmapNode, CollisionNode {
+        Object find(int shift, int hash, Object key);
+
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+
+        Node without(int shift, int hash, Object key);
+
+        void forEach(BiConsumer<Object, Object> action);
+
+        boolean forEachValueWhile(Predicate<Object> action);
+
+        Object[] array();
+    }
+
+    /**
+     * Depth-first walk keeping one array cursor per trie level; the trie is at most 7 bitmap levels plus a collision node deep.
+     */
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final Object[][] arrays = new Object[8][];
+        private final int[] positions = new int[8];
+        private int depth = -1;
+        private Object next;
+
+        ValueIterator(Node root) {
+            if (root != null) push(root);
+        }
+
+        private void push(Node node) {
+            arrays[++depth] = node.array();
+            positions[depth] = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && depth >= 0) {
+                var array = arrays[depth];
+                int i = positions[depth];
+                if (i >= array.length) {
+                    arrays[depth--] = null;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (array[i] == null) push((Node) array[i + 1]);
+                else next = array[i + 1];
+            }
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            var result = (V) next;
+            next = null;
+            return result;
+        }
+    }
+
+    /**
+     * Covers the key/value slots {@code [from, to)} of one node array; a slice that is a single child node
+     * is split by descending into that child.
+     */
+    private static final class ValueSpliterator<V> implements Spliterator<V> {
+        private Object[] array;
+        private int from, to;
+        private long estimate;
+        private Iterator<V> child;
+
+        ValueSpliterator(Object[] array, int from, int to, long estimate) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public Spliterator<V> trySplit() {
+            if (child != null) return null;
+            int pairs = (to - from) / 2;
+            if (pairs == 1 && array[from] == null) {
+                array = ((Node) array[from + 1]).array();
+                from = 0;
+                to = array.length;
+                return trySplit();
+            }
+            if (pairs < 2) return null;
+
+            int mid = from + pairs / 2 * 2;
+            var prefix = new ValueSpliterator<V>(array, from, mid, estimate / 2);
+            from = mid;
+            estimate -= prefix.estimate;
+            return prefix;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super V> action) {
+            while (true) {
+                if (child != null) {
+                    if (child.hasNext()) {
+                        action.accept(child.next());
+                        return true;
+                    }
+                    child = null;
+                }
+                if (from >= to) return false;
+                Object key = array[from], value = array[from + 1];
+                from += 2;
+                if (key == null) child = new ValueIterator<>((Node) value);
+                else {
+                    action.accept((V) value);
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super V> action) {
+            if (child != null) child.forEachRemaining(action);
+            child = null;
+            for (; from < to; from += 2) {
+                if (array[from] == null) ((Node) array[from + 1]).forEachValueWhile(value -> {
+                    action.accept((V) value);
+                    return true;
+                });
+                else action.accept((V) array[from + 1]);
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        }
+    }
+
+    /**
+     * Array holds key/value pairs; a {@code null} key marks a slot whose value is a child node.
+     */
+    private record BitmapNode(int bitmap, Object[] array) implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) return null;
+
+            int idx = 2 * index(bit);
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) return ((Node) v).find(shift + 5, hash, key);
+            return key.equals(k) ? v : null;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bitpos(hash, shift);
+            int idx = 2 * index(bit);
+
+            if ((bitmap & bit) != 0) {
+                Object k = array[idx];
+                Object v = array[idx + 1];
+                if (k == null) {
+                    Node child = ((Node) v).assoc(shift + 5, hash, key, value, added);
+                    return child == v ? this : new BitmapNode(bitmap, copyAndSet(array, idx + 1, child));
+                }
+                if (key.equals(k))
+                    return v == value ? this : new BitmapNode(bitmap, copyAndSet(array, idx + 1, value));
+
+                added[0] = true;
+                Node child = createNode(shift + 5, k, v, hash, key, value);
+                var newArray = copyAndSet(array, idx, null);
+                newArray[idx + 1] = child;
+                return new BitmapNode(bitmap, newArray);
+            }
+
+            added[0] = true;
+            var newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            newArray[idx] = key;
+            newArray[idx + 1] = value;
+            System.arraycopy(array, idx, newArray, idx + 2, array.length - idx);
+            return new BitmapNode(bitmap | bit, newArray);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+
+            int idx = 2 * index(bit);
+            Object k = array[idx];
+            Object v = array[idx + 1];
+            if (k == null) {
+                Node child = ((Node) v).without(shift + 5, hash, key);
+                if (child == v) return this;
+                if (child != null) return new BitmapNode(bitmap, copyAndSet(array, idx + 1, child));
+            } else if (!key.equals(k)) {
+                return this;
+            }
+
+            if (bitmap == bit) return null;
+            var newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) ((Node) array[i + 1]).forEach(action);
+                else action.accept(array[i], array[i + 1]);
+            }
+        }
+
+        @Override
+        public boolean forEachValueWhile(Predicate<Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                boolean proceed = array[i] == null
+                        ? ((Node) array[i + 1]).forEachValueWhile(action)
+                        : action.test(array[i + 1]);
+                if (!proceed) return false;
+            }
+            return true;
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+
+            var ignored = new boolean[1];
+            return EMPTY.assoc(shift, hash1, key1, value1, ignored).assoc(shift, hash2, key2, value2, ignored);
+        }
+    }
+
+    private record CollisionNode(int hash, Object[] array) implements Node {
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2)
+                if (key.equals(array[i])) return i;
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int idx = indexOf(key);
+            return idx < 0 ? null : array[idx + 1];
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash == this.hash) {
+                int idx = indexOf(key);
+                if (idx >= 0)
+                    return array[idx + 1] == value ? this : new CollisionNode(hash, copyAndSet(array, idx + 1, value));
+
+                added[0] = true;
+                var newArray = Arrays.copyOf(array, array.length + 2);
+                newArray[array.length] = key;
+                newArray[array.length + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+
+            // different hash at this depth - push this collision node one level down
+            var wrapper = new BitmapNode(bitpos(this.hash, shift), new Object[]{null, this});
+            return wrapper.assoc(shift, hash, key, value, added);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int idx = indexOf(key);
+            if (idx < 0) return this;
+            if (array.length == 2) return null;
+
+            var newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2)
+                action.accept(array[i], array[i + 1]);
+        }
+
+        @Override
+        public boolean forEachValueWhile(Predicate<Object> action) {
+            for (int i = 0; i < array.length; i += 2)
+                if (!action.test(array[i + 1])) return false;
+            return true;
+        }
+    }
+
+    private static Object[] copyAndSet(Object[] array, int idx, Object value) {
+        var copy = array.clone();
+        copy[idx] = value;
+        return copy;
+    }
+}
@@ -0,0 +1,213 @@
+package pipelines.data;
+
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable AVL tree ordered by a comparator. Nodes keep their subtree size, so range counts are
+ * answered in O(log n) which is what the query planner uses to estimate selectivity.
+ * <p>
+ * Ranges are described by a position function that returns a negative number for elements below
+ * the range, zero for elements inside it and a positive number for elements above it. The function
+ * has to be monotonic with respect to the comparator.
+ * <p>
+ * Optionally every node also keeps the maximum of a second key over its subtree. With elements ordered by interval
+ * start and the interval end as that key, this is an interval tree: subtrees ending before a query can be skipped.
+ */
+final class PersistentTreeSet<E> {
+    private final Comparator<? super E> comparator;
+    private final ToLongFunction<? super E> maxKey;
+    private final Node<E> root;
+
+    private PersistentTreeSet(Comparator<? super E> comparator, ToLongFunction<? super E> maxKey, Node<E> root) {
+        this.comparator = comparator;
+        this.maxKey = maxKey;
+        this.root = root;
+    }
+
+    static <E> PersistentTreeSet<E> empty(Comparator<? super E> comparator) {
+        return new PersistentTreeSet<>(comparator, null, null);
+    }
+
+    /**
+     * @param maxKey second key whose subtree maximum is kept in every node, see {@link #forEachReaching}
+     */
+    static <E> PersistentTreeSet<E> empty(Comparator<? super E> comparator, ToLongFunction<? super E> maxKey) {
+        return new PersistentTreeSet<>(comparator, maxKey, null);
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    PersistentTreeSet<E> plus(E element) {
+        var newRoot = insert(root, element);
+        return newRoot == root ? this : new PersistentTreeSet<>(comparator, maxKey, newRoot);
+    }
+
+    PersistentTreeSet<E> minus(E element) {
+        var newRoot = remove(root, element);
+        return newRoot == root ? this : new PersistentTreeSet<>(comparator, maxKey, newRoot);
+    }
+
+    int count(ToIntFunction<? super E> position) {
+        return size(root) - countBelow(root, position) - countAbove(root, position);
+    }
+
+    void forEach(ToIntFunction<? super E> position, Consumer<? super E> action) {
+        forEachWhile(root, position, false, e -> {
+            action.accept(e);
+            return true;
+        });
+    }
+
+    /**
+     * Visits the range in ascending or descending order until the action returns {@code false}.
+     */
+    void forEachWhile(ToIntFunction<? super E> position, boolean descending, Predicate<? super E> action) {
+        forEachWhile(root, position, descending, action);
+    }
+
+    /**
+     * Visits the elements inside the range whose second key is at least {@code min}, skipping every subtree
+     * whose maximum second key is below it.
+     */
+    void forEachReaching(ToIntFunction<? super E> position, long min, Consumer<? super E> action) {
+        if (maxKey == null) throw new IllegalStateException("Tree does not keep a second key");
+        forEachReaching(root, position, min, action);
+    }
+
+    private void forEachReaching(Node<E> node, ToIntFunction<? super E> position, long min, Consumer<? super E> action) {
+        while (node != null && node.max() >= min) {
+            int p = position.applyAsInt(node.value());
+            if (p >= 0) forEachReaching(node.left(), position, min, action);
+            if (p == 0 && maxKey.applyAsLong(node.value()) >= min) action.accept(node.value());
+            if (p > 0) return;
+            node = node.right();
+        }
+    }
+
+    private record Node<E>(E value, Node<E> left, Node<E> right, int height, int size, long max) {}
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height();
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size();
+    }
+
+    private Node<E> node(E value, Node<E> left, Node<E> right) {
+        long max = 0;
+        if (maxKey != null) {
+            max = maxKey.applyAsLong(value);
+            if (left != null) max = Math.max(max, left.max());
+            if (right != null) max = Math.max(max, right.max());
+        }
+        return new Node<>(value, left, right, 1 + Math.max(height(left), height(right)), 1 + size(left) + size(right), max);
+    }
+
+    private Node<E> balance(E value, Node<E> left, Node<E> right) {
+        int hl = height(left), hr = height(right);
+        if (hl > hr + 1) {
+            if (height(left.left()) >= height(left.right()))
+                return node(left.value(), left.left(), node(value, left.right(), right));
+            var lr = left.right();
+            return node(lr.value(), node(left.value(), left.left(), lr.left()), node(value, lr.right(), right));
+        }
+        if (hr > hl + 1) {
+            if (height(right.right()) >= height(right.left()))
+                return node(right.value(), node(value, left, right.left()), right.right());
+            var rl = right.left();
+            return node(rl.value(), node(value, left, rl.left()), node(right.value(), rl.right(), right.right()));
+        }
+        return node(value, left, right);
+    }
+
+    private Node<E> insert(Node<E> node, E element) {
+        if (node == null) return node(element, null, null);
+
+        int c = comparator.compare(element, node.value());
+        if (c < 0) {
+            var left = insert(node.left(), element);
+            return left == node.left() ? node : balance(node.value(), left, node.right());
+        }
+        if (c > 0) {
+            var right = insert(node.right(), element);
+            return right == node.right() ? node : balance(node.value(), node.left(), right);
+        }
+        return node.value() == element ? node : node(element, node.left(), node.right());
+    }
+
+    private Node<E> remove(Node<E> node, E element) {
+        if (node == null) return null;
+
+        int c = comparator.compare(element, node.value());
+        if (c < 0) {
+            var left = remove(node.left(), element);
+            return left == node.left() ? node : balance(node.value(), left, node.right());
+        }
+        if (c > 0) {
+            var right = remove(node.right(), element);
+            return right == node.right() ? node : balance(node.value(), node.left(), right);
+        }
+        if (node.left() == null) return node.right();
+        if (node.right() == null) return node.left();
+
+        var min = node.right();
+        while (min.left() != null) min = min.left();
+        return balance(min.value(), node.left(), removeMin(node.right()));
+    }
+
+    private Node<E> removeMin(Node<E> node) {
+        if (node.left() == null) return node.right();
+        return balance(node.value(), removeMin(node.left()), node.right());
+    }
+
+    private static <E> int countBelow(Node<E> node, ToIntFunction<? super E> position) {
+        int count = 0;
+        while (node != null) {
+            if (position.applyAsInt(node.value()) < 0) {
+                count += size(node.left()) + 1;
+                node = node.right();
+            } else node = node.left();
+        }
+        return count;
+    }
+
+    private static <E> int countAbove(Node<E> node, ToIntFunction<? super E> position) {
+        int count = 0;
+        while (node != null) {
+            if (position.applyAsInt(node.value()) > 0) {
+                count += size(node.right()) + 1;
+                node = node.left();
+            } else node = node.right();
+        }
+        return count;
+    }
+
+    private static <E> boolean forEachWhile(Node<E> node, ToIntFunction<? super E> position, boolean descending, Predicate<? super E> action) {
+        while (node != null) {
+            int p = position.applyAsInt(node.value());
+            if (descending) {
+                if (p <= 0 && !forEachWhile(node.right(), position, true, action)) return false;
+                if (p == 0 && !action.test(node.value())) return false;
+                if (p < 0) return true;
+                node = node.left();
+            } else {
+                if (p >= 0 && !forEachWhile(node.left(), position, false, action)) return false;
+                if (p == 0 && !action.test(node.value())) return false;
+                if (p > 0) return true;
+                node = node.right();
+            }
+        }
+        return true;
+    }
+}
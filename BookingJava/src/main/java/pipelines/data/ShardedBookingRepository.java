@@ -0,0 +1,246 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Partitions bookings by hotel name over independent shards, each with its own state, indexes and write path,
+ * so writes to different hotels never contend and each shard's data ages on its own.
+ * <p>
+ * Queries that name one hotel with {@code hotelName eq} go to that hotel's shard only. All other queries run on
+ * every shard in parallel; each shard returns its part of the page already sorted and the parts are combined with
+ * a k-way merge in the same order. A booking whose hotel changes moves between shards, which readers may observe
+ * as a short moment in which it is in neither.
+ */
+public class ShardedBookingRepository implements BookingRepository {
+    private static final String HOTEL_NAME = "hotelName";
+
+    private final BookingRepository[] shards;
+    private final Executor executor;
+    private final IdGenerator idGenerator;
+    // shard of every booking; compute() on an id serializes the writes to that booking
+    private final ConcurrentHashMap<UUID, Integer> directory = new ConcurrentHashMap<>();
+
+    public ShardedBookingRepository(int shardCount) {
+        this(shardCount, shard -> new InMemoryBookingRepository(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param shardFactory creates the empty repository for each shard index
+     * @param executor     runs the per-shard parts of fanned-out queries
+     */
+    public ShardedBookingRepository(int shardCount, IntFunction<BookingRepository> shardFactory, Executor executor) {
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount must be positive");
+        this.shards = new BookingRepository[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = shardFactory.apply(i);
+        this.executor = executor;
+        this.idGenerator = IdGenerator.timeOrdered();
+    }
+
+    int shardOf(String hotelName) {
+        return Math.floorMod(hotelName.hashCode(), shards.length);
+    }
+
+    @Override
+    public UUID getNextId() {
+        return idGenerator.nextId();
+    }
+
+    @Override
+    public void add(Booking booking) {
+        booking.validate();
+        int target = shardOf(booking.hotelName());
+        directory.compute(booking.id(), (id, current) -> {
+            shards[target].add(booking);
+            if (current != null && current != target) shards[current].delete(id);
+            return target;
+        });
+    }
+
+    @Override
+    public Booking getById(UUID bookingId) {
+        var shard = directory.get(bookingId);
+        return shard == null ? null : shards[shard].getById(bookingId);
+    }
+
+    @Override
+    public VersionedBooking getVersioned(UUID bookingId) {
+        var shard = directory.get(bookingId);
+        return shard == null ? null : shards[shard].getVersioned(bookingId);
+    }
+
+    /**
+     * Versions come from one clock, so the newest write of any shard is the newest write overall.
+     */
+    @Override
+    public long version() {
+        long version = 0;
+        for (var shard : shards) version = Math.max(version, shard.version());
+        return version;
+    }
+
+    /**
+     * A booking moving to another shard is reported as removed from the old shard and added to the new one.
+     */
+    @Override
+    public void onChange(Consumer<BookingChange> listener) {
+        for (var shard : shards) shard.onChange(listener);
+    }
+
+    @Override
+    public boolean delete(UUID bookingId) {
+        var deleted = new boolean[1];
+        directory.computeIfPresent(bookingId, (id, current) -> {
+            deleted[0] = shards[current].delete(id);
+            return null;
+        });
+        return deleted[0];
+    }
+
+    @Override
+    public boolean update(Booking booking, long expectedVersion) {
+        booking.validate();
+        return replace(booking.id(), old -> booking, expectedVersion);
+    }
+
+    @Override
+    public boolean patch(UUID bookingId, Map<?, ?> fields, long expectedVersion) {
+        return replace(bookingId, old -> old.merge(fields), expectedVersion);
+    }
+
+    private boolean replace(UUID bookingId, Function<Booking, Booking> change, long expectedVersion) {
+        var replaced = new boolean[1];
+        directory.computeIfPresent(bookingId, (id, current) -> {
+            var old = shards[current].getVersioned(id);
+            if (old == null) return current;
+            VersionConflictException.check(id, expectedVersion, old.version());
+            var booking = change.apply(old.booking());
+            int target = shardOf(booking.hotelName());
+            if (target == current) shards[current].update(booking, old.version());
+            else {
+                shards[current].delete(id);
+                shards[target].add(booking);
+            }
+            replaced[0] = true;
+            return target;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        var shard = route(filter);
+        if (shard != null) return shard.get(filter, sort, page);
+        if (page == null) page = Page.ALL;
+
+        // every shard delivers its first offset + limit rows, the merge skips the offset across all of them
+        var shardPage = new Page(0, page.limit() == null ? null : page.end(), page.after());
+        var parts = fanOut(repository -> repository.get(filter, sort, shardPage));
+
+        var comparator = CompiledSort.of(page.after() != null ? Cursor.keyOrder(sort) : sort);
+        if (comparator == null) {
+            var rows = new ArrayList<Booking>();
+            for (var part : parts) rows.addAll(part);
+            int from = Math.min(page.offset(), rows.size()), to = Math.min(page.end(), rows.size());
+            return new ArrayList<>(rows.subList(from, to));
+        }
+        return merge(parts, comparator, page.offset(), page.end());
+    }
+
+    /**
+     * Unsorted rows are streamed from one shard after the other.
+     */
+    @Override
+    public Stream<Booking> stream(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        var shard = route(filter);
+        if (shard != null) return shard.stream(filter, sort, page);
+        if (CompiledSort.of(sort) != null || (page != null && page.after() != null)) return get(filter, sort, page).stream();
+
+        var rows = Arrays.stream(shards).flatMap(repository -> repository.stream(filter, null, Page.ALL));
+        if (page != null) {
+            if (page.offset() > 0) rows = rows.skip(page.offset());
+            if (page.limit() != null) rows = rows.limit(page.limit());
+        }
+        return rows;
+    }
+
+    /**
+     * Hotels never span shards, so the per-shard counts are only put in order.
+     */
+    @Override
+    public List<HotelCount> countPerHotel(Map<String, DataFilter<?>> filter) {
+        var shard = route(filter);
+        if (shard != null) return shard.countPerHotel(filter);
+        return fanOut(repository -> repository.countPerHotel(filter)).stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(HotelCount::hotelName))
+                .toList();
+    }
+
+    @Override
+    public List<CheckInCount> countPerCheckInDay(Map<String, DataFilter<?>> filter) {
+        var shard = route(filter);
+        if (shard != null) return shard.countPerCheckInDay(filter);
+        var perDay = new TreeMap<java.time.LocalDate, Long>();
+        for (var part : fanOut(repository -> repository.countPerCheckInDay(filter)))
+            for (var count : part) perDay.merge(count.date(), count.checkIns(), Long::sum);
+        return perDay.entrySet().stream().map(e -> new CheckInCount(e.getKey(), e.getValue())).toList();
+    }
+
+    @Override
+    public List<NightsCount> countNightsPerHotelAndMonth(Map<String, DataFilter<?>> filter) {
+        var shard = route(filter);
+        if (shard != null) return shard.countNightsPerHotelAndMonth(filter);
+        return fanOut(repository -> repository.countNightsPerHotelAndMonth(filter)).stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(NightsCount::hotelName).thenComparing(NightsCount::month))
+                .toList();
+    }
+
+    /**
+     * @return the only shard that can hold matches of {@code filter}, or {@code null} when every shard has to be asked
+     */
+    private BookingRepository route(Map<String, DataFilter<?>> filter) {
+        if (shards.length == 1) return shards[0];
+        if (filter != null && filter.get(HOTEL_NAME) instanceof StringFilter sf && sf.operator() == Operator.EQ)
+            return shards[shardOf(sf.value())];
+        return null;
+    }
+
+    private <R> List<R> fanOut(Function<BookingRepository, R> query) {
+        var futures = new ArrayList<CompletableFuture<R>>(shards.length);
+        for (var shard : shards) futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), executor));
+        var results = new ArrayList<R>(shards.length);
+        for (var future : futures) results.add(future.join());
+        return results;
+    }
+
+    /**
+     * K-way merge of sorted parts, skipping the first {@code from} rows and stopping at {@code to}.
+     */
+    static List<Booking> merge(List<List<Booking>> parts, Comparator<Booking> comparator, int from, int to) {
+        // heap of part indexes, ordered by the next row of each part
+        var positions = new int[parts.size()];
+        var heap = new PriorityQueue<Integer>(Math.max(1, parts.size()),
+                (a, b) -> comparator.compare(parts.get(a).get(positions[a]), parts.get(b).get(positions[b])));
+        for (int i = 0; i < parts.size(); i++)
+            if (!parts.get(i).isEmpty()) heap.add(i);
+
+        var result = new ArrayList<Booking>();
+        for (int n = 0; n < to && !heap.isEmpty(); n++) {
+            int part = heap.poll();
+            if (n >= from) result.add(parts.get(part).get(positions[part]));
+            if (++positions[part] < parts.get(part).size()) heap.add(part);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package pipelines.data;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * UUIDv7 ids (RFC 9562): a 48-bit Unix millisecond timestamp, a 12-bit sequence within the millisecond and 62 random
+ * bits. The timestamp and sequence advance in one node-wide {@link AtomicLong}, so ids are strictly increasing
+ * across all threads of the node even when the clock steps back or more than 4096 ids are taken in a millisecond
+ * (the sequence then runs ahead of the clock until it catches up). The random bits come from
+ * {@link ThreadLocalRandom}, which threads drawing ids at once do not share.
+ * <p>
+ * Ids sort by creation time, both by {@link UUID#compareTo} and as bytes, so new rows land at the end of ordered
+ * structures instead of at random positions.
+ */
+public final class TimeOrderedIdGenerator implements IdGenerator {
+    static final TimeOrderedIdGenerator SHARED = new TimeOrderedIdGenerator();
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final long VERSION = 7L << SEQUENCE_BITS;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    private final LongSupplier clock;
+    // millisecond timestamp shifted left by SEQUENCE_BITS, plus the sequence, of the last id
+    private final AtomicLong last = new AtomicLong();
+
+    public TimeOrderedIdGenerator() {
+        this(System::currentTimeMillis);
+    }
+
+    public TimeOrderedIdGenerator(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public UUID nextId() {
+        long stamp = last.accumulateAndGet(clock.getAsLong() << SEQUENCE_BITS, (previous, now) -> Math.max(now, previous + 1));
+        long msb = (stamp >>> SEQUENCE_BITS) << 16 | VERSION | (stamp & ((1L << SEQUENCE_BITS) - 1));
+        long lsb = ThreadLocalRandom.current().nextLong() >>> 2 | VARIANT;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * @return Unix millisecond timestamp of a version 7 UUID
+     */
+    public static long timestamp(UUID id) {
+        if (id.version() != 7) throw new IllegalArgumentException("Not a version 7 UUID: " + id);
+        return id.getMostSignificantBits() >>> 16;
+    }
+}
@@ -0,0 +1,17 @@
+package pipelines.data;
+
+import java.util.UUID;
+
+public class VersionConflictException extends IllegalStateException {
+    public VersionConflictException(UUID bookingId, long expectedVersion, long version) {
+        super("Booking %s is at version %d, not %d".formatted(bookingId, version, expectedVersion));
+    }
+
+    /**
+     * @throws VersionConflictException unless {@code version} is the expected one or any version is expected
+     */
+    public static void check(UUID bookingId, long expectedVersion, long version) {
+        if (expectedVersion != BookingRepository.ANY_VERSION && expectedVersion != version)
+            throw new VersionConflictException(bookingId, expectedVersion, version);
+    }
+}
@@ -0,0 +1,21 @@
+package pipelines.data;
+
+import pipelines.domain.Booking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Booking as stored, with the version written along with it.
+ * <p>
+ * Versions are stamps of one clock shared by all repositories: at least the current time in microseconds and
+ * always greater than every stamp handed out before. A booking therefore never returns to an earlier version,
+ * not when it moves between shards and not after a restart, which replays it under new stamps.
+ */
+public record VersionedBooking(Booking booking, long version) {
+    private static final AtomicLong CLOCK = new AtomicLong();
+
+    public static long nextVersion() {
+        long now = System.currentTimeMillis() * 1000;
+        return CLOCK.accumulateAndGet(now, (previous, time) -> Math.max(previous + 1, time));
+    }
+}
@@ -0,0 +1,581 @@
+package pipelines.data.columnar;
+
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Column-oriented {@link BookingRepository} for large data sets. Every field lives in its own primitive array:
+ * ids as two {@code long}s, dates as epoch days, hotel names dictionary-encoded and the high-cardinality strings
+ * as references into an {@link OffHeapStringArena}. Filters and sort orders are evaluated on the columns and
+ * a {@link Booking} is only materialized for the rows actually returned, so the heap holds no per-booking objects.
+ * <p>
+ * Guest names and emails are ordered by their UTF-8 bytes, which differs from {@link String#compareTo} only for
+ * characters outside the Basic Multilingual Plane. An unchanged string keeps its place on update; once replaced and
+ * deleted strings take more space than the live ones, the live ones are copied into fresh chunks.
+ * <p>
+ * Not a Spring bean; register it in place of {@link InMemoryBookingRepository} when memory footprint matters more
+ * than lock-free reads.
+ */
+public class ColumnarBookingRepository implements BookingRepository {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_ARENA_CHUNK_SIZE = 4 << 20;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StringDictionary hotels = new StringDictionary();
+    private final int arenaChunkSize;
+    private OffHeapStringArena strings;
+    private final RowIdIndex rowsById;
+    private final BitSet live = new BitSet();
+
+    private long[] idMsb, idLsb, guestName, email, version;
+    private int[] hotelName, checkIn, checkOut;
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    private int rowCount;
+    private volatile long lastVersion;
+    private final List<Consumer<BookingChange>> listeners = new CopyOnWriteArrayList<>();
+    // changes of the write holding the lock, handed to the listeners once it is released
+    private final List<BookingChange> pending = new ArrayList<>();
+
+    public ColumnarBookingRepository() {
+        this(DEFAULT_CAPACITY, DEFAULT_ARENA_CHUNK_SIZE);
+    }
+
+    public ColumnarBookingRepository(int initialCapacity, int arenaChunkSize) {
+        int capacity = Math.max(16, initialCapacity);
+        this.arenaChunkSize = arenaChunkSize;
+        strings = new OffHeapStringArena(arenaChunkSize);
+        rowsById = new RowIdIndex(capacity);
+        idMsb = new long[capacity];
+        idLsb = new long[capacity];
+        guestName = new long[capacity];
+        email = new long[capacity];
+        version = new long[capacity];
+        hotelName = new int[capacity];
+        checkIn = new int[capacity];
+        checkOut = new int[capacity];
+    }
+
+    /**
+     * @param bookings initial content; the map is copied and not modified afterward
+     */
+    public ColumnarBookingRepository(Map<UUID, Booking> bookings) {
+        this(bookings == null ? DEFAULT_CAPACITY : bookings.size(), DEFAULT_ARENA_CHUNK_SIZE);
+        if (bookings != null)
+            for (var booking : bookings.values()) write(booking);
+    }
+
+    @Override
+    public UUID getNextId() {
+        return IdGenerator.timeOrdered().nextId();
+    }
+
+    @Override
+    public void add(Booking booking) {
+        booking.validate();
+        lock.writeLock().lock();
+        try {
+            write(booking);
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    @Override
+    public void addAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        lock.writeLock().lock();
+        try {
+            for (var booking : bookings) write(booking);
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    @Override
+    public void onChange(Consumer<BookingChange> listener) {
+        listeners.add(listener);
+    }
+
+    private void unlockAndPublish() {
+        if (strings.wasteful()) compactStrings();
+        List<BookingChange> changes = List.of();
+        if (!pending.isEmpty()) {
+            changes = List.copyOf(pending);
+            pending.clear();
+        }
+        lock.writeLock().unlock();
+        for (var change : changes)
+            for (var listener : listeners) listener.accept(change);
+    }
+
+    @Override
+    public Booking getById(UUID bookingId) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(bookingId.getMostSignificantBits(), bookingId.getLeastSignificantBits());
+            return row < 0 ? null : materialize(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public VersionedBooking getVersioned(UUID bookingId) {
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(bookingId.getMostSignificantBits(), bookingId.getLeastSignificantBits());
+            return row < 0 ? null : new VersionedBooking(materialize(row), version[row]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long version() {
+        return lastVersion;
+    }
+
+    @Override
+    public List<Booking> getByIds(List<UUID> bookingIds) {
+        var bookings = new ArrayList<Booking>(bookingIds.size());
+        lock.readLock().lock();
+        try {
+            for (var bookingId : bookingIds) {
+                int row = rowsById.get(bookingId.getMostSignificantBits(), bookingId.getLeastSignificantBits());
+                bookings.add(row < 0 ? null : materialize(row));
+            }
+            return bookings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(UUID bookingId) {
+        lock.writeLock().lock();
+        try {
+            return remove(bookingId);
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    @Override
+    public boolean[] deleteAll(List<UUID> bookingIds) {
+        var deleted = new boolean[bookingIds.size()];
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < deleted.length; i++) deleted[i] = remove(bookingIds.get(i));
+            return deleted;
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    private boolean remove(UUID bookingId) {
+        int row = rowsById.remove(bookingId.getMostSignificantBits(), bookingId.getLeastSignificantBits());
+        if (row < 0) return false;
+        if (!listeners.isEmpty()) pending.add(new BookingChange(materialize(row), null));
+        lastVersion = VersionedBooking.nextVersion();
+        live.clear(row);
+        strings.free(guestName[row]);
+        strings.free(email[row]);
+        if (freeCount == freeRows.length) freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        freeRows[freeCount++] = row;
+        return true;
+    }
+
+    @Override
+    public boolean update(Booking booking, long expectedVersion) {
+        booking.validate();
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(booking.id().getMostSignificantBits(), booking.id().getLeastSignificantBits());
+            if (row < 0) return false;
+            VersionConflictException.check(booking.id(), expectedVersion, version[row]);
+            writeRow(row, booking);
+            return true;
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    @Override
+    public boolean[] updateAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        var updated = new boolean[bookings.size()];
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < updated.length; i++) updated[i] = overwrite(bookings.get(i));
+            return updated;
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    private boolean overwrite(Booking booking) {
+        int row = rowsById.get(booking.id().getMostSignificantBits(), booking.id().getLeastSignificantBits());
+        if (row < 0) return false;
+        writeRow(row, booking);
+        return true;
+    }
+
+    @Override
+    public boolean patch(UUID bookingId, Map<?, ?> fields, long expectedVersion) {
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(bookingId.getMostSignificantBits(), bookingId.getLeastSignificantBits());
+            if (row < 0) return false;
+            VersionConflictException.check(bookingId, expectedVersion, version[row]);
+            writeRow(row, materialize(row).merge(fields));
+            return true;
+        } finally {
+            unlockAndPublish();
+        }
+    }
+
+    @Override
+    public List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        if (page == null) page = Page.ALL;
+
+        lock.readLock().lock();
+        try {
+            var predicates = filter == null ? new RowPredicate[0] : compileFilter(filter);
+
+            List<SortField> order;
+            Booking key = null;
+            if (page.after() != null) {
+                order = Cursor.keyOrder(sort);
+                if (!page.after().sort().equals(order))
+                    throw new IllegalArgumentException("Cursor does not match the requested sort order");
+                key = page.after().key();
+            } else {
+                order = new ArrayList<>();
+                if (sort != null) sort.forEach(order::add);
+            }
+            var comparator = order.isEmpty() ? null : compileSort(order, key);
+
+            long end = page.limit() == null ? Long.MAX_VALUE : (long) page.offset() + page.limit();
+            var matches = new int[Math.max(16, Math.min(live.cardinality(), 1024))];
+            int count = 0;
+            for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                if (!test(predicates, row)) continue;
+                if (key != null && comparator.compareToKey(row) <= 0) continue;
+                if (count == matches.length) matches = Arrays.copyOf(matches, count * 2);
+                matches[count++] = row;
+                // without a sort order any rows will do, so stop once the page is covered
+                if (comparator == null && count >= end) break;
+            }
+
+            int[] ordered = matches;
+            if (comparator != null) {
+                if (end < count) {
+                    ordered = RowSorter.topK(matches, count, (int) end, comparator);
+                    count = ordered.length;
+                } else RowSorter.sort(matches, count, comparator);
+            }
+
+            int from = Math.min(page.offset(), count);
+            int to = (int) Math.min(end, count);
+            var result = new ArrayList<Booking>(to - from);
+            for (int i = from; i < to; i++) result.add(materialize(ordered[i]));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Off-heap bytes reserved for string storage.
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return strings.bytesAllocated();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Booking booking) {
+        int row = rowsById.get(booking.id().getMostSignificantBits(), booking.id().getLeastSignificantBits());
+        if (row < 0) {
+            row = allocateRow();
+            rowsById.put(booking.id().getMostSignificantBits(), booking.id().getLeastSignificantBits(), row);
+        }
+        writeRow(row, booking);
+        live.set(row);
+    }
+
+    private int allocateRow() {
+        if (freeCount > 0) return freeRows[--freeCount];
+        if (rowCount == idMsb.length) {
+            int capacity = idMsb.length * 2;
+            idMsb = Arrays.copyOf(idMsb, capacity);
+            idLsb = Arrays.copyOf(idLsb, capacity);
+            guestName = Arrays.copyOf(guestName, capacity);
+            email = Arrays.copyOf(email, capacity);
+            version = Arrays.copyOf(version, capacity);
+            hotelName = Arrays.copyOf(hotelName, capacity);
+            checkIn = Arrays.copyOf(checkIn, capacity);
+            checkOut = Arrays.copyOf(checkOut, capacity);
+        }
+        return rowCount++;
+    }
+
+    private void writeRow(int row, Booking booking) {
+        if (!listeners.isEmpty()) pending.add(new BookingChange(live.get(row) ? materialize(row) : null, booking));
+        idMsb[row] = booking.id().getMostSignificantBits();
+        idLsb[row] = booking.id().getLeastSignificantBits();
+        hotelName[row] = hotels.encode(booking.hotelName());
+        boolean replacing = live.get(row);
+        guestName[row] = store(replacing, guestName[row], booking.guestName());
+        email[row] = store(replacing, email[row], booking.email());
+        checkIn[row] = (int) booking.checkIn().toEpochDay();
+        checkOut[row] = (int) booking.checkOut().toEpochDay();
+        version[row] = lastVersion = VersionedBooking.nextVersion();
+    }
+
+    private long store(boolean replacing, long ref, String value) {
+        if (!replacing) return strings.append(value);
+        if (value == null) {
+            strings.free(ref);
+            return OffHeapStringArena.NULL;
+        }
+        var bytes = OffHeapStringArena.encode(value);
+        if (strings.equalTo(ref, bytes)) return ref;
+        strings.free(ref);
+        return strings.append(bytes);
+    }
+
+    /**
+     * Copies the strings of the live rows into a new arena; readers are held off by the write lock.
+     */
+    private void compactStrings() {
+        var compacted = new OffHeapStringArena(arenaChunkSize);
+        for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+            guestName[row] = compacted.copy(strings, guestName[row]);
+            email[row] = compacted.copy(strings, email[row]);
+        }
+        strings = compacted;
+    }
+
+    private Booking materialize(int row) {
+        return new Booking(
+                new UUID(idMsb[row], idLsb[row]),
+                hotels.decode(hotelName[row]),
+                strings.get(guestName[row]),
+                strings.get(email[row]),
+                LocalDate.ofEpochDay(checkIn[row]),
+                LocalDate.ofEpochDay(checkOut[row]));
+    }
+
+    private interface RowPredicate {
+        boolean test(int row);
+    }
+
+    private static boolean test(RowPredicate[] predicates, int row) {
+        for (RowPredicate predicate : predicates)
+            if (!predicate.test(row)) return false;
+        return true;
+    }
+
+    private RowPredicate[] compileFilter(Map<String, DataFilter<?>> filter) {
+        var result = new RowPredicate[filter.size()];
+        int i = 0;
+        for (var kvp : filter.entrySet())
+            result[i++] = compile(kvp.getKey(), kvp.getValue());
+        return result;
+    }
+
+    private RowPredicate compile(String fieldName, DataFilter<?> dataFilter) {
+        return switch (dataFilter) {
+            case StringFilter sf when fieldName.equals("hotelName") -> compileHotel(sf);
+            case StringFilter sf -> {
+                var bytes = OffHeapStringArena.encode(sf.value());
+                boolean guest = switch (fieldName) {
+                    case "guestName" -> true;
+                    case "email" -> false;
+                    default -> throw new IllegalArgumentException("Unknown string field: " + fieldName);
+                };
+                yield switch (sf.operator()) {
+                    case EQ -> row -> strings.equalTo(guest ? guestName[row] : email[row], bytes);
+                    case NEQ -> row -> !strings.equalTo(guest ? guestName[row] : email[row], bytes);
+                    case IN -> row -> strings.contains(guest ? guestName[row] : email[row], bytes);
+                    default -> throw new IllegalArgumentException("Unsupported operator for string field: " + sf.operator());
+                };
+            }
+            case DateFilter df -> {
+                boolean in = switch (fieldName) {
+                    case "checkIn" -> true;
+                    case "checkOut" -> false;
+                    default -> throw new IllegalArgumentException("Unknown date field: " + fieldName);
+                };
+                long day = df.value().toEpochDay();
+                if (df.operator() == Operator.NEQ) yield row -> (in ? checkIn[row] : checkOut[row]) != day;
+
+                long min = switch (df.operator()) {
+                    case EQ, GTE -> day;
+                    case GT -> day + 1;
+                    case LT, LTE -> Long.MIN_VALUE;
+                    default -> throw new IllegalArgumentException("Unsupported operator for date field: " + df.operator());
+                };
+                long max = switch (df.operator()) {
+                    case EQ, LTE -> day;
+                    case LT -> day - 1;
+                    default -> Long.MAX_VALUE;
+                };
+                yield row -> {
+                    long value = in ? checkIn[row] : checkOut[row];
+                    return value >= min && value <= max;
+                };
+            }
+            case DateRangeFilter rf -> {
+                if (!fieldName.equals(DataExpressionParser.STAY)) throw new IllegalArgumentException("Unsupported date range field: " + fieldName);
+                long from = rf.value().from().toEpochDay(), to = rf.value().to().toEpochDay();
+                yield row -> checkIn[row] <= to && checkOut[row] >= from;
+            }
+            case UuidFilter uf -> {
+                if (!fieldName.equals("id")) throw new IllegalArgumentException("Unsupported UUID field: " + fieldName);
+                long msb = uf.value().getMostSignificantBits(), lsb = uf.value().getLeastSignificantBits();
+                boolean negate = uf.operator() == Operator.NEQ;
+                yield row -> (idMsb[row] == msb && idLsb[row] == lsb) != negate;
+            }
+        };
+    }
+
+    /**
+     * Hotel names are few, so filters on them are resolved against the dictionary once and rows only compare ids.
+     */
+    private RowPredicate compileHotel(StringFilter sf) {
+        return switch (sf.operator()) {
+            case EQ -> {
+                int id = hotels.lookup(sf.value());
+                yield row -> hotelName[row] == id && id != StringDictionary.NULL;
+            }
+            case NEQ -> {
+                int id = hotels.lookup(sf.value());
+                yield row -> hotelName[row] != id || id == StringDictionary.NULL;
+            }
+            case IN -> {
+                var matching = new boolean[hotels.size()];
+                for (int id = 0; id < matching.length; id++)
+                    matching[id] = hotels.decode(id).contains(sf.value());
+                yield row -> hotelName[row] != StringDictionary.NULL && matching[hotelName[row]];
+            }
+            default -> throw new IllegalArgumentException("Unsupported operator for string field: " + sf.operator());
+        };
+    }
+
+    /**
+     * @param key cursor key rows are compared to by {@link RowComparator#compareToKey}, may be {@code null}
+     */
+    private RowComparator compileSort(List<SortField> order, Booking key) {
+        var keys = new RowComparator[order.size()];
+        var signs = new int[order.size()];
+        for (int i = 0; i < keys.length; i++) {
+            var sf = order.get(i);
+            keys[i] = compileKey(sf.field(), key);
+            signs[i] = sf.ascending() ? 1 : -1;
+        }
+
+        return new RowComparator() {
+            @Override
+            public int compare(int row, int otherRow) {
+                for (int i = 0; i < keys.length; i++) {
+                    int c = keys[i].compare(row, otherRow);
+                    if (c != 0) return signs[i] * c;
+                }
+                return 0;
+            }
+
+            @Override
+            public int compareToKey(int row) {
+                for (int i = 0; i < keys.length; i++) {
+                    int c = keys[i].compareToKey(row);
+                    if (c != 0) return signs[i] * c;
+                }
+                return 0;
+            }
+        };
+    }
+
+    private RowComparator compileKey(String fieldName, Booking key) {
+        return switch (fieldName) {
+            case "id" -> {
+                long msb = key == null ? 0 : key.id().getMostSignificantBits();
+                long lsb = key == null ? 0 : key.id().getLeastSignificantBits();
+                yield new RowComparator() {
+                    @Override
+                    public int compare(int row, int otherRow) {
+                        int c = Long.compare(idMsb[row], idMsb[otherRow]);
+                        return c != 0 ? c : Long.compare(idLsb[row], idLsb[otherRow]);
+                    }
+
+                    @Override
+                    public int compareToKey(int row) {
+                        int c = Long.compare(idMsb[row], msb);
+                        return c != 0 ? c : Long.compare(idLsb[row], lsb);
+                    }
+                };
+            }
+            case "hotelName" -> {
+                var ranks = hotels.ranks();
+                // doubled ranks leave room for a cursor value that is no longer in the dictionary
+                int keyRank = key == null ? 0 : key.hotelName() == null ? Integer.MAX_VALUE : hotels.rankOf(key.hotelName(), ranks);
+                yield new RowComparator() {
+                    @Override
+                    public int compare(int row, int otherRow) {
+                        return Integer.compare(ranks[hotelName[row]], ranks[hotelName[otherRow]]);
+                    }
+
+                    @Override
+                    public int compareToKey(int row) {
+                        return Integer.compare(2 * ranks[hotelName[row]], keyRank);
+                    }
+                };
+            }
+            case "guestName", "email" -> {
+                var column = fieldName.equals("guestName") ? guestName : email;
+                var value = key == null ? null : Booking.<String>getFieldAccessor(fieldName).apply(key);
+                var bytes = value == null ? null : OffHeapStringArena.encode(value);
+                yield new RowComparator() {
+                    @Override
+                    public int compare(int row, int otherRow) {
+                        return strings.compare(column[row], column[otherRow]);
+                    }
+
+                    @Override
+                    public int compareToKey(int row) {
+                        return strings.compare(column[row], bytes);
+                    }
+                };
+            }
+            case "checkIn", "checkOut" -> {
+                var column = fieldName.equals("checkIn") ? checkIn : checkOut;
+                var value = key == null ? null : Booking.<LocalDate>getFieldAccessor(fieldName).apply(key);
+                long day = value == null ? Long.MAX_VALUE : value.toEpochDay();
+                yield new RowComparator() {
+                    @Override
+                    public int compare(int row, int otherRow) {
+                        return Integer.compare(column[row], column[otherRow]);
+                    }
+
+                    @Override
+                    public int compareToKey(int row) {
+                        return Long.compare(column[row], day);
+                    }
+                };
+            }
+            default -> throw new IllegalArgumentException("Unknown sort field: " + fieldName);
+        };
+    }
+}
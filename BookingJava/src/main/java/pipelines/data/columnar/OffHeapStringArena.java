@@ -0,0 +1,169 @@
+package pipelines.data.columnar;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only UTF-8 string storage in direct (off-heap) chunks. A string is addressed by a {@code long}
+ * reference holding the chunk index in the high and the offset in the low 32 bits; entries are a length prefix
+ * followed by the bytes. Strings are never moved; {@link #free} only counts their space as dead, and the owner
+ * copies the live ones into a new arena once {@link #wasteful()}.
+ * <p>
+ * Not thread-safe for writes; readers only use absolute reads and may run concurrently with each other.
+ */
+final class OffHeapStringArena {
+    static final long NULL = -1L;
+
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int position;
+    private long liveBytes, deadBytes;
+
+    OffHeapStringArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    long append(String value) {
+        return value == null ? NULL : append(encode(value));
+    }
+
+    long append(byte[] bytes) {
+        int needed = Integer.BYTES + bytes.length;
+        if (needed > chunkSize) throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+
+        if (chunks.isEmpty() || position + needed > chunkSize) {
+            chunks.add(ByteBuffer.allocateDirect(chunkSize));
+            position = 0;
+        }
+        var chunk = chunks.getLast();
+        chunk.putInt(position, bytes.length);
+        chunk.put(position + Integer.BYTES, bytes);
+
+        long ref = ((long) (chunks.size() - 1) << 32) | position;
+        position += needed;
+        liveBytes += needed;
+        return ref;
+    }
+
+    /**
+     * @return reference of a copy of the string at {@code ref} in {@code other}
+     */
+    long copy(OffHeapStringArena other, long ref) {
+        if (ref == NULL) return NULL;
+        var chunk = other.chunk(ref);
+        int offset = offset(ref);
+        var bytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + Integer.BYTES, bytes);
+        return append(bytes);
+    }
+
+    /**
+     * Marks the string at {@code ref} as no longer referenced.
+     */
+    void free(long ref) {
+        if (ref == NULL) return;
+        int size = Integer.BYTES + chunk(ref).getInt(offset(ref));
+        liveBytes -= size;
+        deadBytes += size;
+    }
+
+    /**
+     * @return whether freed strings take more than a chunk and more space than the live ones, so copying the live
+     * strings costs no more than the space it reclaims
+     */
+    boolean wasteful() {
+        return deadBytes > chunkSize && deadBytes > liveBytes;
+    }
+
+    String get(long ref) {
+        if (ref == NULL) return null;
+        var chunk = chunk(ref);
+        int offset = offset(ref);
+        var bytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    boolean equalTo(long ref, byte[] value) {
+        if (ref == NULL) return false;
+        var chunk = chunk(ref);
+        int offset = offset(ref);
+        if (chunk.getInt(offset) != value.length) return false;
+        int start = offset + Integer.BYTES;
+        for (int i = 0; i < value.length; i++)
+            if (chunk.get(start + i) != value[i]) return false;
+        return true;
+    }
+
+    /**
+     * Byte-level substring search; UTF-8 is self-synchronizing, so it matches exactly when {@link String#contains} would.
+     */
+    boolean contains(long ref, byte[] needle) {
+        if (ref == NULL) return false;
+        var chunk = chunk(ref);
+        int offset = offset(ref);
+        int length = chunk.getInt(offset);
+        int start = offset + Integer.BYTES;
+
+        outer:
+        for (int i = 0; i <= length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++)
+                if (chunk.get(start + i + j) != needle[j]) continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Compares as unsigned bytes, which for UTF-8 is code point order. Nulls sort last.
+     */
+    int compare(long ref, long otherRef) {
+        if (ref == otherRef) return 0;
+        if (ref == NULL) return 1;
+        if (otherRef == NULL) return -1;
+
+        var a = chunk(ref);
+        var b = chunk(otherRef);
+        int offsetA = offset(ref), offsetB = offset(otherRef);
+        int lengthA = a.getInt(offsetA), lengthB = b.getInt(offsetB);
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(a.get(offsetA + Integer.BYTES + i) & 0xff, b.get(offsetB + Integer.BYTES + i) & 0xff);
+            if (c != 0) return c;
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    int compare(long ref, byte[] value) {
+        if (ref == NULL) return value == null ? 0 : 1;
+        if (value == null) return -1;
+
+        var chunk = chunk(ref);
+        int offset = offset(ref);
+        int length = chunk.getInt(offset);
+        int n = Math.min(length, value.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(chunk.get(offset + Integer.BYTES + i) & 0xff, value[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return Integer.compare(length, value.length);
+    }
+
+    long bytesAllocated() {
+        return (long) chunks.size() * chunkSize;
+    }
+
+    private ByteBuffer chunk(long ref) {
+        return chunks.get((int) (ref >>> 32));
+    }
+
+    private static int offset(long ref) {
+        return (int) ref;
+    }
+}
@@ -0,0 +1,13 @@
+package pipelines.data.columnar;
+
+/**
+ * Orders rows of the columnar store without materializing them.
+ */
+interface RowComparator {
+    int compare(int row, int otherRow);
+
+    /**
+     * Compares a row with the keyset cursor position the comparator was built for.
+     */
+    int compareToKey(int row);
+}
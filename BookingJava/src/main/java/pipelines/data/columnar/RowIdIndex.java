@@ -0,0 +1,99 @@
+package pipelines.data.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from a UUID, stored as its two halves, to a row number.
+ */
+final class RowIdIndex {
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+
+    private long[] msb;
+    private long[] lsb;
+    private int[] rows;
+    private int size;
+    private int used;
+
+    RowIdIndex(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        msb = new long[capacity];
+        lsb = new long[capacity];
+        rows = new int[capacity];
+        Arrays.fill(rows, EMPTY);
+        size = 0;
+        used = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(long mostSigBits, long leastSigBits) {
+        int mask = rows.length - 1;
+        for (int i = slot(mostSigBits, leastSigBits, mask); ; i = (i + 1) & mask) {
+            int row = rows[i];
+            if (row == EMPTY) return EMPTY;
+            if (row != DELETED && msb[i] == mostSigBits && lsb[i] == leastSigBits) return row;
+        }
+    }
+
+    void put(long mostSigBits, long leastSigBits, int row) {
+        if ((used + 1) * 3 > rows.length * 2) rehash();
+
+        int mask = rows.length - 1;
+        int firstDeleted = -1;
+        for (int i = slot(mostSigBits, leastSigBits, mask); ; i = (i + 1) & mask) {
+            int current = rows[i];
+            if (current == EMPTY) {
+                int target = firstDeleted >= 0 ? firstDeleted : i;
+                if (firstDeleted < 0) used++;
+                msb[target] = mostSigBits;
+                lsb[target] = leastSigBits;
+                rows[target] = row;
+                size++;
+                return;
+            }
+            if (current == DELETED) {
+                if (firstDeleted < 0) firstDeleted = i;
+            } else if (msb[i] == mostSigBits && lsb[i] == leastSigBits) {
+                rows[i] = row;
+                return;
+            }
+        }
+    }
+
+    int remove(long mostSigBits, long leastSigBits) {
+        int mask = rows.length - 1;
+        for (int i = slot(mostSigBits, leastSigBits, mask); ; i = (i + 1) & mask) {
+            int row = rows[i];
+            if (row == EMPTY) return EMPTY;
+            if (row != DELETED && msb[i] == mostSigBits && lsb[i] == leastSigBits) {
+                rows[i] = DELETED;
+                size--;
+                return row;
+            }
+        }
+    }
+
+    private void rehash() {
+        var oldMsb = msb;
+        var oldLsb = lsb;
+        var oldRows = rows;
+        // grow only when live entries need it, otherwise just drop the tombstones
+        allocate(size * 3 >= oldRows.length ? oldRows.length * 2 : oldRows.length);
+        for (int i = 0; i < oldRows.length; i++)
+            if (oldRows[i] >= 0) put(oldMsb[i], oldLsb[i], oldRows[i]);
+    }
+
+    private static int slot(long mostSigBits, long leastSigBits, int mask) {
+        long h = (mostSigBits * 0x9E3779B97F4A7C15L) ^ leastSigBits;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,93 @@
+package pipelines.data.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Sorting of primitive row numbers: a stable merge sort for full results and a bounded max-heap
+ * for top-k selection, so neither path boxes rows into {@code Integer}s.
+ */
+final class RowSorter {
+    private RowSorter() {}
+
+    static void sort(int[] rows, int length, RowComparator comparator) {
+        if (length < 2) return;
+        var buffer = Arrays.copyOf(rows, length);
+        mergeSort(buffer, rows, 0, length, comparator);
+    }
+
+    // sorts source[from, to) into target[from, to); both arrays start with identical content
+    private static void mergeSort(int[] source, int[] target, int from, int to, RowComparator comparator) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = target[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(target[j], row) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = row;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(target, source, from, mid, comparator);
+        mergeSort(target, source, mid, to, comparator);
+
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            if (r >= to || (l < mid && comparator.compare(source[l], source[r]) <= 0)) target[i] = source[l++];
+            else target[i] = source[r++];
+        }
+    }
+
+    /**
+     * @return the {@code k} smallest rows in sorted order
+     */
+    static int[] topK(int[] rows, int length, int k, RowComparator comparator) {
+        if (k >= length) {
+            var result = Arrays.copyOf(rows, length);
+            sort(result, length, comparator);
+            return result;
+        }
+
+        // max-heap: the root is the worst of the rows kept so far
+        var heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < length && k > 0; i++) {
+            int row = rows[i];
+            if (size < k) {
+                heap[size] = row;
+                siftUp(heap, size++, comparator);
+            } else if (comparator.compare(row, heap[0]) < 0) {
+                heap[0] = row;
+                siftDown(heap, size, comparator);
+            }
+        }
+        sort(heap, size, comparator);
+        return heap;
+    }
+
+    private static void siftUp(int[] heap, int index, RowComparator comparator) {
+        int row = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (comparator.compare(heap[parent], row) >= 0) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = row;
+    }
+
+    private static void siftDown(int[] heap, int size, RowComparator comparator) {
+        int row = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) break;
+            if (child + 1 < size && comparator.compare(heap[child + 1], heap[child]) > 0) child++;
+            if (comparator.compare(heap[child], row) <= 0) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = row;
+    }
+}
@@ -0,0 +1,68 @@
+package pipelines.data.columnar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding for low-cardinality strings. Ids are dense and never reused.
+ */
+final class StringDictionary {
+    static final int NULL = -1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    int encode(String value) {
+        if (value == null) return NULL;
+        return ids.computeIfAbsent(value, v -> {
+            values.add(v);
+            return values.size() - 1;
+        });
+    }
+
+    /**
+     * @return id of an existing value or {@link #NULL} when the value was never encoded
+     */
+    int lookup(String value) {
+        var id = ids.get(value);
+        return id == null ? NULL : id;
+    }
+
+    String decode(int id) {
+        return id == NULL ? null : values.get(id);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * @return for every id its rank in the sorted order of the values
+     */
+    int[] ranks() {
+        var order = new Integer[values.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> values.get(a).compareTo(values.get(b)));
+
+        var ranks = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) ranks[order[rank]] = rank;
+        return ranks;
+    }
+
+    /**
+     * Rank a value that may not be in the dictionary would have: exact ranks are doubled,
+     * values falling between two entries get the odd number in between.
+     */
+    int rankOf(String value, int[] ranks) {
+        int id = lookup(value);
+        if (id != NULL) return 2 * ranks[id];
+
+        int below = 0;
+        for (String existing : values)
+            if (existing.compareTo(value) < 0) below++;
+        return 2 * below - 1;
+    }
+}
@@ -0,0 +1,42 @@
+package pipelines.data.journal;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * When appended journal records are forced to disk.
+ */
+public sealed interface FsyncPolicy {
+    /**
+     * Every append is forced before it returns; writers are serialized on the fsync.
+     */
+    record PerWrite() implements FsyncPolicy {}
+
+    /**
+     * Group commit: a background flusher forces everything appended so far in one fsync
+     * and writers wait until their record is covered by it.
+     */
+    record Batch() implements FsyncPolicy {}
+
+    /**
+     * The flusher forces on a fixed interval and writers do not wait, so up to one interval of writes can be lost.
+     */
+    record Interval(Duration period) implements FsyncPolicy {
+        public Interval {
+            Objects.requireNonNull(period, "period");
+            if (period.isNegative() || period.isZero()) throw new IllegalArgumentException("period must be positive");
+        }
+    }
+
+    static FsyncPolicy perWrite() {
+        return new PerWrite();
+    }
+
+    static FsyncPolicy batch() {
+        return new Batch();
+    }
+
+    static FsyncPolicy interval(Duration period) {
+        return new Interval(period);
+    }
+}
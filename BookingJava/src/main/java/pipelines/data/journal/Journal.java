@@ -0,0 +1,362 @@
+package pipelines.data.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only write-ahead log in a memory-mapped file. The file is mapped in fixed-size regions; a record is
+ * an {@code int} payload length, a CRC32 of the payload and the payload itself, and never spans two regions.
+ * <p>
+ * Positions in the file serve as log sequence numbers: {@link #append} returns the position right after the record
+ * and {@link #awaitDurable} blocks until everything before a position has been forced to disk. How and when that
+ * happens is decided by the {@link FsyncPolicy}; with {@link FsyncPolicy.Batch} concurrent writers share one fsync.
+ * <p>
+ * On open the log is scanned up to the first incomplete or corrupt record, which is where a crash left it,
+ * and anything after that point is discarded.
+ */
+@lombok.extern.slf4j.Slf4j
+public final class Journal implements AutoCloseable {
+    static final int DEFAULT_REGION_SIZE = 64 << 20;
+    private static final int MIN_REGION_SIZE = 4096;
+    private static final int MAGIC = 0x424b4a31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    // written where a record did not fit into the rest of its region
+    private static final int SKIP = -1;
+
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final int regionSize;
+    private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition forced = lock.newCondition();
+    private final Thread flusher;
+
+    private long position;
+    private long durable;
+    private RuntimeException failure;
+    private boolean closed;
+
+    public Journal(Path file, FsyncPolicy policy) throws IOException {
+        this(file, policy, DEFAULT_REGION_SIZE);
+    }
+
+    public Journal(Path file, FsyncPolicy policy, int regionSize) throws IOException {
+        this(file, policy, regionSize, HEADER_SIZE);
+    }
+
+    /**
+     * @param regionSize  size of the mapped regions for a new file; an existing file keeps the size it was created with
+     * @param recoverFrom position of a record boundary known to be intact, such as the one a snapshot was taken at;
+     *                    the search for the end of the log starts there instead of at the first record
+     */
+    public Journal(Path file, FsyncPolicy policy, int regionSize, long recoverFrom) throws IOException {
+        if (regionSize < MIN_REGION_SIZE) throw new IllegalArgumentException("regionSize must be at least " + MIN_REGION_SIZE);
+        this.policy = policy;
+        this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+        try {
+            if (channel.size() == 0) {
+                this.regionSize = regionSize;
+                region(0).putInt(0, MAGIC).putInt(4, VERSION).putInt(8, regionSize);
+                position = HEADER_SIZE;
+                force(0, HEADER_SIZE);
+            } else {
+                var header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                    throw new IOException("Not a booking journal: " + file);
+                this.regionSize = header.getInt(8);
+                if (recoverFrom < HEADER_SIZE || recoverFrom > channel.size())
+                    throw new IOException("Journal %s has no record at position %d".formatted(file, recoverFrom));
+                position = forEachRecord(recoverFrom, null);
+                discardAfter(position);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        durable = position;
+        flusher = policy instanceof FsyncPolicy.PerWrite
+                ? null
+                : Thread.ofPlatform().daemon().name("journal-flusher").start(this::flushLoop);
+    }
+
+    /**
+     * @return position after the last appended record
+     */
+    public long position() {
+        lock.lock();
+        try {
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Position of the first record, where a full replay starts.
+     */
+    public long start() {
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Appends the entry to the log. Whether it is already durable on return depends on the fsync policy;
+     * use {@link #awaitDurable} with the returned position before acknowledging the write.
+     *
+     * @return position right after the record
+     */
+    public long append(JournalEntry entry) {
+        return appendRecord(JournalCodec.encode(entry));
+    }
+
+    /**
+     * Appends an opaque record, for logs of something other than booking writes; see {@link #append(JournalEntry)}.
+     */
+    public long appendRecord(byte[] payload) {
+        var crc = new CRC32();
+        crc.update(payload);
+        int size = RECORD_HEADER_SIZE + payload.length;
+        if (size > regionSize - HEADER_SIZE) throw new IllegalArgumentException("Journal record too large: " + size + " bytes");
+
+        lock.lock();
+        try {
+            if (closed) throw new IllegalStateException("Journal is closed");
+            if (failure != null) throw failure;
+
+            int offset = offset(position);
+            if (regionSize - offset < size) {
+                if (regionSize - offset >= Integer.BYTES) region(regionIndex(position)).putInt(offset, SKIP);
+                position = nextRegion(position);
+                offset = 0;
+            }
+            var region = region(regionIndex(position));
+            region.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            region.put(offset + RECORD_HEADER_SIZE, payload);
+            region.putInt(offset, payload.length);
+            position += size;
+
+            if (flusher == null) {
+                force(durable, position);
+                durable = position;
+            } else if (policy instanceof FsyncPolicy.Batch) appended.signal();
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal append failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything before {@code position} is on disk. With {@link FsyncPolicy.Interval}
+     * writers are not held back and this returns immediately.
+     */
+    public void awaitDurable(long position) {
+        if (policy instanceof FsyncPolicy.Interval) return;
+
+        lock.lock();
+        try {
+            while (durable < position) {
+                if (failure != null) throw failure;
+                forced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk regardless of the fsync policy.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (failure != null) throw failure;
+            long to = position;
+            force(durable, to);
+            durable = to;
+            forced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decodes the records starting at {@code from} in log order.
+     *
+     * @return position after the last record
+     */
+    public long replay(long from, Consumer<JournalEntry> action) {
+        return replayRecords(from, payload -> action.accept(JournalCodec.decode(payload)));
+    }
+
+    /**
+     * Hands the payload of each record starting at {@code from} to {@code action}, in log order.
+     *
+     * @return position after the last record
+     */
+    public long replayRecords(long from, Consumer<ByteBuffer> action) {
+        lock.lock();
+        try {
+            return forEachRecord(from, action);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal replay failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (flusher != null) flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushLoop() {
+        long interval = policy instanceof FsyncPolicy.Interval(var period) ? period.toNanos() : 0;
+        while (true) {
+            long from, to;
+            lock.lock();
+            try {
+                if (interval > 0) {
+                    long deadline = System.nanoTime() + interval;
+                    for (long remaining = interval; !closed && remaining > 0; remaining = deadline - System.nanoTime())
+                        appended.awaitNanos(remaining);
+                } else {
+                    while (!closed && position == durable) appended.awaitUninterruptibly();
+                }
+                if (position == durable) {
+                    if (closed) return;
+                    continue;
+                }
+                from = durable;
+                to = position;
+            } catch (InterruptedException e) {
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            // appends go on while the pages are forced; the next round picks them up together
+            RuntimeException error = null;
+            try {
+                force(from, to);
+            } catch (RuntimeException e) {
+                log.error("Journal fsync failed", e);
+                error = e instanceof UncheckedIOException ? e : new UncheckedIOException(new IOException(e));
+            }
+
+            lock.lock();
+            try {
+                if (error != null) failure = error;
+                else durable = Math.max(durable, to);
+                forced.signalAll();
+                if (error != null) return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private long forEachRecord(long from, Consumer<ByteBuffer> action) throws IOException {
+        long pos = from;
+        long size = channel.size();
+        var crc = new CRC32();
+        while (pos < size) {
+            int offset = offset(pos);
+            if (regionSize - offset < RECORD_HEADER_SIZE) {
+                pos = nextRegion(pos);
+                continue;
+            }
+            var region = region(regionIndex(pos));
+            int length = region.getInt(offset);
+            if (length == SKIP) {
+                pos = nextRegion(pos);
+                continue;
+            }
+            if (length <= 0 || length > regionSize - offset - RECORD_HEADER_SIZE) break;
+
+            var payload = region.slice(offset + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != region.getInt(offset + Integer.BYTES)) break;
+
+            if (action != null) action.accept(payload);
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        return pos;
+    }
+
+    /**
+     * Zeroes the torn tail of the current region and drops later regions, so stale bytes are never taken for records.
+     */
+    private void discardAfter(long end) throws IOException {
+        int index = regionIndex(end);
+        if ((long) index * regionSize < channel.size()) {
+            var region = region(index);
+            int i = offset(end);
+            for (; i + Long.BYTES <= regionSize; i += Long.BYTES)
+                if (region.getLong(i) != 0) region.putLong(i, 0);
+            for (; i < regionSize; i++) region.put(i, (byte) 0);
+            region.force();
+        }
+        while (regions.size() > index + 1) regions.removeLast();
+        if (channel.size() > (long) (index + 1) * regionSize) channel.truncate((long) (index + 1) * regionSize);
+    }
+
+    private MappedByteBuffer region(int index) throws IOException {
+        while (regions.size() <= index)
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) regions.size() * regionSize, regionSize));
+        return regions.get(index);
+    }
+
+    private void force(long from, long to) {
+        if (from >= to) return;
+        for (int i = regionIndex(from); i <= regionIndex(to - 1); i++) {
+            long start = Math.max(from, (long) i * regionSize);
+            long end = Math.min(to, (long) (i + 1) * regionSize);
+            regions.get(i).force(offset(start), (int) (end - start));
+        }
+    }
+
+    private int regionIndex(long pos) {
+        return (int) (pos / regionSize);
+    }
+
+    private int offset(long pos) {
+        return (int) (pos % regionSize);
+    }
+
+    private long nextRegion(long pos) {
+        return (long) (regionIndex(pos) + 1) * regionSize;
+    }
+}
@@ -0,0 +1,72 @@
+package pipelines.data.journal;
+
+import pipelines.domain.Booking;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Binary layout of a journal entry: operation byte, id as two longs and, unless it is a delete, the three
+ * strings as unsigned-short length prefixed UTF-8 followed by both dates as epoch days.
+ */
+final class JournalCodec {
+    private static final JournalEntry.Operation[] OPERATIONS = JournalEntry.Operation.values();
+
+    private JournalCodec() {}
+
+    static byte[] encode(JournalEntry entry) {
+        var booking = entry.booking();
+        if (booking == null) {
+            return ByteBuffer.allocate(1 + 2 * Long.BYTES)
+                    .put((byte) entry.operation().ordinal())
+                    .putLong(entry.id().getMostSignificantBits())
+                    .putLong(entry.id().getLeastSignificantBits())
+                    .array();
+        }
+
+        byte[] hotelName = bytes(booking.hotelName());
+        byte[] guestName = bytes(booking.guestName());
+        byte[] email = bytes(booking.email());
+        int size = 1 + 2 * Long.BYTES + 3 * Short.BYTES + hotelName.length + guestName.length + email.length + 2 * Integer.BYTES;
+
+        var buffer = ByteBuffer.allocate(size)
+                .put((byte) entry.operation().ordinal())
+                .putLong(entry.id().getMostSignificantBits())
+                .putLong(entry.id().getLeastSignificantBits());
+        putString(buffer, hotelName);
+        putString(buffer, guestName);
+        putString(buffer, email);
+        return buffer
+                .putInt((int) booking.checkIn().toEpochDay())
+                .putInt((int) booking.checkOut().toEpochDay())
+                .array();
+    }
+
+    static JournalEntry decode(ByteBuffer buffer) {
+        var operation = OPERATIONS[buffer.get()];
+        var id = new UUID(buffer.getLong(), buffer.getLong());
+        if (operation == JournalEntry.Operation.DELETE) return JournalEntry.delete(id);
+
+        var booking = new Booking(id, getString(buffer), getString(buffer), getString(buffer),
+                LocalDate.ofEpochDay(buffer.getInt()), LocalDate.ofEpochDay(buffer.getInt()));
+        return new JournalEntry(operation, id, booking);
+    }
+
+    private static byte[] bytes(String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) throw new IllegalArgumentException("Value too long to journal: " + bytes.length + " bytes");
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length).put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        var bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,40 @@
+package pipelines.data.journal;
+
+import pipelines.data.BookingRepository;
+import pipelines.domain.Booking;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * One logged repository write. Patches are logged with the booking they produced, so replaying them
+ * does not depend on the merge rules that were in place when they were written.
+ *
+ * @param booking written booking, {@code null} for deletes
+ */
+public record JournalEntry(Operation operation, UUID id, Booking booking) {
+    public enum Operation {ADD, UPDATE, PATCH, DELETE}
+
+    public JournalEntry {
+        Objects.requireNonNull(operation, "operation");
+        Objects.requireNonNull(id, "id");
+        if ((booking == null) != (operation == Operation.DELETE))
+            throw new IllegalArgumentException("Only deletes are logged without a booking");
+    }
+
+    static JournalEntry of(Operation operation, Booking booking) {
+        return new JournalEntry(operation, booking.id(), booking);
+    }
+
+    static JournalEntry delete(UUID id) {
+        return new JournalEntry(Operation.DELETE, id, null);
+    }
+
+    public void applyTo(BookingRepository repository) {
+        switch (operation) {
+            case ADD -> repository.add(booking);
+            case UPDATE, PATCH -> repository.update(booking);
+            case DELETE -> repository.delete(id);
+        }
+    }
+}
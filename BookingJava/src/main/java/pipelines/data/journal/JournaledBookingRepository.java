@@ -0,0 +1,418 @@
+package pipelines.data.journal;
+
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Makes any {@link BookingRepository} durable by logging every write to a {@link Journal} before applying it.
+ * The journal is replayed into the delegate on construction, so the delegate should start empty.
+ * <p>
+ * Writes are logged and applied under one short lock, which keeps the log order identical to the order the
+ * delegate saw; waiting for the fsync happens after the lock is released, so concurrent writers share it.
+ * Readers may observe a write shortly before it is durable, but the writer is only acknowledged afterward.
+ * <p>
+ * With a {@link SnapshotStore} the repository is periodically written out in the background, and recovery
+ * loads the newest snapshot and replays only the journal written after it. Every snapshot starts a new journal
+ * segment, and segments written before the oldest retained snapshot are deleted, so the journal on disk only
+ * covers what the snapshots do not. Positions count on from one segment to the next.
+ */
+@lombok.extern.slf4j.Slf4j
+public class JournaledBookingRepository implements BookingRepository, AutoCloseable {
+    // the single journal file written before segments, taken over as the segment at position 0
+    static final String JOURNAL_FILE = "bookings.journal";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("bookings-([0-9a-f]{16})\\.journal");
+
+    /**
+     * @param base position of the segment's own file position 0, so a record at file position {@code p} is at {@code base + p}
+     */
+    private record Segment(Journal journal, long base) {}
+
+    private final BookingRepository delegate;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final SnapshotStore snapshots;
+    private final Path directory;
+    private final FsyncPolicy policy;
+    private final ScheduledExecutorService scheduler;
+    private volatile Segment segment;
+    private volatile long snapshotPosition;
+
+    public JournaledBookingRepository(BookingRepository delegate, Journal journal) {
+        this(delegate, new Segment(journal, 0), journal.start(), null, null, null, null);
+        replay(delegate, journal, journal.start());
+    }
+
+    private JournaledBookingRepository(BookingRepository delegate, Segment segment, long snapshotPosition,
+                                       SnapshotStore snapshots, Path directory, FsyncPolicy policy, Duration snapshotInterval) {
+        this.delegate = delegate;
+        this.segment = segment;
+        this.snapshots = snapshots;
+        this.directory = directory;
+        this.policy = policy;
+        this.snapshotPosition = snapshotPosition;
+
+        if (snapshots == null) scheduler = null;
+        else {
+            scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("booking-snapshots").factory());
+            scheduler.scheduleWithFixedDelay(this::snapshotInBackground, snapshotInterval.toNanos(), snapshotInterval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void replay(BookingRepository delegate, Journal journal, long from) {
+        long started = System.nanoTime();
+        var replayed = new long[1];
+        journal.replay(from, entry -> {
+            entry.applyTo(delegate);
+            replayed[0]++;
+        });
+        log.info("Replayed {} journal entries in {} ms", replayed[0], (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Recovers {@code delegate} from the journal and snapshots in {@code directory}: the newest readable snapshot
+     * is loaded and only journal entries written after it are replayed. New snapshots are taken every {@code snapshotInterval}.
+     */
+    public static JournaledBookingRepository open(BookingRepository delegate, Path directory, FsyncPolicy policy,
+                                                  Duration snapshotInterval) throws IOException {
+        var snapshots = new SnapshotStore(directory);
+        long replayFrom = -1;
+        for (var snapshot : snapshots.list()) {
+            long started = System.nanoTime();
+            try {
+                var blocks = snapshots.load(snapshot);
+                long decoded = System.nanoTime();
+                delegate.load(blocks);
+                log.info("Loaded {} bookings from {} in {} ms (decode {} ms, apply {} ms)",
+                        blocks.stream().mapToLong(List::size).sum(), snapshot.file().getFileName(), (System.nanoTime() - started) / 1_000_000,
+                        (decoded - started) / 1_000_000, (System.nanoTime() - decoded) / 1_000_000);
+                replayFrom = snapshot.position();
+                break;
+            } catch (IOException e) {
+                // nothing was applied yet, so an older snapshot or the full journal can still be used
+                log.warn("Skipping unreadable snapshot {}: {}", snapshot.file(), e.getMessage());
+            }
+        }
+
+        var legacy = directory.resolve(JOURNAL_FILE);
+        if (Files.exists(legacy)) Files.move(legacy, segmentFile(directory, 0));
+        var bases = segmentBases(directory);
+        if (bases.isEmpty()) bases = List.of(0L);
+        // the snapshot position lies after the start of the segment holding it
+        int first = 0;
+        if (replayFrom >= 0) while (first + 1 < bases.size() && bases.get(first + 1) < replayFrom) first++;
+
+        Segment current = null;
+        for (int i = first; i < bases.size(); i++) {
+            boolean last = i == bases.size() - 1;
+            long base = bases.get(i);
+            // only the last segment is appended to; the earlier ones are complete and just read
+            var segmentPolicy = last ? policy : FsyncPolicy.perWrite();
+            var journal = i == first && replayFrom >= 0
+                    ? new Journal(segmentFile(directory, base), segmentPolicy, Journal.DEFAULT_REGION_SIZE, replayFrom - base)
+                    : new Journal(segmentFile(directory, base), segmentPolicy);
+            try {
+                replay(delegate, journal, i == first && replayFrom >= 0 ? replayFrom - base : journal.start());
+            } catch (RuntimeException e) {
+                journal.close();
+                throw e;
+            }
+            if (last) current = new Segment(journal, base);
+            else journal.close();
+        }
+        return new JournaledBookingRepository(delegate, current, replayFrom < 0 ? current.base() + current.journal().start() : replayFrom,
+                snapshots, directory, policy, snapshotInterval);
+    }
+
+    private static Path segmentFile(Path directory, long base) {
+        return directory.resolve("bookings-%016x.journal".formatted(base));
+    }
+
+    private static List<Long> segmentBases(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> SEGMENT_NAME.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseUnsignedLong(matcher.group(1), 16))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current content and starts a new journal segment at it. Writers are held back only
+     * while the segment is switched and a view of the delegate is captured; with
+     * {@link pipelines.data.InMemoryBookingRepository} that view is an immutable snapshot, so the file is written
+     * while writes go on. Once it is written, the segments before the oldest retained snapshot are deleted.
+     *
+     * @return the written snapshot or {@code null} when nothing was written since the last one
+     */
+    public synchronized SnapshotStore.Snapshot snapshot() throws IOException {
+        if (snapshots == null) throw new IllegalStateException("No snapshot store configured");
+
+        long position;
+        Stream<Booking> bookings;
+        Journal previous;
+        writeLock.lock();
+        try {
+            var current = segment;
+            long end = current.base() + current.journal().position();
+            if (end == snapshotPosition) return null;
+            // writers waiting for a position before the new segment take it as durable, see awaitDurable
+            current.journal().flush();
+            var next = new Segment(new Journal(segmentFile(directory, end), policy), end);
+            segment = next;
+            previous = current.journal();
+            position = next.base() + next.journal().start();
+            bookings = delegate.stream(null, null, Page.ALL);
+        } finally {
+            writeLock.unlock();
+        }
+        previous.close();
+
+        long started = System.nanoTime();
+        var snapshot = snapshots.write(position, bookings);
+        snapshotPosition = position;
+        log.info("Wrote {} in {} ms", snapshot.file().getFileName(), (System.nanoTime() - started) / 1_000_000);
+
+        var bases = segmentBases(directory);
+        long oldest = snapshots.list().getLast().position();
+        for (int i = 0; i + 1 < bases.size() && bases.get(i + 1) < oldest; i++)
+            Files.delete(segmentFile(directory, bases.get(i)));
+        return snapshot;
+    }
+
+    // called under the write lock
+    private long append(JournalEntry entry) {
+        var current = segment;
+        return current.base() + current.journal().append(entry);
+    }
+
+    private void awaitDurable(long position) {
+        var current = segment;
+        // earlier segments were forced before the current one was started
+        if (position > current.base()) current.journal().awaitDurable(position - current.base());
+    }
+
+    private void snapshotInBackground() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Snapshot failed", e);
+        }
+    }
+
+    @Override
+    public UUID getNextId() {
+        return delegate.getNextId();
+    }
+
+    @Override
+    public void add(Booking booking) {
+        booking.validate();
+        long position;
+        writeLock.lock();
+        try {
+            position = append(JournalEntry.of(JournalEntry.Operation.ADD, booking));
+            delegate.add(booking);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+    }
+
+    /**
+     * All bookings are logged and applied under one lock acquisition, and their fsync is awaited once.
+     */
+    @Override
+    public void addAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        long position = -1;
+        writeLock.lock();
+        try {
+            for (var booking : bookings) position = append(JournalEntry.of(JournalEntry.Operation.ADD, booking));
+            delegate.addAll(bookings);
+        } finally {
+            writeLock.unlock();
+        }
+        if (position >= 0) awaitDurable(position);
+    }
+
+    /**
+     * The version is checked under the write lock, so a conflicting write is never logged.
+     */
+    @Override
+    public boolean update(Booking booking, long expectedVersion) {
+        booking.validate();
+        long position;
+        writeLock.lock();
+        try {
+            var current = delegate.getVersioned(booking.id());
+            if (current == null) return false;
+            VersionConflictException.check(booking.id(), expectedVersion, current.version());
+            position = append(JournalEntry.of(JournalEntry.Operation.UPDATE, booking));
+            delegate.update(booking);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean[] updateAll(List<Booking> bookings) {
+        bookings.forEach(Booking::validate);
+        var updated = new boolean[bookings.size()];
+        var existing = new ArrayList<Booking>(bookings.size());
+        long position = -1;
+        writeLock.lock();
+        try {
+            var old = delegate.getByIds(bookings.stream().map(Booking::id).toList());
+            for (int i = 0; i < updated.length; i++) {
+                if (old.get(i) == null) continue;
+                updated[i] = true;
+                existing.add(bookings.get(i));
+                position = append(JournalEntry.of(JournalEntry.Operation.UPDATE, bookings.get(i)));
+            }
+            delegate.updateAll(existing);
+        } finally {
+            writeLock.unlock();
+        }
+        if (position >= 0) awaitDurable(position);
+        return updated;
+    }
+
+    @Override
+    public boolean patch(UUID bookingId, Map<?, ?> fields, long expectedVersion) {
+        long position;
+        writeLock.lock();
+        try {
+            var current = delegate.getVersioned(bookingId);
+            if (current == null) return false;
+            VersionConflictException.check(bookingId, expectedVersion, current.version());
+            var patched = current.booking().merge(fields);
+            position = append(JournalEntry.of(JournalEntry.Operation.PATCH, patched));
+            delegate.update(patched);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean delete(UUID bookingId) {
+        long position;
+        writeLock.lock();
+        try {
+            if (delegate.getById(bookingId) == null) return false;
+            position = append(JournalEntry.delete(bookingId));
+            delegate.delete(bookingId);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean[] deleteAll(List<UUID> bookingIds) {
+        var deleted = new boolean[bookingIds.size()];
+        var existing = new ArrayList<UUID>(bookingIds.size());
+        long position = -1;
+        writeLock.lock();
+        try {
+            var old = delegate.getByIds(bookingIds);
+            var seen = new HashSet<UUID>();
+            for (int i = 0; i < deleted.length; i++) {
+                if (old.get(i) == null || !seen.add(bookingIds.get(i))) continue;
+                deleted[i] = true;
+                existing.add(bookingIds.get(i));
+                position = append(JournalEntry.delete(bookingIds.get(i)));
+            }
+            delegate.deleteAll(existing);
+        } finally {
+            writeLock.unlock();
+        }
+        if (position >= 0) awaitDurable(position);
+        return deleted;
+    }
+
+    @Override
+    public List<Booking> get(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        return delegate.get(filter, sort, page);
+    }
+
+    @Override
+    public Stream<Booking> stream(Map<String, DataFilter<?>> filter, Iterable<SortField> sort, Page page) {
+        return delegate.stream(filter, sort, page);
+    }
+
+    @Override
+    public Booking getById(UUID bookingId) {
+        return delegate.getById(bookingId);
+    }
+
+    @Override
+    public VersionedBooking getVersioned(UUID bookingId) {
+        return delegate.getVersioned(bookingId);
+    }
+
+    @Override
+    public long version() {
+        return delegate.version();
+    }
+
+    @Override
+    public void onChange(Consumer<BookingChange> listener) {
+        delegate.onChange(listener);
+    }
+
+    @Override
+    public List<Booking> getByIds(List<UUID> bookingIds) {
+        return delegate.getByIds(bookingIds);
+    }
+
+    @Override
+    public List<HotelCount> countPerHotel(Map<String, DataFilter<?>> filter) {
+        return delegate.countPerHotel(filter);
+    }
+
+    @Override
+    public List<CheckInCount> countPerCheckInDay(Map<String, DataFilter<?>> filter) {
+        return delegate.countPerCheckInDay(filter);
+    }
+
+    @Override
+    public List<NightsCount> countNightsPerHotelAndMonth(Map<String, DataFilter<?>> filter) {
+        return delegate.countNightsPerHotelAndMonth(filter);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        segment.journal().close();
+    }
+}
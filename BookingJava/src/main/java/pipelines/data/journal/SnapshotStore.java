@@ -0,0 +1,196 @@
+package pipelines.data.journal;
+
+import pipelines.domain.Booking;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Point-in-time copies of all bookings, each tagged with the journal position it reflects. A snapshot file is
+ * a header followed by CRC-protected blocks of bookings in the journal record format. Blocks are written and
+ * read through memory mappings and decoded in parallel on load.
+ * <p>
+ * Files are written under a temporary name and renamed when complete; only the newest few are retained.
+ */
+public final class SnapshotStore {
+    private static final int MAGIC = 0x424b5331;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BLOCK_HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int RETAINED = 2;
+    private static final Pattern FILE_NAME = Pattern.compile("snapshot-([0-9a-f]{16})\\.bin");
+
+    private final Path directory;
+
+    /**
+     * @param file     snapshot file
+     * @param position journal position the snapshot is consistent with; replay continues from there
+     */
+    public record Snapshot(Path file, long position) {}
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * @return complete snapshots, newest first
+     */
+    public List<Snapshot> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .map(file -> {
+                        var matcher = FILE_NAME.matcher(file.getFileName().toString());
+                        return matcher.matches() ? new Snapshot(file, Long.parseUnsignedLong(matcher.group(1), 16)) : null;
+                    })
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingLong(Snapshot::position).reversed())
+                    .toList();
+        }
+    }
+
+    /**
+     * Writes all {@code bookings} as the snapshot for journal {@code position} and removes snapshots beyond the retained ones.
+     */
+    public Snapshot write(long position, Stream<Booking> bookings) throws IOException {
+        var file = directory.resolve("snapshot-%016x.bin".formatted(position));
+        var temp = directory.resolve(file.getFileName() + ".tmp");
+
+        try (var channel = FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            var writer = new BlockWriter(channel);
+            bookings.forEach(writer::add);
+            writer.flush();
+
+            var header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(position).putLong(writer.count).putInt(writer.blocks);
+            header.force();
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        var snapshots = list();
+        for (var old : snapshots.subList(Math.min(RETAINED, snapshots.size()), snapshots.size()))
+            Files.deleteIfExists(old.file());
+        return new Snapshot(file, position);
+    }
+
+    /**
+     * Decodes and validates every block in parallel, so a corrupt snapshot is rejected before anything is applied.
+     *
+     * @return the bookings of each block, in file order
+     */
+    public List<List<Booking>> load(Snapshot snapshot) throws IOException {
+        try (var channel = FileChannel.open(snapshot.file(), READ)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(8) != snapshot.position())
+                throw new IOException("Not a booking snapshot: " + snapshot.file());
+            long count = header.getLong(16);
+            int blockCount = header.getInt(24);
+
+            // block headers are tiny, so locating the blocks is cheap compared to decoding them
+            var blocks = new ArrayList<long[]>(blockCount);
+            var blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < blockCount; i++) {
+                blockHeader.clear();
+                if (channel.read(blockHeader, offset) != BLOCK_HEADER_SIZE) throw new IOException("Truncated snapshot: " + snapshot.file());
+                int length = blockHeader.getInt(0);
+                blocks.add(new long[]{offset, length});
+                offset += BLOCK_HEADER_SIZE + length;
+            }
+            if (offset != channel.size()) throw new IOException("Truncated snapshot: " + snapshot.file());
+
+            List<List<Booking>> decoded;
+            try {
+                decoded = blocks.parallelStream().map(block -> decodeBlock(channel, block[0], (int) block[1])).toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            long loaded = decoded.stream().mapToLong(List::size).sum();
+            if (loaded != count) throw new IOException("Snapshot holds %d bookings, header says %d".formatted(loaded, count));
+            return decoded;
+        }
+    }
+
+    private static List<Booking> decodeBlock(FileChannel channel, long offset, int length) {
+        try {
+            MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offset, BLOCK_HEADER_SIZE + length);
+            int count = block.getInt(4);
+            var payload = block.slice(BLOCK_HEADER_SIZE, length);
+
+            var crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != block.getInt(8)) throw new IOException("Corrupt snapshot block at " + offset);
+
+            var bookings = new ArrayList<Booking>(count);
+            for (int i = 0; i < count; i++) bookings.add(JournalCodec.decode(payload).booking());
+            return bookings;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw new UncheckedIOException(new IOException("Corrupt snapshot block at " + offset, e));
+        }
+    }
+
+    /**
+     * Fills a heap buffer with encoded bookings and copies each full block into the file through a mapping.
+     */
+    private static final class BlockWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        private long offset = HEADER_SIZE;
+        private int blockCount;
+        private long count;
+        private int blocks;
+
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(Booking booking) {
+            var record = JournalCodec.encode(JournalEntry.of(JournalEntry.Operation.ADD, booking));
+            if (record.length > buffer.remaining()) flush();
+            buffer.put(record);
+            blockCount++;
+            count++;
+        }
+
+        void flush() {
+            if (blockCount == 0) return;
+            buffer.flip();
+            var crc = new CRC32();
+            crc.update(buffer.duplicate());
+
+            try {
+                var block = channel.map(FileChannel.MapMode.READ_WRITE, offset, BLOCK_HEADER_SIZE + buffer.remaining());
+                block.putInt(buffer.remaining()).putInt(blockCount).putInt((int) crc.getValue()).put(buffer);
+                block.force();
+                offset += block.capacity();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+            blockCount = 0;
+            blocks++;
+        }
+    }
+}
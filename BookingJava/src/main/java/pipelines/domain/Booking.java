@@ -3,6 +3,7 @@ package pipelines.domain;
 import io.javalin.openapi.OpenApiIgnore;
 
 import java.time.LocalDate;
+import java.util.Map;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -27,6 +28,46 @@ public record Booking(
         };
     }
 
+    /**
+     * @return validated booking with the given id and the fields in {@code fields}
+     */
+    public static Booking of(UUID id, Map<?, ?> fields) {
+        return new Booking(id, null, null, null, null, null).merge(fields);
+    }
+
+    /**
+     * @return validated copy with the fields present in {@code fields} replaced
+     */
+    @OpenApiIgnore
+    public Booking merge(Map<?, ?> fields) {
+        String hotelName = fields.containsKey("hotelName") ? getStringFromBody(fields, "hotelName") : this.hotelName;
+        String guestName = fields.containsKey("guestName") ? getStringFromBody(fields, "guestName") : this.guestName;
+        String email = fields.containsKey("email") ? getStringFromBody(fields, "email") : this.email;
+
+        LocalDate checkIn = fields.containsKey("checkIn") ? getDateFromBody(fields, "checkIn") : this.checkIn;
+        LocalDate checkOut = fields.containsKey("checkOut") ? getDateFromBody(fields, "checkOut") : this.checkOut;
+
+        return new Booking(id, hotelName, guestName, email, checkIn, checkOut).validate();
+    }
+
+    private static String getStringFromBody(Map<?, ?> fields, String fieldName) {
+        var value = fields.get(fieldName);
+        if (value == null || value instanceof String) return (String) value;
+        throw new IllegalArgumentException("Expected a string for field " + fieldName);
+    }
+
+    private static LocalDate getDateFromBody(Map<?, ?> fields, String fieldName) {
+        try {
+            var dateStr = (String) fields.get(fieldName);
+            return LocalDate.parse(dateStr);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(
+                    "Expected ISO-8601 (yyyy-MM-dd) format for field %s: %s"
+                            .formatted(fieldName, e.getMessage())
+            );
+        }
+    }
+
     @OpenApiIgnore
     public Booking validate() {
         if (hotelName == null || hotelName.isBlank())
@@ -35,7 +76,8 @@ public record Booking(
         if (guestName == null || guestName.isBlank())
             throw new IllegalArgumentException("guestName is required");
 
-        if (email == null || email.isBlank() || !email.contains("@"))
+        // the email ends up in a mail header, where a line break would start another one
+        if (email == null || email.isBlank() || !email.contains("@") || email.chars().anyMatch(Character::isISOControl))
             throw new IllegalArgumentException("A valid email is required");
 
         if (checkIn == null)
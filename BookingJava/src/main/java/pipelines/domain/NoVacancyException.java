@@ -0,0 +1,9 @@
+package pipelines.domain;
+
+import java.time.LocalDate;
+
+public class NoVacancyException extends IllegalStateException {
+    public NoVacancyException(String hotelName, LocalDate night) {
+        super("No rooms left at %s on %s".formatted(hotelName, night));
+    }
+}
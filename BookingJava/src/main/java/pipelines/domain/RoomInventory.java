@@ -0,0 +1,189 @@
+package pipelines.domain;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Rooms taken per hotel and night. Every hotel has a calendar of {@link AtomicIntegerArray} pages indexed by epoch day,
+ * and a stay is reserved by incrementing each of its nights with a compare-and-set that refuses to pass the hotel's
+ * capacity. When a night is full the nights taken so far are given back, so a stay is reserved entirely or not at all.
+ * <p>
+ * Nothing is locked per hotel: concurrent stays only contend on the nights they share. A stay that is being rolled
+ * back holds its nights for a moment, which can make a competing request see a night as full that ends up free,
+ * but never lets the number of rooms taken exceed the capacity.
+ */
+public final class RoomInventory {
+    public static final int DEFAULT_ROOMS = 100;
+
+    private static final int PAGE_SHIFT = 9;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int LOCK_STRIPES = 64;
+
+    private final int defaultRooms;
+    private final ConcurrentHashMap<String, HotelCalendar> hotels = new ConcurrentHashMap<>();
+    private final ReentrantLock[] bookingLocks = new ReentrantLock[LOCK_STRIPES];
+
+    public RoomInventory(int defaultRooms) {
+        if (defaultRooms < 0) throw new IllegalArgumentException("defaultRooms must not be negative");
+        this.defaultRooms = defaultRooms;
+        for (int i = 0; i < LOCK_STRIPES; i++) bookingLocks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Counts existing bookings without checking capacity, as they were accepted before.
+     */
+    public RoomInventory load(Stream<Booking> bookings) {
+        bookings.forEach(booking -> calendar(booking.hotelName()).occupy(booking));
+        return this;
+    }
+
+    public void setRooms(String hotelName, int rooms) {
+        if (rooms < 0) throw new IllegalArgumentException("rooms must not be negative");
+        calendar(hotelName).rooms = rooms;
+    }
+
+    public int rooms(String hotelName) {
+        var calendar = hotels.get(hotelName);
+        return calendar == null ? defaultRooms : calendar.rooms;
+    }
+
+    public int occupied(String hotelName, LocalDate night) {
+        var calendar = hotels.get(hotelName);
+        return calendar == null ? 0 : calendar.get(night.toEpochDay());
+    }
+
+    /**
+     * @return rooms free on every night of the stay
+     */
+    public int available(String hotelName, LocalDate checkIn, LocalDate checkOut) {
+        var calendar = hotels.get(hotelName);
+        if (calendar == null) return defaultRooms;
+        int taken = 0;
+        for (long day = firstNight(checkIn), end = lastNight(checkIn, checkOut); day <= end; day++)
+            taken = Math.max(taken, calendar.get(day));
+        return Math.max(0, calendar.rooms - taken);
+    }
+
+    public void reserve(Booking booking) {
+        reserve(booking, null);
+    }
+
+    /**
+     * Reserves the nights of {@code added} that {@code kept} does not already hold, all or none.
+     *
+     * @throws NoVacancyException when one of them is fully booked
+     */
+    public void reserve(Booking added, Booking kept) {
+        var calendar = calendar(added.hotelName());
+        long first = firstNight(added.checkIn()), last = lastNight(added.checkIn(), added.checkOut());
+        for (long day = first; day <= last; day++) {
+            if (holds(kept, added.hotelName(), day)) continue;
+            if (!calendar.tryIncrement(day)) {
+                for (long taken = first; taken < day; taken++)
+                    if (!holds(kept, added.hotelName(), taken)) calendar.decrement(taken);
+                throw new NoVacancyException(added.hotelName(), LocalDate.ofEpochDay(day));
+            }
+        }
+    }
+
+    public void release(Booking booking) {
+        release(booking, null);
+    }
+
+    /**
+     * Gives back the nights of {@code removed} that {@code kept} does not hold as well.
+     */
+    public void release(Booking removed, Booking kept) {
+        var calendar = calendar(removed.hotelName());
+        for (long day = firstNight(removed.checkIn()), end = lastNight(removed.checkIn(), removed.checkOut()); day <= end; day++)
+            if (!holds(kept, removed.hotelName(), day)) calendar.decrement(day);
+    }
+
+    /**
+     * Changes to one booking have to be serialized so that the nights released are the ones that were reserved;
+     * bookings share a fixed set of locks, so unrelated bookings rarely wait for each other.
+     */
+    public ReentrantLock lockFor(UUID bookingId) {
+        return bookingLocks[stripe(bookingId)];
+    }
+
+    /**
+     * @return the locks for all {@code bookingIds}, each once and in a fixed order, so that taking them one after
+     * another cannot deadlock with another batch
+     */
+    public List<ReentrantLock> locksFor(Collection<UUID> bookingIds) {
+        var stripes = new BitSet(LOCK_STRIPES);
+        for (var bookingId : bookingIds) stripes.set(stripe(bookingId));
+        return stripes.stream().mapToObj(stripe -> bookingLocks[stripe]).toList();
+    }
+
+    private static int stripe(UUID bookingId) {
+        return (bookingId.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+
+    private HotelCalendar calendar(String hotelName) {
+        return hotels.computeIfAbsent(hotelName, name -> new HotelCalendar(defaultRooms));
+    }
+
+    private static boolean holds(Booking booking, String hotelName, long day) {
+        return booking != null && booking.hotelName().equals(hotelName)
+                && day >= firstNight(booking.checkIn()) && day <= lastNight(booking.checkIn(), booking.checkOut());
+    }
+
+    private static long firstNight(LocalDate checkIn) {
+        return checkIn.toEpochDay();
+    }
+
+    // the check-out day is free again, except for a same-day stay which still takes a room that day
+    private static long lastNight(LocalDate checkIn, LocalDate checkOut) {
+        return Math.max(checkIn.toEpochDay(), checkOut.toEpochDay() - 1);
+    }
+
+    private static final class HotelCalendar {
+        private final ConcurrentHashMap<Long, AtomicIntegerArray> pages = new ConcurrentHashMap<>();
+        private volatile int rooms;
+
+        HotelCalendar(int rooms) {
+            this.rooms = rooms;
+        }
+
+        int get(long day) {
+            var page = pages.get(day >> PAGE_SHIFT);
+            return page == null ? 0 : page.get(index(day));
+        }
+
+        boolean tryIncrement(long day) {
+            var page = page(day);
+            int index = index(day);
+            while (true) {
+                int taken = page.get(index);
+                if (taken >= rooms) return false;
+                if (page.compareAndSet(index, taken, taken + 1)) return true;
+            }
+        }
+
+        void decrement(long day) {
+            page(day).getAndUpdate(index(day), taken -> Math.max(0, taken - 1));
+        }
+
+        void occupy(Booking booking) {
+            for (long day = firstNight(booking.checkIn()), end = lastNight(booking.checkIn(), booking.checkOut()); day <= end; day++)
+                page(day).incrementAndGet(index(day));
+        }
+
+        private AtomicIntegerArray page(long day) {
+            return pages.computeIfAbsent(day >> PAGE_SHIFT, key -> new AtomicIntegerArray(PAGE_SIZE));
+        }
+
+        private static int index(long day) {
+            return (int) (day & (PAGE_SIZE - 1));
+        }
+    }
+}
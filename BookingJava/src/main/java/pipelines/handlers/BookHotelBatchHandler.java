@@ -0,0 +1,56 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.BatchResult;
+import pipelines.commands.BatchResult.Item;
+import pipelines.commands.BatchResult.Status;
+import pipelines.commands.BookHotelBatchCommand;
+import pipelines.commands.BookingsConfirmedNotification;
+import pipelines.data.BookingRepository;
+import pipelines.domain.Booking;
+import pipelines.domain.NoVacancyException;
+import pipelines.domain.RoomInventory;
+import pipelines.infrastructure.NotificationPublisher;
+
+import java.util.ArrayList;
+
+/**
+ * Validates and reserves every booking on its own, then adds the accepted ones in a single repository write
+ * and confirms them with one notification.
+ */
+@Component
+public record BookHotelBatchHandler(BookingRepository repository, RoomInventory inventory, NotificationPublisher publisher) implements Command.Handler<BookHotelBatchCommand, BatchResult> {
+    @Override
+    public BatchResult handle(BookHotelBatchCommand command) {
+        var items = new Item[command.bookings().size()];
+        var accepted = new ArrayList<Booking>(items.length);
+
+        for (int i = 0; i < items.length; i++) {
+            Booking booking;
+            try {
+                booking = Booking.of(repository.getNextId(), command.bookings().get(i));
+            } catch (IllegalArgumentException e) {
+                items[i] = new Item(i, null, Status.INVALID, e.getMessage());
+                continue;
+            }
+            try {
+                inventory.reserve(booking);
+            } catch (NoVacancyException e) {
+                items[i] = new Item(i, null, Status.NO_VACANCY, e.getMessage());
+                continue;
+            }
+            accepted.add(booking);
+            items[i] = Item.of(i, booking.id(), Status.CREATED);
+        }
+
+        try {
+            repository.addAll(accepted);
+        } catch (RuntimeException e) {
+            accepted.forEach(inventory::release);
+            throw e;
+        }
+        if (!accepted.isEmpty()) publisher.publish(new BookingsConfirmedNotification(accepted));
+        return BatchResult.of(items);
+    }
+}
@@ -6,16 +6,23 @@ import pipelines.commands.BookHotelCommand;
 import pipelines.commands.BookingConfirmedNotification;
 import pipelines.data.BookingRepository;
 import pipelines.domain.Booking;
+import pipelines.domain.RoomInventory;
 import pipelines.infrastructure.NotificationPublisher;
 
 import java.util.UUID;
 
 @Component
-public record BookHotelHandler(BookingRepository repository, NotificationPublisher publisher) implements Command.Handler<BookHotelCommand, UUID> {
+public record BookHotelHandler(BookingRepository repository, RoomInventory inventory, NotificationPublisher publisher) implements Command.Handler<BookHotelCommand, UUID> {
     @Override
     public UUID handle(BookHotelCommand command) {
-        var booking = new Booking(repository.getNextId(), command.hotelName(), command.guestName(), command.email(), command.checkIn(), command.checkOut());
-        repository.add(booking);
+        var booking = new Booking(repository.getNextId(), command.hotelName(), command.guestName(), command.email(), command.checkIn(), command.checkOut()).validate();
+        inventory.reserve(booking);
+        try {
+            repository.add(booking);
+        } catch (RuntimeException e) {
+            inventory.release(booking);
+            throw e;
+        }
         publisher.publish(new BookingConfirmedNotification(booking));
         return booking.id();
     }
@@ -0,0 +1,37 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.BatchResult;
+import pipelines.commands.BatchResult.Item;
+import pipelines.commands.BatchResult.Status;
+import pipelines.commands.DeleteBookingBatchCommand;
+import pipelines.data.BookingRepository;
+import pipelines.domain.RoomInventory;
+
+import java.util.concurrent.locks.Lock;
+
+@Component
+public record DeleteBookingBatchHandler(BookingRepository repository, RoomInventory inventory) implements Command.Handler<DeleteBookingBatchCommand, BatchResult> {
+    @Override
+    public BatchResult handle(DeleteBookingBatchCommand command) {
+        var bookingIds = command.bookingIds();
+        var items = new Item[bookingIds.size()];
+
+        var locks = inventory.locksFor(bookingIds);
+        locks.forEach(Lock::lock);
+        try {
+            var old = repository.getByIds(bookingIds);
+            var deleted = repository.deleteAll(bookingIds);
+            for (int i = 0; i < items.length; i++) {
+                if (deleted[i]) {
+                    inventory.release(old.get(i));
+                    items[i] = Item.of(i, bookingIds.get(i), Status.DELETED);
+                } else items[i] = new Item(i, bookingIds.get(i), Status.NOT_FOUND, "Booking ID not found: " + bookingIds.get(i));
+            }
+        } finally {
+            locks.reversed().forEach(Lock::unlock);
+        }
+        return BatchResult.of(items);
+    }
+}
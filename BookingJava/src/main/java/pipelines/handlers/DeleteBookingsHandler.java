@@ -4,12 +4,23 @@ import an.awesome.pipelinr.Command;
 import org.springframework.stereotype.Component;
 import pipelines.commands.DeleteBookingCommand;
 import pipelines.data.BookingRepository;
+import pipelines.domain.RoomInventory;
 
 @Component
-public record DeleteBookingsHandler(BookingRepository repository) implements Command.Handler<DeleteBookingCommand, Boolean> {
+public record DeleteBookingsHandler(BookingRepository repository, RoomInventory inventory) implements Command.Handler<DeleteBookingCommand, Boolean> {
 
     @Override
     public Boolean handle(DeleteBookingCommand deleteBookingCommand) {
-        return repository.delete(deleteBookingCommand.bookingId());
+        var bookingId = deleteBookingCommand.bookingId();
+        var lock = inventory.lockFor(bookingId);
+        lock.lock();
+        try {
+            var booking = repository.getById(bookingId);
+            if (booking == null || !repository.delete(bookingId)) return false;
+            inventory.release(booking);
+            return true;
+        } finally {
+            lock.unlock();
+        }
     }
 }
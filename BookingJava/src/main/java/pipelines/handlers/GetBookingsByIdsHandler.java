@@ -0,0 +1,18 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetBookingsByIdsQuery;
+import pipelines.data.BookingRepository;
+import pipelines.domain.Booking;
+
+import java.util.List;
+import java.util.Objects;
+
+@Component
+public record GetBookingsByIdsHandler(BookingRepository repository) implements Command.Handler<GetBookingsByIdsQuery, List<Booking>> {
+    @Override
+    public List<Booking> handle(GetBookingsByIdsQuery query) {
+        return repository.getByIds(query.bookingIds()).stream().filter(Objects::nonNull).toList();
+    }
+}
@@ -12,6 +12,6 @@ import java.util.List;
 public record GetBookingsHandler(BookingRepository repository) implements Command.Handler<GetBookingsQuery, List<Booking>> {
     @Override
     public List<Booking> handle(GetBookingsQuery query) {
-        return repository.get(query.filter(), query.sort());
+        return repository.get(query.filter(), query.sort(), query.page());
     }
 }
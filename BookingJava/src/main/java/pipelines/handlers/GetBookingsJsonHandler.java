@@ -0,0 +1,15 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetBookingsJsonQuery;
+import pipelines.data.BookingRepository;
+import pipelines.infrastructure.QueryResultCache;
+
+@Component
+public record GetBookingsJsonHandler(BookingRepository repository, QueryResultCache cache) implements Command.Handler<GetBookingsJsonQuery, byte[]> {
+    @Override
+    public byte[] handle(GetBookingsJsonQuery command) {
+        return cache.get(command.query(), query -> repository.get(query.filter(), query.sort(), query.page()));
+    }
+}
@@ -0,0 +1,17 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetBookingsPerHotelQuery;
+import pipelines.data.BookingRepository;
+import pipelines.data.HotelCount;
+
+import java.util.List;
+
+@Component
+public record GetBookingsPerHotelHandler(BookingRepository repository) implements Command.Handler<GetBookingsPerHotelQuery, List<HotelCount>> {
+    @Override
+    public List<HotelCount> handle(GetBookingsPerHotelQuery query) {
+        return repository.countPerHotel(query.filter());
+    }
+}
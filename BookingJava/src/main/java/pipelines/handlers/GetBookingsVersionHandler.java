@@ -0,0 +1,14 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetBookingsVersionQuery;
+import pipelines.data.BookingRepository;
+
+@Component
+public record GetBookingsVersionHandler(BookingRepository repository) implements Command.Handler<GetBookingsVersionQuery, Long> {
+    @Override
+    public Long handle(GetBookingsVersionQuery query) {
+        return repository.version();
+    }
+}
@@ -0,0 +1,17 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetCheckInsPerDayQuery;
+import pipelines.data.BookingRepository;
+import pipelines.data.CheckInCount;
+
+import java.util.List;
+
+@Component
+public record GetCheckInsPerDayHandler(BookingRepository repository) implements Command.Handler<GetCheckInsPerDayQuery, List<CheckInCount>> {
+    @Override
+    public List<CheckInCount> handle(GetCheckInsPerDayQuery query) {
+        return repository.countPerCheckInDay(query.filter());
+    }
+}
@@ -0,0 +1,15 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetEmailOutboxStatsQuery;
+import pipelines.infrastructure.EmailOutbox;
+import pipelines.infrastructure.EmailService;
+
+@Component
+public record GetEmailOutboxStatsHandler(EmailService emailService) implements Command.Handler<GetEmailOutboxStatsQuery, EmailOutbox.Stats> {
+    @Override
+    public EmailOutbox.Stats handle(GetEmailOutboxStatsQuery query) {
+        return emailService instanceof EmailOutbox outbox ? outbox.stats() : null;
+    }
+}
@@ -0,0 +1,17 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetNightsPerHotelAndMonthQuery;
+import pipelines.data.BookingRepository;
+import pipelines.data.NightsCount;
+
+import java.util.List;
+
+@Component
+public record GetNightsPerHotelAndMonthHandler(BookingRepository repository) implements Command.Handler<GetNightsPerHotelAndMonthQuery, List<NightsCount>> {
+    @Override
+    public List<NightsCount> handle(GetNightsPerHotelAndMonthQuery query) {
+        return repository.countNightsPerHotelAndMonth(query.filter());
+    }
+}
@@ -0,0 +1,14 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetQueryCacheStatsQuery;
+import pipelines.infrastructure.QueryResultCache;
+
+@Component
+public record GetQueryCacheStatsHandler(QueryResultCache cache) implements Command.Handler<GetQueryCacheStatsQuery, QueryResultCache.Stats> {
+    @Override
+    public QueryResultCache.Stats handle(GetQueryCacheStatsQuery query) {
+        return cache.stats();
+    }
+}
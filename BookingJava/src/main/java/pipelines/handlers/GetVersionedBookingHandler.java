@@ -0,0 +1,15 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.GetVersionedBookingQuery;
+import pipelines.data.BookingRepository;
+import pipelines.data.VersionedBooking;
+
+@Component
+public record GetVersionedBookingHandler(BookingRepository repository) implements Command.Handler<GetVersionedBookingQuery, VersionedBooking> {
+    @Override
+    public VersionedBooking handle(GetVersionedBookingQuery query) {
+        return repository.getVersioned(query.bookingId());
+    }
+}
@@ -4,11 +4,22 @@ import an.awesome.pipelinr.Command;
 import org.springframework.stereotype.Component;
 import pipelines.commands.PatchBookingCommand;
 import pipelines.data.BookingRepository;
+import pipelines.data.VersionConflictException;
+import pipelines.domain.RoomInventory;
 
 @Component
-public record PatchBookingHandler(BookingRepository repository) implements Command.Handler<PatchBookingCommand, Boolean> {
+public record PatchBookingHandler(BookingRepository repository, RoomInventory inventory) implements Command.Handler<PatchBookingCommand, Boolean> {
     @Override
     public Boolean handle(PatchBookingCommand command) {
-        return repository.patch(command.bookingId(), command.fields());
+        var lock = inventory.lockFor(command.bookingId());
+        lock.lock();
+        try {
+            var old = repository.getVersioned(command.bookingId());
+            if (old == null) return false;
+            VersionConflictException.check(command.bookingId(), command.expectedVersion(), old.version());
+            return UpdateBookingHandler.replace(repository, inventory, old, old.booking().merge(command.fields()));
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -3,14 +3,27 @@ package pipelines.handlers;
 import an.awesome.pipelinr.Notification;
 import org.springframework.stereotype.Component;
 import pipelines.commands.BookingConfirmedNotification;
+import pipelines.domain.Booking;
+import pipelines.infrastructure.Email;
 import pipelines.infrastructure.EmailService;
+import pipelines.infrastructure.EmailTemplate;
 
 @Component
 public record SendConfirmationEmailHandler(EmailService emailService) implements Notification.Handler<BookingConfirmedNotification> {
     @Override
     public void handle(BookingConfirmedNotification notification) {
-        var booking = notification.booking();
-        emailService.sendEmail(booking.email(), "Booking Confirmed",
-                String.format("Dear %s, your booking at %s is confirmed. Booking ID: %s", booking.guestName(), booking.hotelName(), booking.id()));
+        sendConfirmation(emailService, notification.booking());
+    }
+
+    private static final String SUBJECT = "Booking Confirmed";
+    private static final EmailTemplate<Booking> BODY = EmailTemplate.compile(
+            "Dear {guestName}, your booking at {hotelName} is confirmed. Booking ID: {id}", Booking::getFieldAccessor);
+
+    static void sendConfirmation(EmailService emailService, Booking booking) {
+        emailService.sendEmail(booking.email(), SUBJECT, BODY.render(booking));
+    }
+
+    static Email confirmation(Booking booking) {
+        return new Email(booking.email(), SUBJECT, BODY.render(booking));
     }
 }
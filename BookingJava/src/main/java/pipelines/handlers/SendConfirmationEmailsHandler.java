@@ -0,0 +1,14 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Notification;
+import org.springframework.stereotype.Component;
+import pipelines.commands.BookingsConfirmedNotification;
+import pipelines.infrastructure.EmailService;
+
+@Component
+public record SendConfirmationEmailsHandler(EmailService emailService) implements Notification.Handler<BookingsConfirmedNotification> {
+    @Override
+    public void handle(BookingsConfirmedNotification notification) {
+        emailService.sendEmails(notification.bookings().stream().map(SendConfirmationEmailHandler::confirmation).toList());
+    }
+}
@@ -0,0 +1,17 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.StreamBookingsQuery;
+import pipelines.data.BookingRepository;
+import pipelines.domain.Booking;
+
+import java.util.stream.Stream;
+
+@Component
+public record StreamBookingsHandler(BookingRepository repository) implements Command.Handler<StreamBookingsQuery, Stream<Booking>> {
+    @Override
+    public Stream<Booking> handle(StreamBookingsQuery query) {
+        return repository.stream(query.filter(), query.sort(), query.page());
+    }
+}
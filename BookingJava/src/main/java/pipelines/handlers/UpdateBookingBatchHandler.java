@@ -0,0 +1,98 @@
+package pipelines.handlers;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.stereotype.Component;
+import pipelines.commands.BatchResult;
+import pipelines.commands.BatchResult.Item;
+import pipelines.commands.BatchResult.Status;
+import pipelines.commands.UpdateBookingBatchCommand;
+import pipelines.data.BookingRepository;
+import pipelines.domain.Booking;
+import pipelines.domain.NoVacancyException;
+import pipelines.domain.RoomInventory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Same as {@link UpdateBookingHandler} for many bookings: nights gained are reserved per booking,
+ * the accepted bookings are written in one repository call, and the nights given up are released afterward.
+ */
+@Component
+public record UpdateBookingBatchHandler(BookingRepository repository, RoomInventory inventory) implements Command.Handler<UpdateBookingBatchCommand, BatchResult> {
+    @Override
+    public BatchResult handle(UpdateBookingBatchCommand command) {
+        var items = new Item[command.bookings().size()];
+        var valid = new ArrayList<Booking>(items.length);
+        var validIndexes = new ArrayList<Integer>(items.length);
+        var seen = new HashSet<UUID>();
+
+        for (int i = 0; i < items.length; i++) {
+            var fields = command.bookings().get(i);
+            UUID bookingId = null;
+            try {
+                bookingId = bookingId(fields.get("id"));
+                if (!seen.add(bookingId)) throw new IllegalArgumentException("Booking appears more than once in the batch");
+                valid.add(Booking.of(bookingId, fields));
+                validIndexes.add(i);
+            } catch (IllegalArgumentException e) {
+                items[i] = new Item(i, bookingId, Status.INVALID, e.getMessage());
+            }
+        }
+
+        var locks = inventory.locksFor(valid.stream().map(Booking::id).toList());
+        locks.forEach(Lock::lock);
+        try {
+            var old = repository.getByIds(valid.stream().map(Booking::id).toList());
+            var accepted = new ArrayList<Booking>(valid.size());
+            var acceptedOld = new ArrayList<Booking>(valid.size());
+            var acceptedIndexes = new ArrayList<Integer>(valid.size());
+            for (int j = 0; j < valid.size(); j++) {
+                var booking = valid.get(j);
+                int i = validIndexes.get(j);
+                if (old.get(j) == null) {
+                    items[i] = new Item(i, booking.id(), Status.NOT_FOUND, "Booking ID not found: " + booking.id());
+                    continue;
+                }
+                try {
+                    inventory.reserve(booking, old.get(j));
+                } catch (NoVacancyException e) {
+                    items[i] = new Item(i, booking.id(), Status.NO_VACANCY, e.getMessage());
+                    continue;
+                }
+                accepted.add(booking);
+                acceptedOld.add(old.get(j));
+                acceptedIndexes.add(i);
+            }
+
+            boolean[] updated;
+            try {
+                updated = repository.updateAll(accepted);
+            } catch (RuntimeException e) {
+                for (int j = 0; j < accepted.size(); j++) inventory.release(accepted.get(j), acceptedOld.get(j));
+                throw e;
+            }
+            for (int j = 0; j < accepted.size(); j++) {
+                var booking = accepted.get(j);
+                int i = acceptedIndexes.get(j);
+                if (updated[j]) {
+                    inventory.release(acceptedOld.get(j), booking);
+                    items[i] = Item.of(i, booking.id(), Status.UPDATED);
+                } else {
+                    inventory.release(booking, acceptedOld.get(j));
+                    items[i] = new Item(i, booking.id(), Status.NOT_FOUND, "Booking ID not found: " + booking.id());
+                }
+            }
+        } finally {
+            locks.reversed().forEach(Lock::unlock);
+        }
+        return BatchResult.of(items);
+    }
+
+    private static UUID bookingId(Object value) {
+        if (!(value instanceof String id)) throw new IllegalArgumentException("id is required");
+        return UUID.fromString(id);
+    }
+}
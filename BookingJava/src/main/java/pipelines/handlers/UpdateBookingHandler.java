@@ -4,10 +4,13 @@ import an.awesome.pipelinr.Command;
 import org.springframework.stereotype.Component;
 import pipelines.commands.UpdateBookingCommand;
 import pipelines.data.BookingRepository;
+import pipelines.data.VersionConflictException;
+import pipelines.data.VersionedBooking;
 import pipelines.domain.Booking;
+import pipelines.domain.RoomInventory;
 
 @Component
-public record UpdateBookingHandler(BookingRepository repository) implements Command.Handler<UpdateBookingCommand, Boolean> {
+public record UpdateBookingHandler(BookingRepository repository, RoomInventory inventory) implements Command.Handler<UpdateBookingCommand, Boolean> {
     @Override
     public Boolean handle(UpdateBookingCommand command) {
         Booking booking = new Booking(
@@ -17,7 +20,37 @@ public record UpdateBookingHandler(BookingRepository repository) implements Comm
                 command.email(),
                 command.checkIn(),
                 command.checkOut()
-        );
-        return repository.update(booking);
+        ).validate();
+
+        var lock = inventory.lockFor(booking.id());
+        lock.lock();
+        try {
+            var old = repository.getVersioned(booking.id());
+            if (old == null) return false;
+            VersionConflictException.check(booking.id(), command.expectedVersion(), old.version());
+            return replace(repository, inventory, old, booking);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves {@code current} to the stay of {@code booking}: only the nights gained are reserved up front,
+     * and the nights given up are released once the repository accepted the change. The repository write is
+     * conditional on the version that was read, so the nights released are those of the booking replaced.
+     */
+    static boolean replace(BookingRepository repository, RoomInventory inventory, VersionedBooking current, Booking booking) {
+        var old = current.booking();
+        inventory.reserve(booking, old);
+        boolean updated;
+        try {
+            updated = repository.update(booking, current.version());
+        } catch (RuntimeException e) {
+            inventory.release(booking, old);
+            throw e;
+        }
+        if (updated) inventory.release(old, booking);
+        else inventory.release(booking, old);
+        return updated;
     }
 }
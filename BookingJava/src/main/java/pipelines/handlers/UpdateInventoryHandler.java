@@ -3,17 +3,19 @@ package pipelines.handlers;
 import an.awesome.pipelinr.Notification;
 import org.springframework.stereotype.Component;
 import pipelines.commands.*;
-
-import java.util.*;
+import pipelines.domain.RoomInventory;
 
 @Component
-public class UpdateInventoryHandler implements Notification.Handler<BookingConfirmedNotification> {
+public record UpdateInventoryHandler(RoomInventory inventory) implements Notification.Handler<BookingConfirmedNotification> {
     @Override
     public void handle(BookingConfirmedNotification notification) {
+        // the rooms were reserved by BookHotelHandler before the booking was confirmed
         var booking = notification.booking();
-        System.out.printf("🏨 Updating inventory for hotel %s (check-in: %s, check-out: %s)%n",
+        System.out.printf("🏨 Inventory for hotel %s (check-in: %s, check-out: %s): %d of %d rooms left%n",
                 booking.hotelName(),
                 booking.checkIn(),
-                booking.checkOut());
+                booking.checkOut(),
+                inventory.available(booking.hotelName(), booking.checkIn(), booking.checkOut()),
+                inventory.rooms(booking.hotelName()));
     }
 }
@@ -0,0 +1,37 @@
+package pipelines.infrastructure;
+
+import an.awesome.pipelinr.Command;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * {@link LoggableMiddleware} for {@link AsyncPipeline#sendAsync}: the response and failure are logged when the
+ * command completes, on the thread that completes it.
+ */
+@Component
+@Order(1)
+@lombok.extern.slf4j.Slf4j
+public class AsyncLoggableMiddleware implements AsyncPipeline.Middleware {
+
+    @Override
+    public <R, C extends Command<R>> CompletableFuture<R> invokeAsync(C command, Next<R> next) {
+        log.debug("Executing command: {}", command);
+
+        CompletableFuture<R> response;
+        try {
+            response = next.invoke();
+        } catch (RuntimeException ex) {
+            response = CompletableFuture.failedFuture(ex);
+        }
+        return response.whenComplete((result, ex) -> {
+            if (ex == null) log.debug("Response for {}: {}", command.getClass().getSimpleName(), result);
+            else {
+                var cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                log.error("Error executing {}: {}", command.getClass().getSimpleName(), cause.getMessage(), cause);
+            }
+        });
+    }
+}
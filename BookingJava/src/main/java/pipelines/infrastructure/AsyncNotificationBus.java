@@ -0,0 +1,164 @@
+package pipelines.infrastructure;
+
+import an.awesome.pipelinr.Notification;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs notification handlers off the publishing thread. Every handler gets its own bounded queue drained by its own
+ * virtual thread, so handlers see notifications in publishing order, a slow handler does not hold up the others and
+ * a handler that throws only loses the notification it failed on.
+ * <p>
+ * What happens when a queue is full is decided by the {@link OverflowPolicy}.
+ */
+@lombok.extern.slf4j.Slf4j
+public final class AsyncNotificationBus implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public enum OverflowPolicy {
+        /** the publisher waits for room in the queue */
+        BLOCK,
+        /** the notification is not delivered to that handler */
+        DROP,
+        /** the publisher runs the handler itself, which slows it down to the pace of the handler */
+        CALLER_RUNS
+    }
+
+    public record HandlerStats(String handler, int queued, long handled, long failed, long dropped, long ranByCaller) {}
+
+    // marks the end of a queue on close
+    private static final Notification STOP = new Notification() {};
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Map<Notification.Handler<?>, QueuedHandler> queues = new IdentityHashMap<>();
+    // publishers check closed and queue under the read lock, so nothing is queued behind STOP
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    public AsyncNotificationBus(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return handler that queues notifications for {@code handler}; the same one for every call with that handler
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public synchronized Notification.Handler queued(Notification.Handler handler) {
+        if (closed) throw new IllegalStateException("The notification bus is closed");
+        return queues.computeIfAbsent(handler, QueuedHandler::new);
+    }
+
+    public synchronized List<HandlerStats> stats() {
+        var stats = new ArrayList<HandlerStats>(queues.size());
+        for (var queue : queues.values()) stats.add(queue.stats());
+        return stats;
+    }
+
+    /**
+     * Stops accepting notifications and waits until every handler has worked off its queue.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        List<QueuedHandler> handlers;
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                handlers = List.copyOf(queues.values());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (var handler : handlers) handler.queue.put(STOP);
+        for (var handler : handlers) handler.worker.join();
+    }
+
+    private final class QueuedHandler implements Notification.Handler<Notification> {
+        private final Notification.Handler<Notification> handler;
+        private final String name;
+        private final BlockingQueue<Notification> queue = new ArrayBlockingQueue<>(capacity);
+        private final Thread worker;
+        private final LongAdder handled = new LongAdder(), failed = new LongAdder(), dropped = new LongAdder(), ranByCaller = new LongAdder();
+
+        @SuppressWarnings("unchecked")
+        QueuedHandler(Notification.Handler<?> handler) {
+            this.handler = (Notification.Handler<Notification>) handler;
+            this.name = handler.getClass().getSimpleName();
+            this.worker = Thread.ofVirtual().name("notifications-" + name).start(this::drain);
+        }
+
+        @Override
+        public void handle(Notification notification) {
+            boolean deliverHere;
+            lock.readLock().lock();
+            try {
+                deliverHere = enqueue(notification);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (deliverHere) deliver(notification);
+        }
+
+        /**
+         * @return whether the publisher has to deliver the notification itself
+         */
+        private boolean enqueue(Notification notification) {
+            // once closed the worker may be gone, so late notifications are handled by their publisher
+            if (closed) return true;
+            if (queue.offer(notification)) return false;
+            return switch (overflowPolicy) {
+                case BLOCK -> {
+                    try {
+                        queue.put(notification);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped.increment();
+                    }
+                    yield false;
+                }
+                case DROP -> {
+                    dropped.increment();
+                    log.warn("Queue of {} is full, dropped {}", name, notification);
+                    yield false;
+                }
+                case CALLER_RUNS -> {
+                    ranByCaller.increment();
+                    yield true;
+                }
+            };
+        }
+
+        private void drain() {
+            try {
+                for (var notification = queue.take(); notification != STOP; notification = queue.take()) deliver(notification);
+            } catch (InterruptedException e) {
+                log.warn("{} stopped with {} notifications queued", name, queue.size());
+            }
+        }
+
+        private void deliver(Notification notification) {
+            try {
+                handler.handle(notification);
+                handled.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.error("{} failed on {}: {}", name, notification, e.getMessage(), e);
+            }
+        }
+
+        HandlerStats stats() {
+            return new HandlerStats(name, queue.size(), handled.sum(), failed.sum(), dropped.sum(), ranByCaller.sum());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package pipelines.infrastructure;
+
+import an.awesome.pipelinr.Command;
+import an.awesome.pipelinr.Pipeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link Pipeline} that can also send a command without waiting for its result, so the caller's thread is free while
+ * the command is in flight and several commands can run at once.
+ */
+public interface AsyncPipeline extends Pipeline {
+    /**
+     * @return future completed with the result of the command, or with what its handler or a middleware threw
+     */
+    <R, C extends Command<R>> CompletableFuture<R> sendAsync(C command);
+
+    /**
+     * Asynchronous counterpart of {@link Command.Handler}, for commands whose work can complete on another thread.
+     */
+    @FunctionalInterface
+    interface Handler<C extends Command<R>, R> {
+        CompletableFuture<R> handleAsync(C command);
+    }
+
+    /**
+     * Asynchronous counterpart of {@link Command.Middleware}; it must not block on the future returned by {@code next}.
+     */
+    interface Middleware {
+        <R, C extends Command<R>> CompletableFuture<R> invokeAsync(C command, Next<R> next);
+
+        @FunctionalInterface
+        interface Next<R> {
+            CompletableFuture<R> invoke();
+        }
+    }
+
+    /**
+     * @return handler running {@code handler} on {@code executor}; its future fails with exactly what {@code handler} threw
+     */
+    static <C extends Command<R>, R> Handler<C, R> blocking(Command.Handler<C, R> handler, Executor executor) {
+        return command -> {
+            var result = new CompletableFuture<R>();
+            executor.execute(() -> {
+                try {
+                    result.complete(handler.handle(command));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        };
+    }
+}
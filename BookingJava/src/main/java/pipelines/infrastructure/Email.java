@@ -0,0 +1,14 @@
+package pipelines.infrastructure;
+
+import java.util.Objects;
+
+public record Email(String to, String subject, String body) {
+    public Email {
+        Objects.requireNonNull(to, "to");
+        Objects.requireNonNull(subject, "subject");
+        Objects.requireNonNull(body, "body");
+        // both end up in message headers, where a line break would start a header of the sender's choosing
+        if (to.indexOf('\r') >= 0 || to.indexOf('\n') >= 0 || subject.indexOf('\r') >= 0 || subject.indexOf('\n') >= 0)
+            throw new IllegalArgumentException("Recipient and subject must be single lines");
+    }
+}
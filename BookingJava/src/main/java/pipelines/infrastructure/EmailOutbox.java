@@ -0,0 +1,325 @@
+package pipelines.infrastructure;
+
+import pipelines.data.IdGenerator;
+import pipelines.data.journal.FsyncPolicy;
+import pipelines.data.journal.Journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link EmailService} that stores emails in a local outbox and returns once they are on disk; a background
+ * thread hands them to the {@link EmailTransport} in batches.
+ * <p>
+ * The outbox is a {@link Journal} of queued and finished emails in {@code directory}. Emails still queued when the
+ * process stops are sent after the next start, so an email is sent at least once and, after a crash between sending
+ * and recording it, possibly twice. Once the journal has grown past {@link #ROTATE_BYTES} and to more than twice the
+ * emails still queued, they are copied to a fresh journal and the old one is deleted; a large backlog is thus not
+ * rewritten after every batch.
+ * <p>
+ * Refused emails are retried with exponential backoff, with up to 20% jitter so a relay coming back is not hit by
+ * every retry at once, until {@link Retry#maxAttempts()} is reached; emails refused for good are not retried.
+ */
+@lombok.extern.slf4j.Slf4j
+public final class EmailOutbox implements EmailService, AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    static final long ROTATE_BYTES = 16L << 20;
+    private static final int REGION_SIZE = 4 << 20;
+    private static final byte QUEUED = 1, FINISHED = 2;
+    private static final String FILE_PREFIX = "outbox-";
+    private static final int RATE_SECONDS = 10;
+
+    public record Retry(Duration initialBackoff, Duration maxBackoff, int maxAttempts) {
+        public static final Retry DEFAULT = new Retry(Duration.ofSeconds(1), Duration.ofMinutes(5), 12);
+
+        public Retry {
+            if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0)
+                throw new IllegalArgumentException("backoff must not be negative and not shrink");
+            if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+
+        Duration backoff(int attempts) {
+            var backoff = initialBackoff.multipliedBy(1L << Math.min(attempts - 1, 30));
+            if (backoff.compareTo(maxBackoff) > 0 || backoff.isNegative()) backoff = maxBackoff;
+            return Duration.ofNanos((long) (backoff.toNanos() * (0.8 + 0.2 * ThreadLocalRandom.current().nextDouble())));
+        }
+    }
+
+    /**
+     * @param queued        emails waiting to be sent, retries included
+     * @param sentPerSecond emails sent per second over the last ten seconds
+     * @param abandoned     emails refused for good or given up after the last retry
+     */
+    public record Stats(int queued, long sent, long retried, long abandoned, long batches, double sentPerSecond) {}
+
+    private record Pending(UUID id, Email email, int attempts, long dueNanos) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Pending) other).dueNanos);
+        }
+    }
+
+    private final Path directory;
+    private final EmailTransport transport;
+    private final int batchSize;
+    private final Retry retry;
+    private final IdGenerator ids = IdGenerator.timeOrdered();
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final DelayQueue<Pending> queue = new DelayQueue<>();
+    // appends share the read lock, rotating the journal takes the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder sent = new LongAdder(), retried = new LongAdder(), abandoned = new LongAdder(), batches = new LongAdder();
+    // journal bytes of the emails in pending
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final long[] sentPerSecond = new long[RATE_SECONDS], rateSecond = new long[RATE_SECONDS];
+    private final Thread sender;
+    private Journal journal;
+    private long journalNumber;
+    private volatile boolean closed;
+
+    public EmailOutbox(Path directory, EmailTransport transport) throws IOException {
+        this(directory, transport, DEFAULT_BATCH_SIZE, Retry.DEFAULT);
+    }
+
+    public EmailOutbox(Path directory, EmailTransport transport, int batchSize, Retry retry) throws IOException {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        this.directory = Files.createDirectories(directory);
+        this.transport = transport;
+        this.batchSize = batchSize;
+        this.retry = retry;
+        recover();
+        this.sender = Thread.ofPlatform().daemon().name("email-outbox").start(this::sendLoop);
+    }
+
+    @Override
+    public void sendEmail(String to, String subject, String body) {
+        sendEmails(List.of(new Email(to, subject, body)));
+    }
+
+    /**
+     * Stores all emails with one wait for the disk.
+     */
+    @Override
+    public void sendEmails(List<Email> emails) {
+        if (emails.isEmpty()) return;
+        lock.readLock().lock();
+        try {
+            if (closed) throw new IllegalStateException("The email outbox is closed");
+            var queued = new ArrayList<Pending>(emails.size());
+            long position = 0;
+            for (var email : emails) {
+                var entry = new Pending(ids.nextId(), email, 0, System.nanoTime());
+                var record = encode(entry);
+                position = journal.appendRecord(record);
+                pendingBytes.addAndGet(record.length);
+                queued.add(entry);
+            }
+            journal.awaitDurable(position);
+            for (var entry : queued) {
+                pending.put(entry.id(), entry);
+                queue.add(entry);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Stats stats() {
+        long now = System.currentTimeMillis() / 1000, recent = 0;
+        synchronized (sentPerSecond) {
+            for (int i = 0; i < RATE_SECONDS; i++)
+                if (now - rateSecond[i] < RATE_SECONDS) recent += sentPerSecond[i];
+        }
+        return new Stats(pending.size(), sent.sum(), retried.sum(), abandoned.sum(), batches.sum(), (double) recent / RATE_SECONDS);
+    }
+
+    private void sendLoop() {
+        var batch = new ArrayList<Pending>(batchSize);
+        while (!closed) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                send(batch);
+                if (journal.position() > Math.max(ROTATE_BYTES, 2 * pendingBytes.get())) rotate();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException | IOException e) {
+                log.error("Email outbox failed: {}", e.getMessage(), e);
+                batch.forEach(queue::add);
+            }
+            batch.clear();
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        List<EmailTransport.Outcome> outcomes;
+        try {
+            outcomes = transport.send(batch.stream().map(Pending::email).toList());
+        } catch (IOException e) {
+            log.warn("Sending {} emails failed, retrying: {}", batch.size(), e.getMessage());
+            outcomes = Collections.nCopies(batch.size(), EmailTransport.Outcome.RETRY);
+        }
+        batches.increment();
+
+        lock.readLock().lock();
+        try {
+            int delivered = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                var entry = batch.get(i);
+                var outcome = outcomes.get(i);
+                if (outcome == EmailTransport.Outcome.RETRY && entry.attempts() + 1 < retry.maxAttempts()) {
+                    var again = new Pending(entry.id(), entry.email(), entry.attempts() + 1,
+                            System.nanoTime() + retry.backoff(entry.attempts() + 1).toNanos());
+                    pending.put(again.id(), again);
+                    queue.add(again);
+                    retried.increment();
+                    continue;
+                }
+                if (outcome == EmailTransport.Outcome.SENT) delivered++;
+                else {
+                    abandoned.increment();
+                    log.error("Giving up on email to {} after {} attempts ({})", entry.email().to(), entry.attempts() + 1, outcome);
+                }
+                // losing this record in a crash only means the email is sent once more
+                journal.appendRecord(finished(entry.id()));
+                if (pending.remove(entry.id()) != null) pendingBytes.addAndGet(-encode(entry).length);
+            }
+            sent.add(delivered);
+            countSent(delivered);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void countSent(int count) {
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_SECONDS);
+        synchronized (sentPerSecond) {
+            if (rateSecond[slot] != second) {
+                rateSecond[slot] = second;
+                sentPerSecond[slot] = 0;
+            }
+            sentPerSecond[slot] += count;
+        }
+    }
+
+    /**
+     * Loads the emails still queued in every outbox journal and moves them to a new one.
+     */
+    private void recover() throws IOException {
+        var files = journals();
+        var recovered = new LinkedHashMap<UUID, Email>();
+        for (var file : files) {
+            try (var old = new Journal(file, FsyncPolicy.perWrite(), REGION_SIZE)) {
+                old.replayRecords(old.start(), record -> {
+                    var id = new UUID(record.getLong(1), record.getLong(9));
+                    if (record.get(0) == QUEUED) recovered.put(id, decode(record));
+                    else recovered.remove(id);
+                });
+            }
+        }
+        journalNumber = files.isEmpty() ? 0 : number(files.getLast());
+        long now = System.nanoTime();
+        recovered.forEach((id, email) -> {
+            var entry = new Pending(id, email, 0, now);
+            pending.put(id, entry);
+            pendingBytes.addAndGet(encode(entry).length);
+        });
+        queue.addAll(pending.values());
+        if (!recovered.isEmpty()) log.info("Recovered {} queued emails from the outbox", recovered.size());
+        rotate();
+    }
+
+    private void rotate() throws IOException {
+        lock.writeLock().lock();
+        try {
+            var previous = journals();
+            var next = new Journal(directory.resolve(FILE_PREFIX + ++journalNumber + ".log"), FsyncPolicy.batch(), REGION_SIZE);
+            for (var entry : pending.values()) next.appendRecord(encode(entry));
+            next.flush();
+            if (journal != null) journal.close();
+            journal = next;
+            // the queued emails are safe in the new journal, so the old ones can go
+            for (var file : previous) Files.delete(file);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<Path> journals() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches(FILE_PREFIX + "\\d+\\.log"))
+                    .sorted(Comparator.comparingLong(EmailOutbox::number))
+                    .toList();
+        }
+    }
+
+    private static long number(Path file) {
+        var name = file.getFileName().toString();
+        return Long.parseLong(name, FILE_PREFIX.length(), name.length() - 4, 10);
+    }
+
+    private static byte[] encode(Pending entry) {
+        var email = entry.email();
+        byte[] to = email.to().getBytes(StandardCharsets.UTF_8), subject = email.subject().getBytes(StandardCharsets.UTF_8),
+                body = email.body().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(17 + 3 * Integer.BYTES + to.length + subject.length + body.length)
+                .put(QUEUED).putLong(entry.id().getMostSignificantBits()).putLong(entry.id().getLeastSignificantBits())
+                .putInt(to.length).put(to).putInt(subject.length).put(subject).putInt(body.length).put(body)
+                .array();
+    }
+
+    private static byte[] finished(UUID id) {
+        return ByteBuffer.allocate(17).put(FINISHED).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+
+    private static Email decode(ByteBuffer record) {
+        record.position(17);
+        return new Email(string(record), string(record), string(record));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stops sending after the current batch. Emails still queued stay in the outbox for the next start.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sender.interrupt();
+        sender.join();
+        try (transport) {
+            journal.close();
+        }
+    }
+}
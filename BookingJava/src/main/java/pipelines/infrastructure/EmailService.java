@@ -1,5 +1,11 @@
 package pipelines.infrastructure;
 
+import java.util.List;
+
 public interface EmailService {
     void sendEmail(String to, String subject, String body);
+
+    default void sendEmails(List<Email> emails) {
+        for (var email : emails) sendEmail(email.to(), email.subject(), email.body());
+    }
 }
@@ -0,0 +1,47 @@
+package pipelines.infrastructure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Text with {@code {field}} placeholders, split into literal parts and field accessors once, so rendering only
+ * appends strings instead of parsing a format on every message.
+ */
+public final class EmailTemplate<T> {
+    private final String[] literals;
+    private final List<Function<T, ?>> fields;
+    private final int literalLength;
+
+    private EmailTemplate(String[] literals, List<Function<T, ?>> fields) {
+        this.literals = literals;
+        this.fields = fields;
+        int length = 0;
+        for (var literal : literals) length += literal.length();
+        this.literalLength = length;
+    }
+
+    /**
+     * @param fields accessor of the value named by a placeholder; it may throw {@link IllegalArgumentException} for unknown names
+     */
+    public static <T> EmailTemplate<T> compile(String pattern, Function<String, ? extends Function<T, ?>> fields) {
+        var literals = new ArrayList<String>();
+        var accessors = new ArrayList<Function<T, ?>>();
+        int from = 0;
+        for (int open = pattern.indexOf('{'); open >= 0; open = pattern.indexOf('{', from)) {
+            int close = pattern.indexOf('}', open);
+            if (close < 0) throw new IllegalArgumentException("Unclosed placeholder at " + open + ": " + pattern);
+            literals.add(pattern.substring(from, open));
+            accessors.add(fields.apply(pattern.substring(open + 1, close)));
+            from = close + 1;
+        }
+        literals.add(pattern.substring(from));
+        return new EmailTemplate<>(literals.toArray(String[]::new), List.copyOf(accessors));
+    }
+
+    public String render(T value) {
+        var text = new StringBuilder(literalLength + 16 * fields.size());
+        for (int i = 0; i < fields.size(); i++) text.append(literals[i]).append(fields.get(i).apply(value));
+        return text.append(literals[fields.size()]).toString();
+    }
+}
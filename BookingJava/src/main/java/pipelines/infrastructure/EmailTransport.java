@@ -0,0 +1,26 @@
+package pipelines.infrastructure;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Hands emails to a mail relay.
+ */
+public interface EmailTransport extends AutoCloseable {
+    enum Outcome {
+        SENT,
+        /** refused for now, e.g. with a 4xx reply; worth trying again later */
+        RETRY,
+        /** refused for good, e.g. with a 5xx reply */
+        REJECTED
+    }
+
+    /**
+     * @return outcome of every email, in the order given
+     * @throws IOException when the relay could not be reached or the connection broke, so none of the outcomes is known
+     */
+    List<Outcome> send(List<Email> emails) throws IOException;
+
+    @Override
+    default void close() throws IOException {}
+}
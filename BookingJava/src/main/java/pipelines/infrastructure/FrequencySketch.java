@@ -0,0 +1,53 @@
+package pipelines.infrastructure;
+
+/**
+ * Count-min sketch estimating how often a key was asked for, in four rows of 4-bit saturating counters.
+ * Every {@code 10 × width} increments all counters are halved, so keys that were popular a while ago fade out.
+ */
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int width) {
+        int size = Integer.highestOneBit((Math.max(256, width) - 1) << 1);
+        counters = new byte[DEPTH * size];
+        mask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    void increment(Object key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(row, hash);
+            if (counters[index] < MAX_COUNT) {
+                counters[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) reset();
+    }
+
+    int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) frequency = Math.min(frequency, counters[index(row, hash)]);
+        return frequency;
+    }
+
+    private int index(int row, int hash) {
+        int h = hash * SEEDS[row];
+        return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+    }
+
+    private void reset() {
+        for (int i = 0; i < counters.length; i++) counters[i] >>= 1;
+        additions /= 2;
+    }
+}
@@ -0,0 +1,233 @@
+package pipelines.infrastructure;
+
+import an.awesome.pipelinr.Command;
+import an.awesome.pipelinr.CommandHandlerNotFoundException;
+import an.awesome.pipelinr.Notification;
+import an.awesome.pipelinr.Pipeline;
+import org.springframework.core.ResolvableType;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * {@link Pipeline} that resolves handlers once instead of on every send, as {@code Pipelinr} does: {@link #refresh()}
+ * maps every command class to its handler wrapped in the middleware chain, and every notification class to its
+ * handlers, so sending is a single map lookup.
+ * <p>
+ * Handlers are selected by the type argument of their {@code Handler} interface; a {@code matches} override is not
+ * consulted. Middlewares run in the order supplied, the first one outermost, and notification handlers one after the
+ * other until the first one throws, both as in {@code Pipelinr}. The suppliers are first read by {@link #refresh()}
+ * or, without it, by the first send, so handlers may depend on the pipeline themselves.
+ * <p>
+ * {@link #sendAsync} runs a command through the {@link AsyncPipeline.Middleware}s to its {@link AsyncPipeline.Handler}
+ * or, for commands that only have a blocking handler, to that handler started on the executor, by default on a
+ * virtual thread of its own. The blocking middlewares only wrap {@link #send}.
+ */
+public final class HandlerRegistry implements AsyncPipeline {
+    private static final Executor VIRTUAL_THREADS = Thread::startVirtualThread;
+
+    private final Supplier<Stream<Command.Handler>> commandHandlers;
+    private final Supplier<Stream<Command.Middleware>> middlewares;
+    private final Supplier<Stream<Notification.Handler>> notificationHandlers;
+    private final UnaryOperator<Notification.Handler> notificationDispatch;
+    private final Supplier<Stream<AsyncPipeline.Handler>> asyncHandlers;
+    private final Supplier<Stream<AsyncPipeline.Middleware>> asyncMiddlewares;
+    private final Executor blockingHandlers;
+    private volatile Routes routes;
+
+    public HandlerRegistry(Supplier<Stream<Command.Handler>> commandHandlers,
+                           Supplier<Stream<Command.Middleware>> middlewares,
+                           Supplier<Stream<Notification.Handler>> notificationHandlers) {
+        this(commandHandlers, middlewares, notificationHandlers, UnaryOperator.identity());
+    }
+
+    /**
+     * @param notificationDispatch wraps every notification handler once its notification type is resolved,
+     *                             e.g. with {@link AsyncNotificationBus#queued} to run it asynchronously
+     */
+    public HandlerRegistry(Supplier<Stream<Command.Handler>> commandHandlers,
+                           Supplier<Stream<Command.Middleware>> middlewares,
+                           Supplier<Stream<Notification.Handler>> notificationHandlers,
+                           UnaryOperator<Notification.Handler> notificationDispatch) {
+        this(commandHandlers, middlewares, notificationHandlers, notificationDispatch, Stream::of, Stream::of, VIRTUAL_THREADS);
+    }
+
+    private HandlerRegistry(Supplier<Stream<Command.Handler>> commandHandlers,
+                            Supplier<Stream<Command.Middleware>> middlewares,
+                            Supplier<Stream<Notification.Handler>> notificationHandlers,
+                            UnaryOperator<Notification.Handler> notificationDispatch,
+                            Supplier<Stream<AsyncPipeline.Handler>> asyncHandlers,
+                            Supplier<Stream<AsyncPipeline.Middleware>> asyncMiddlewares,
+                            Executor blockingHandlers) {
+        this.commandHandlers = commandHandlers;
+        this.middlewares = middlewares;
+        this.notificationHandlers = notificationHandlers;
+        this.notificationDispatch = notificationDispatch;
+        this.asyncHandlers = asyncHandlers;
+        this.asyncMiddlewares = asyncMiddlewares;
+        this.blockingHandlers = blockingHandlers;
+    }
+
+    /**
+     * @param blockingHandlers runs the blocking handlers of commands sent with {@link #sendAsync} that have no asynchronous one
+     * @return registry that also routes {@link #sendAsync} to {@code handlers} through {@code middlewares}
+     */
+    public HandlerRegistry withAsync(Supplier<Stream<AsyncPipeline.Handler>> handlers,
+                                     Supplier<Stream<AsyncPipeline.Middleware>> middlewares,
+                                     Executor blockingHandlers) {
+        return new HandlerRegistry(commandHandlers, this.middlewares, notificationHandlers, notificationDispatch,
+                handlers, middlewares, blockingHandlers);
+    }
+
+    @FunctionalInterface
+    private interface Chain {
+        Object invoke(Command<?> command);
+    }
+
+    @FunctionalInterface
+    private interface AsyncChain {
+        CompletableFuture<?> invoke(Command<?> command);
+    }
+
+    private static final Chain NO_HANDLER = command -> null;
+    private static final AsyncChain NO_ASYNC_HANDLER = command -> null;
+
+    // the concurrent maps start as copies of the declared ones and also receive subtypes on their first send
+    private record Routes(Map<Class<?>, Chain> commands, Map<Class<?>, Notification.Handler[]> notifications,
+                          Map<Class<?>, AsyncChain> asyncCommands,
+                          Map<Class<?>, Chain> handlersByType, Map<Class<?>, Notification.Handler[]> notificationHandlersByType,
+                          Map<Class<?>, AsyncChain> asyncHandlersByType) {}
+
+    /**
+     * Reads the handlers and middlewares and replaces the routes built from them.
+     *
+     * @throws IllegalStateException when a command has more than one handler or what a handler handles cannot be resolved
+     */
+    public HandlerRegistry refresh() {
+        var middlewareList = middlewares.get().toList();
+        var commands = new HashMap<Class<?>, Chain>();
+        var blocking = new HashMap<Class<?>, AsyncPipeline.Handler>();
+        for (var handler : commandHandlers.get().toList()) {
+            var type = commandType(handler, Command.Handler.class);
+            var chain = chain(handler, middlewareList);
+            if (commands.putIfAbsent(type, chain) != null)
+                throw new IllegalStateException("Command %s has more than one handler".formatted(type.getName()));
+            blocking.put(type, AsyncPipeline.blocking(handler, blockingHandlers));
+        }
+
+        var asyncMiddlewareList = asyncMiddlewares.get().toList();
+        var asyncCommands = new HashMap<Class<?>, AsyncChain>();
+        for (var handler : asyncHandlers.get().toList()) {
+            var type = commandType(handler, AsyncPipeline.Handler.class);
+            if (asyncCommands.putIfAbsent(type, asyncChain(handler, asyncMiddlewareList)) != null)
+                throw new IllegalStateException("Command %s has more than one asynchronous handler".formatted(type.getName()));
+        }
+        blocking.forEach((type, handler) -> asyncCommands.computeIfAbsent(type, ignored -> asyncChain(handler, asyncMiddlewareList)));
+
+        var notifications = new HashMap<Class<?>, List<Notification.Handler>>();
+        for (var handler : notificationHandlers.get().toList())
+            notifications.computeIfAbsent(commandType(handler, Notification.Handler.class), type -> new ArrayList<>())
+                    .add(notificationDispatch.apply(handler));
+        var notificationArrays = new HashMap<Class<?>, Notification.Handler[]>();
+        notifications.forEach((type, handlers) -> notificationArrays.put(type, handlers.toArray(Notification.Handler[]::new)));
+
+        routes = new Routes(new ConcurrentHashMap<>(commands), new ConcurrentHashMap<>(notificationArrays), new ConcurrentHashMap<>(asyncCommands),
+                Map.copyOf(commands), Map.copyOf(notificationArrays), Map.copyOf(asyncCommands));
+        return this;
+    }
+
+    private static Class<?> commandType(Object handler, Class<?> handlerInterface) {
+        var type = ResolvableType.forClass(handler.getClass()).as(handlerInterface).resolveGeneric(0);
+        if (type == null) throw new IllegalStateException("Cannot resolve what %s handles".formatted(handler.getClass().getName()));
+        return type;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Chain chain(Command.Handler handler, List<Command.Middleware> middlewares) {
+        Chain chain = handler::handle;
+        for (var middleware : middlewares.reversed()) {
+            var next = chain;
+            chain = command -> middleware.invoke((Command<Object>) command, () -> next.invoke(command));
+        }
+        return chain;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AsyncChain asyncChain(AsyncPipeline.Handler handler, List<AsyncPipeline.Middleware> middlewares) {
+        AsyncChain chain = handler::handleAsync;
+        for (var middleware : middlewares.reversed()) {
+            var next = chain;
+            chain = command -> middleware.invokeAsync((Command<Object>) command, () -> (CompletableFuture<Object>) next.invoke(command));
+        }
+        return chain;
+    }
+
+    private Routes routes() {
+        var result = routes;
+        if (result == null) {
+            synchronized (this) {
+                result = routes;
+                if (result == null) result = refresh().routes;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R, C extends Command<R>> R send(C command) {
+        var routes = routes();
+        var chain = routes.commands().get(command.getClass());
+        if (chain == null) chain = routes.commands().computeIfAbsent(command.getClass(), type -> inherited(routes.handlersByType(), type, NO_HANDLER));
+        if (chain == NO_HANDLER) throw new CommandHandlerNotFoundException(command);
+        return (R) chain.invoke(command);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R, C extends Command<R>> CompletableFuture<R> sendAsync(C command) {
+        try {
+            var routes = routes();
+            var chain = routes.asyncCommands().get(command.getClass());
+            if (chain == null)
+                chain = routes.asyncCommands().computeIfAbsent(command.getClass(), type -> inherited(routes.asyncHandlersByType(), type, NO_ASYNC_HANDLER));
+            if (chain == NO_ASYNC_HANDLER) throw new CommandHandlerNotFoundException(command);
+            return (CompletableFuture<R>) chain.invoke(command);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <N extends Notification> void send(N notification) {
+        var routes = routes();
+        var handlers = routes.notifications().get(notification.getClass());
+        if (handlers == null)
+            handlers = routes.notifications().computeIfAbsent(notification.getClass(), type -> inheritedHandlers(routes.notificationHandlersByType(), type));
+        for (var handler : handlers) handler.handle(notification);
+    }
+
+    // a command that is a subtype of the handled one, which records cannot be, is routed on its first send
+    private static <T> T inherited(Map<Class<?>, T> handlers, Class<?> type, T none) {
+        T found = none;
+        for (var entry : handlers.entrySet())
+            if (entry.getKey().isAssignableFrom(type)) {
+                if (found != none) throw new IllegalStateException("Command %s has more than one handler".formatted(type.getName()));
+                found = entry.getValue();
+            }
+        return found;
+    }
+
+    private static Notification.Handler[] inheritedHandlers(Map<Class<?>, Notification.Handler[]> handlers, Class<?> type) {
+        var found = new ArrayList<Notification.Handler>();
+        for (var entry : handlers.entrySet())
+            if (entry.getKey().isAssignableFrom(type)) found.addAll(Arrays.asList(entry.getValue()));
+        return found.toArray(Notification.Handler[]::new);
+    }
+}
@@ -1,19 +1,22 @@
 package pipelines.infrastructure;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.javalin.json.JsonMapper;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.*;
 import java.lang.reflect.Type;
+import java.util.stream.Stream;
 
 class JacksonJsonMapper implements JsonMapper {
 
     private final ObjectMapper mapper;
+    // flushing after every element would turn each streamed row into a separate network write
+    private final ObjectWriter elementWriter;
 
     public JacksonJsonMapper() {
         mapper = com.fasterxml.jackson.databind.json.JsonMapper.builder()
@@ -25,6 +28,7 @@ class JacksonJsonMapper implements JsonMapper {
                 .defaultPropertyInclusion(JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.USE_DEFAULTS))
                 .addModule(new JavaTimeModule())// support JDK 8 date/time types, etc.
                 .build();
+        elementWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
     @Override
@@ -54,6 +58,30 @@ class JacksonJsonMapper implements JsonMapper {
         }
     }
 
+    /**
+     * Writes the elements as a JSON array while the stream produces them, without buffering the whole document.
+     */
+    @Override
+    public void writeToOutputStream(@NotNull Stream<?> stream, @NotNull OutputStream outputStream) {
+        try (stream; var generator = mapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            for (var iterator = stream.iterator(); iterator.hasNext(); )
+                elementWriter.writeValue(generator, iterator.next());
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    byte[] toJsonBytes(Object obj) {
+        try {
+            return mapper.writeValueAsBytes(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public @NotNull String toJsonString(@NotNull Object obj, @NotNull Type type) {
         try {
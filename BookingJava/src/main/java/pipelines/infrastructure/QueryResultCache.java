@@ -0,0 +1,243 @@
+package pipelines.infrastructure;
+
+import pipelines.commands.GetBookingsQuery;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Booking listings already encoded as JSON, keyed by the normalized query and bounded by the bytes they hold.
+ * <p>
+ * Hits are served from a concurrent map without locking. Every lookup is recorded in a {@link ReadBuffer} and
+ * replayed into the recency order and the {@link FrequencySketch} in batches under the maintenance lock, so readers
+ * wait neither for each other nor for writes. The least recently used entries make room for new ones, but only when
+ * the new query was asked for more often than the entries it would evict (TinyLFU admission), so a burst of one-off
+ * queries cannot flush the popular ones.
+ * <p>
+ * Every committed write drops exactly the entries whose filter the changed booking matched before or matches after.
+ * Entries are indexed by the value of one equality condition of their filter, so a write only tests the entries for
+ * the values it touches and those filtering without an equality. A result is returned but not stored when a write
+ * committed while it was loading could have changed it.
+ */
+public class QueryResultCache {
+    public static final long DEFAULT_MAX_BYTES = 32L << 20;
+    // map entry, key and array headers next to the JSON itself
+    private static final int ENTRY_OVERHEAD = 200;
+    private static final int AVERAGE_ENTRY_BYTES = 2048;
+
+    public record Stats(long hits, long misses, long evictions, long invalidations, long rejections, int entries, long bytes) {}
+
+    private record Key(Map<String, DataFilter<?>> filter, List<SortField> sort, Page page) {
+        static Key of(GetBookingsQuery query) {
+            var sort = new ArrayList<SortField>();
+            if (query.sort() != null) query.sort().forEach(sort::add);
+            return new Key(query.filter() == null || query.filter().isEmpty() ? Map.of() : Map.copyOf(query.filter()),
+                    List.copyOf(sort), query.page() == null ? Page.ALL : query.page());
+        }
+
+        /**
+         * @return an equality every booking the filter matches satisfies, or {@code null} when it has none
+         */
+        Anchor anchor() {
+            Anchor anchor = null;
+            for (var condition : filter.entrySet()) {
+                Object value = switch (condition.getValue()) {
+                    case StringFilter f when f.operator() == Operator.EQ -> f.value();
+                    case DateFilter f when f.operator() == Operator.EQ -> f.value();
+                    case UuidFilter f when f.operator() == Operator.EQ -> f.value();
+                    default -> null;
+                };
+                if (value != null && (anchor == null || condition.getKey().compareTo(anchor.field()) < 0))
+                    anchor = new Anchor(condition.getKey(), value);
+            }
+            return anchor;
+        }
+    }
+
+    private record Anchor(String field, Object value) {}
+
+    private static final class Load {
+        final Key key;
+        volatile boolean stale;
+
+        Load(Key key) {
+            this.key = key;
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final ConcurrentHashMap<Key, byte[]> entries = new ConcurrentHashMap<>();
+    private final Set<Load> loading = ConcurrentHashMap.newKeySet();
+    private final ReadBuffer<Key> reads = new ReadBuffer<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final JacksonJsonMapper json = new JacksonJsonMapper();
+
+    // guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, byte[]> recency = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Map<Object, Set<Key>>> byValue = new HashMap<>();
+    private final Set<Key> unanchored = new HashSet<>();
+    private final FrequencySketch sketch;
+    private long bytes;
+    private long evictions, invalidations, rejections;
+
+    /**
+     * @param maxBytes upper bound of the JSON held, including an estimate of the per-entry overhead;
+     *                 a single result larger than an eighth of it is never stored
+     */
+    public QueryResultCache(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("maxBytes must not be negative");
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, maxBytes / AVERAGE_ENTRY_BYTES));
+    }
+
+    /**
+     * Subscribes to the writes of {@code repository}, which has to be the one the cached results are read from.
+     */
+    public QueryResultCache invalidatedBy(BookingRepository repository) {
+        repository.onChange(this::invalidate);
+        return this;
+    }
+
+    /**
+     * @return the JSON array of the bookings {@code query} selects, from the cache or encoded from {@code loader}
+     */
+    public byte[] get(GetBookingsQuery query, Function<GetBookingsQuery, List<Booking>> loader) {
+        var key = Key.of(query);
+        var cached = entries.get(key);
+        record(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        // a write whose listener misses this load was committed before the loader reads the repository
+        var load = new Load(key);
+        loading.add(load);
+        byte[] encoded;
+        try {
+            encoded = json.toJsonBytes(loader.apply(query));
+        } catch (RuntimeException e) {
+            loading.remove(load);
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            loading.remove(load);
+            if (!load.stale) admit(key, encoded);
+        } finally {
+            lock.unlock();
+        }
+        return encoded;
+    }
+
+    private void record(Key key) {
+        if (reads.offer(key) || !lock.tryLock()) return;
+        try {
+            drainReads();
+        } finally {
+            lock.unlock();
+        }
+        reads.offer(key);
+    }
+
+    private void drainReads() {
+        reads.drainTo(key -> {
+            sketch.increment(key);
+            recency.get(key);
+        });
+    }
+
+    private void admit(Key key, byte[] value) {
+        drainReads();
+        long weight = weight(value);
+        if (weight > maxEntryBytes) {
+            rejections++;
+            return;
+        }
+        remove(key);
+
+        // the candidate has to be asked for more often than every entry it would push out
+        var victims = new ArrayList<Key>();
+        long freed = 0;
+        int frequency = sketch.frequency(key);
+        for (var iterator = recency.entrySet().iterator(); bytes - freed + weight > maxBytes; ) {
+            var eldest = iterator.next();
+            if (sketch.frequency(eldest.getKey()) >= frequency) {
+                rejections++;
+                return;
+            }
+            victims.add(eldest.getKey());
+            freed += weight(eldest.getValue());
+        }
+        for (var victim : victims) remove(victim);
+        evictions += victims.size();
+
+        recency.put(key, value);
+        entries.put(key, value);
+        bytes += weight;
+        var anchor = key.anchor();
+        if (anchor == null) unanchored.add(key);
+        else byValue.computeIfAbsent(anchor.field(), field -> new HashMap<>()).computeIfAbsent(anchor.value(), ignored -> new HashSet<>()).add(key);
+    }
+
+    private boolean remove(Key key) {
+        var value = recency.remove(key);
+        if (value == null) return false;
+        entries.remove(key);
+        bytes -= weight(value);
+        var anchor = key.anchor();
+        if (anchor == null) unanchored.remove(key);
+        else {
+            var values = byValue.get(anchor.field());
+            var keys = values.get(anchor.value());
+            keys.remove(key);
+            if (keys.isEmpty()) values.remove(anchor.value());
+            if (values.isEmpty()) byValue.remove(anchor.field());
+        }
+        return true;
+    }
+
+    private void invalidate(BookingChange change) {
+        for (var load : loading)
+            if (!load.stale && change.affects(load.key.filter())) load.stale = true;
+
+        lock.lock();
+        try {
+            // a load finishing now is either marked above or took the lock first and is removed below
+            var candidates = new ArrayList<>(unanchored);
+            byValue.forEach((field, keys) -> {
+                var accessor = Booking.getFieldAccessor(field);
+                if (change.before() != null) candidates.addAll(keys.getOrDefault(accessor.apply(change.before()), Set.of()));
+                if (change.after() != null) candidates.addAll(keys.getOrDefault(accessor.apply(change.after()), Set.of()));
+            });
+            for (var key : candidates)
+                if (change.affects(key.filter()) && remove(key)) invalidations++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long weight(byte[] value) {
+        return value.length + ENTRY_OVERHEAD;
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions, invalidations, rejections, entries.size(), bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package pipelines.infrastructure;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy record of reads, striped by thread like Caffeine's read buffers, so readers of a cache only ever touch a
+ * small ring of their own instead of a shared lock. A single drainer at a time replays the recorded elements into
+ * the cache policy. A read that loses the race for a slot is dropped, which only makes the policy a little less
+ * precise.
+ */
+final class ReadBuffer<E> {
+    private static final int STRIPE_SIZE = 32;
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+    private static final class Stripe<E> {
+        final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPE_SIZE);
+        final AtomicLong writes = new AtomicLong();
+        volatile long reads;
+    }
+
+    private final Stripe<E>[] stripes;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    ReadBuffer() {
+        int count = Integer.highestOneBit(Math.min(64, 4 * Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) stripes[i] = new Stripe<>();
+        mask = count - 1;
+    }
+
+    /**
+     * @return {@code false} when the caller's stripe is full and has to be drained before it records more
+     */
+    boolean offer(E element) {
+        long h = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        var stripe = stripes[(int) (h >>> 32) & mask];
+        long tail = stripe.writes.get();
+        if (tail - stripe.reads >= STRIPE_SIZE) return false;
+        if (stripe.writes.compareAndSet(tail, tail + 1)) stripe.slots.lazySet((int) tail & STRIPE_MASK, element);
+        return true;
+    }
+
+    /**
+     * Hands every recorded element to {@code consumer}. Callers must not drain concurrently.
+     */
+    void drainTo(Consumer<? super E> consumer) {
+        for (var stripe : stripes) {
+            long head = stripe.reads;
+            for (long tail = stripe.writes.get(); head < tail; head++) {
+                int index = (int) head & STRIPE_MASK;
+                var element = stripe.slots.get(index);
+                // slot claimed but not written yet, picked up by the next drain
+                if (element == null) break;
+                stripe.slots.lazySet(index, null);
+                consumer.accept(element);
+            }
+            stripe.reads = head;
+        }
+    }
+}
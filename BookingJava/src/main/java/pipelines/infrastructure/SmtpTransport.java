@@ -0,0 +1,179 @@
+package pipelines.infrastructure;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends plain-text emails over one kept-open SMTP connection, which is opened again after it broke.
+ * <p>
+ * When the relay announces PIPELINING (RFC 2920) the envelope of the next email is written together with the
+ * content of the current one, so a batch costs about one round trip per email instead of four.
+ */
+@lombok.extern.slf4j.Slf4j
+public final class SmtpTransport implements EmailTransport {
+    private final String host;
+    private final int port;
+    private final String sender;
+    private final int timeoutMillis;
+
+    private Socket socket;
+    private BufferedReader in;
+    private Writer out;
+    private boolean pipelining;
+
+    public SmtpTransport(String host, int port, String sender, Duration timeout) {
+        this.host = host;
+        this.port = port;
+        this.sender = sender;
+        this.timeoutMillis = (int) timeout.toMillis();
+    }
+
+    @Override
+    public synchronized List<Outcome> send(List<Email> emails) throws IOException {
+        try {
+            if (socket == null) connect();
+            return pipelining ? sendPipelined(emails) : sendInLockstep(emails);
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+        expect(220, reply());
+        out.write("EHLO localhost\r\n");
+        out.flush();
+        var extensions = new ArrayList<String>();
+        expect(250, reply(extensions));
+        pipelining = extensions.stream().anyMatch(line -> line.regionMatches(true, 4, "PIPELINING", 0, 10));
+        log.info("Connected to SMTP relay {}:{}{}", host, port, pipelining ? " with pipelining" : "");
+    }
+
+    private List<Outcome> sendPipelined(List<Email> emails) throws IOException {
+        var outcomes = new ArrayList<Outcome>(emails.size());
+        writeEnvelope(emails.getFirst());
+        out.flush();
+        for (int i = 0; i < emails.size(); i++) {
+            int mail = reply(), recipient = reply(), data = reply();
+            boolean accepted = data == 354;
+            if (accepted) writeContent(emails.get(i));
+            else out.write("RSET\r\n");
+            // the next envelope travels with this content, so the relay can answer both at once
+            if (i + 1 < emails.size()) writeEnvelope(emails.get(i + 1));
+            out.flush();
+
+            if (accepted) outcomes.add(outcome(reply()));
+            else {
+                reply();
+                outcomes.add(outcome(mail >= 400 ? mail : recipient >= 400 ? recipient : data));
+            }
+        }
+        return outcomes;
+    }
+
+    private List<Outcome> sendInLockstep(List<Email> emails) throws IOException {
+        var outcomes = new ArrayList<Outcome>(emails.size());
+        for (var email : emails) {
+            int code = command("MAIL FROM:<" + sender + ">");
+            if (code < 400) code = command("RCPT TO:<" + email.to() + ">");
+            if (code < 400) code = command("DATA");
+            if (code == 354) {
+                writeContent(email);
+                out.flush();
+                code = reply();
+            } else command("RSET");
+            outcomes.add(outcome(code));
+        }
+        return outcomes;
+    }
+
+    private int command(String line) throws IOException {
+        out.write(line);
+        out.write("\r\n");
+        out.flush();
+        return reply();
+    }
+
+    private void writeEnvelope(Email email) throws IOException {
+        out.write("MAIL FROM:<" + sender + ">\r\nRCPT TO:<" + email.to() + ">\r\nDATA\r\n");
+    }
+
+    private void writeContent(Email email) throws IOException {
+        out.write("From: <" + sender + ">\r\nTo: <" + email.to() + ">\r\nSubject: " + email.subject()
+                + "\r\nContent-Type: text/plain; charset=UTF-8\r\n\r\n");
+        for (var line : email.body().split("\r?\n", -1)) {
+            // a line starting with a dot would otherwise end the message early
+            if (line.startsWith(".")) out.write('.');
+            out.write(line);
+            out.write("\r\n");
+        }
+        out.write(".\r\n");
+    }
+
+    private static Outcome outcome(int code) {
+        return code < 400 ? Outcome.SENT : code < 500 ? Outcome.RETRY : Outcome.REJECTED;
+    }
+
+    private int reply() throws IOException {
+        return reply(null);
+    }
+
+    /**
+     * Reads a possibly multi-line reply.
+     *
+     * @return its status code
+     */
+    private int reply(List<String> lines) throws IOException {
+        while (true) {
+            var line = in.readLine();
+            if (line == null) throw new EOFException("SMTP relay closed the connection");
+            if (line.length() < 3) throw new IOException("Malformed SMTP reply: " + line);
+            if (lines != null) lines.add(line);
+            if (line.length() == 3 || line.charAt(3) != '-') {
+                try {
+                    return Integer.parseInt(line, 0, 3, 10);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed SMTP reply: " + line);
+                }
+            }
+        }
+    }
+
+    private static void expect(int expected, int code) throws IOException {
+        if (code != expected) throw new IOException("SMTP relay answered " + code + " instead of " + expected);
+    }
+
+    private void disconnect() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // the connection is given up either way
+        }
+        socket = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket != null) {
+            try {
+                command("QUIT");
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+        disconnect();
+    }
+}
@@ -6,14 +6,40 @@ import io.javalin.http.HttpStatus;
 import io.javalin.openapi.plugin.OpenApiPlugin;
 import io.javalin.openapi.plugin.redoc.ReDocPlugin;
 import io.javalin.openapi.plugin.swagger.SwaggerPlugin;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.LifeCycle;
 import pipelines.controllers.BookingController;
+import pipelines.data.VersionConflictException;
+import pipelines.domain.NoVacancyException;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 public class WebAppCreator {
+    private static final int ACCEPT_QUEUE_SIZE = 4096;
+
     public static Javalin createJavalinApp(BookingController bookingController, Consumer<JavalinConfig> configBuilder) {
+        return createJavalinApp(bookingController, false, configBuilder);
+    }
+
+    /**
+     * @param virtualThreads whether every request runs on its own virtual thread instead of one of Jetty's pool of at
+     *                       most 250 platform threads; build the controller's pipeline with
+     *                       {@link #blockingHandlers(boolean)} for the same value
+     */
+    public static Javalin createJavalinApp(BookingController bookingController, boolean virtualThreads,
+                                           Consumer<JavalinConfig> configBuilder) {
         var app = Javalin.create(config -> {
+            config.useVirtualThreads = virtualThreads;
+            if (virtualThreads) config.jetty.modifyServer(server -> server.addEventListener(new LifeCycle.Listener() {
+                // with no pool to wait for, clients connect in bursts that overflow the default backlog of 50
+                @Override
+                public void lifeCycleStarting(LifeCycle event) {
+                    for (var connector : server.getConnectors())
+                        if (connector instanceof ServerConnector serverConnector) serverConnector.setAcceptQueueSize(ACCEPT_QUEUE_SIZE);
+                }
+            }));
 
             config.registerPlugin(new OpenApiPlugin(pluginConfig ->
                     pluginConfig.withDefinitionConfiguration((version, definition) ->
@@ -36,8 +62,23 @@ public class WebAppCreator {
         app.exception(IllegalArgumentException.class, (e, ctx) ->
                 ctx.status(HttpStatus.BAD_REQUEST).json(Map.of("error", e.getMessage()))
         );
+        app.exception(NoVacancyException.class, (e, ctx) ->
+                ctx.status(HttpStatus.CONFLICT).json(Map.of("error", e.getMessage()))
+        );
+        app.exception(VersionConflictException.class, (e, ctx) ->
+                ctx.status(HttpStatus.PRECONDITION_FAILED).json(Map.of("error", e.getMessage()))
+        );
 
         app.get("/", ctx -> ctx.redirect("/swagger/?url=/openapi"));
         return app;
     }
+
+    /**
+     * @return where the blocking handlers of commands the controller sends with {@link AsyncPipeline#sendAsync} run:
+     * on the request thread when it is virtual, so blocking on the journal or a relay holds no pooled thread, and
+     * otherwise on a virtual thread of their own, which releases the pooled request thread while they block
+     */
+    public static Executor blockingHandlers(boolean virtualThreads) {
+        return virtualThreads ? Runnable::run : Thread::startVirtualThread;
+    }
 }
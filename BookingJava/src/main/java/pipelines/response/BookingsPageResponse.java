@@ -0,0 +1,9 @@
+package pipelines.response;
+
+import pipelines.domain.Booking;
+
+import java.util.List;
+
+public record BookingsPageResponse(List<Booking> items, String nextCursor, PageLinks _links) {
+
+}
@@ -0,0 +1,3 @@
+package pipelines.response;
+
+public record PageLinks(Link self, Link next) {}
@@ -0,0 +1,137 @@
+package pipelines;
+
+import an.awesome.pipelinr.Notification;
+import org.junit.jupiter.api.Test;
+import pipelines.infrastructure.AsyncNotificationBus;
+import pipelines.infrastructure.AsyncNotificationBus.HandlerStats;
+import pipelines.infrastructure.AsyncNotificationBus.OverflowPolicy;
+import pipelines.infrastructure.HandlerRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class AsyncNotificationBusTest {
+    record Event(int number) implements Notification {}
+
+    /**
+     * Records the events it handles and the threads it ran on; waits for {@code gate} on every event.
+     */
+    record Recorder(List<Integer> events, List<Thread> threads, CountDownLatch gate) implements Notification.Handler<Event> {
+        Recorder(CountDownLatch gate) {
+            this(new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>(), gate);
+        }
+
+        @Override
+        public void handle(Event event) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            threads.add(Thread.currentThread());
+            events.add(event.number());
+        }
+    }
+
+    record Failing() implements Notification.Handler<Event> {
+        @Override
+        public void handle(Event event) {
+            if (event.number() % 2 == 0) throw new IllegalStateException("even");
+        }
+    }
+
+    @Test
+    void testHandlersRunOffThePublisherAndFailIndependently() throws InterruptedException {
+        var bus = new AsyncNotificationBus(16, OverflowPolicy.BLOCK);
+        var gate = new CountDownLatch(1);
+        var recorder = new Recorder(gate);
+        var pipeline = new HandlerRegistry(Stream::of, Stream::of, () -> Stream.of(new Failing(), recorder), bus::queued);
+
+        for (int i = 1; i <= 10; i++) pipeline.send(new Event(i));
+        assertThat(recorder.events()).as("the publisher does not wait for the handler").isEmpty();
+
+        gate.countDown();
+        bus.close();
+        assertThat(recorder.events()).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertThat(recorder.threads()).allMatch(Thread::isVirtual).doesNotContain(Thread.currentThread());
+        assertThat(bus.stats()).extracting(HandlerStats::handler, HandlerStats::handled, HandlerStats::failed)
+                .containsExactlyInAnyOrder(tuple("Failing", 5L, 5L),
+                        tuple("Recorder", 10L, 0L));
+    }
+
+    @Test
+    void testFullQueueDropsOrRunsOnTheCaller() throws InterruptedException {
+        for (var policy : List.of(OverflowPolicy.DROP, OverflowPolicy.CALLER_RUNS)) {
+            var bus = new AsyncNotificationBus(1, policy);
+            var gate = new CountDownLatch(1);
+            var recorder = new Recorder(gate);
+            var queued = bus.queued(recorder);
+
+            queued.handle(new Event(1));
+            // wait until the worker took the first event, so the second one fills the queue
+            while (bus.stats().getFirst().queued() > 0) Thread.onSpinWait();
+            queued.handle(new Event(2));
+            var caller = Thread.ofPlatform().start(() -> queued.handle(new Event(3)));
+            if (policy == OverflowPolicy.CALLER_RUNS) {
+                caller.join(50);
+                assertThat(caller.isAlive()).as("the caller runs the handler, which waits for the gate").isTrue();
+            } else caller.join();
+
+            gate.countDown();
+            caller.join();
+            bus.close();
+            var stats = bus.stats().getFirst();
+            if (policy == OverflowPolicy.DROP) {
+                assertThat(recorder.events()).containsExactly(1, 2);
+                assertThat(stats.dropped()).isEqualTo(1);
+            } else {
+                assertThat(recorder.events()).containsExactlyInAnyOrder(1, 2, 3);
+                assertThat(recorder.threads()).contains(caller);
+                assertThat(stats.ranByCaller()).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    void testCloseWhilePublishingLosesNothing() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            var bus = new AsyncNotificationBus(4, OverflowPolicy.BLOCK);
+            var recorder = new Recorder(new CountDownLatch(0));
+            var queued = bus.queued(recorder);
+            var publishers = IntStream.range(0, 4).mapToObj(p -> Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 500; i++) queued.handle(new Event(p * 1_000 + i));
+            })).toList();
+
+            bus.close();
+            for (var publisher : publishers) publisher.join();
+            assertThat(recorder.events()).hasSize(4 * 500);
+        }
+    }
+
+    @Test
+    void testFullQueueBlocksThePublisher() throws InterruptedException {
+        var bus = new AsyncNotificationBus(1, OverflowPolicy.BLOCK);
+        var gate = new CountDownLatch(1);
+        var recorder = new Recorder(gate);
+        var queued = bus.queued(recorder);
+
+        queued.handle(new Event(1));
+        while (bus.stats().getFirst().queued() > 0) Thread.onSpinWait();
+        queued.handle(new Event(2));
+        var publisher = Thread.ofPlatform().start(() -> queued.handle(new Event(3)));
+        assertThat(publisher.join(Duration.ofMillis(50))).isFalse();
+
+        gate.countDown();
+        assertThat(publisher.join(Duration.ofSeconds(5))).isTrue();
+        bus.close();
+        assertThat(recorder.events()).containsExactly(1, 2, 3);
+        assertThat(recorder.threads()).doesNotContain(publisher);
+    }
+}
@@ -1,5 +1,6 @@
 package pipelines;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
 import io.javalin.testtools.JavalinTest;
 import org.jetbrains.annotations.NotNull;
@@ -15,6 +16,7 @@ import pipelines.data.InMemoryBookingRepository;
 import pipelines.domain.Booking;
 import pipelines.infrastructure.BookingWebSocketHub;
 import pipelines.infrastructure.EmailService;
+import pipelines.infrastructure.WebAppCreator;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -24,19 +26,21 @@ import java.util.stream.Stream;
 
 import static net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.*;
 import static pipelines.infrastructure.WebAppCreator.createJavalinApp;
 
 class BookingControllerTest {
     private static final UUID notExistingId = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
     private LinkedHashMap<@NotNull UUID, @NotNull Booking> bookings;
+    private InMemoryBookingRepository repository;
+    private BookingWebSocketHub webSocketHub;
     private Javalin app;
 
     @BeforeEach
     void setup() {
         bookings = TestingInfrastructure.getExampleBookings();
 
-        var repository = new InMemoryBookingRepository(bookings) {
+        repository = new InMemoryBookingRepository(bookings) {
             private final AtomicLong counter = new AtomicLong(10L);
 
             @Override
@@ -45,17 +49,14 @@ class BookingControllerTest {
             }
         };
 
-        var bookingController = new BookingController(TestingInfrastructure.createPipeline(repository, mock(EmailService.class)), mock(BookingWebSocketHub.class));
+        webSocketHub = mock(BookingWebSocketHub.class);
+        var bookingController = new BookingController(TestingInfrastructure.createPipeline(repository, mock(EmailService.class)), webSocketHub);
 
         app = createJavalinApp(bookingController, config -> config.showJavalinBanner = false);
     }
 
     private Booking getFirstBooking() {
-        return bookings.values().iterator().next();
-    }
-
-    private Booking getLastBooking() {
-        return bookings.values().stream().reduce((first, second) -> second).orElse(null);
+        return repository.getById(bookings.keySet().iterator().next());
     }
 
     @Test
@@ -71,11 +72,31 @@ class BookingControllerTest {
             try (var postRes = client.post("/bookings", booking)) {
                 assertThat(postRes.code()).isEqualTo(201);
                 assertThat(postRes.body()).isNotNull();
-                assertThatJson(postRes.body().string()).node("bookingId").isEqualTo(getLastBooking().id().toString());
+                assertThatJson(postRes.body().string()).node("bookingId").isEqualTo(new UUID(0L, 10L).toString());
             }
+            assertThat(repository.getById(new UUID(0L, 10L))).isNotNull();
         });
     }
 
+    @Test
+    void testVirtualThreadsRunCommandsOnTheRequestThread() {
+        var senders = new ArrayList<Thread>();
+        var requestThreads = new ArrayList<Thread>();
+        EmailService emailService = (to, subject, body) -> senders.add(Thread.currentThread());
+        var pipeline = TestingInfrastructure.createPipeline(repository, emailService, WebAppCreator.blockingHandlers(true));
+        var virtualApp = createJavalinApp(new BookingController(pipeline, webSocketHub), true, config -> config.showJavalinBanner = false);
+        virtualApp.before("/bookings", ctx -> requestThreads.add(Thread.currentThread()));
+
+        JavalinTest.test(virtualApp, (server, client) -> {
+            var booking = Map.of("hotelName", "TestHotel", "guestName", "John Doe", "email", "email@gmail.com",
+                    "checkIn", "2024-07-01", "checkOut", "2024-07-05");
+            try (var response = client.post("/bookings", booking)) {
+                assertThat(response.code()).isEqualTo(201);
+            }
+        });
+        assertThat(senders).singleElement().matches(Thread::isVirtual, "is virtual").isSameAs(requestThreads.getFirst());
+    }
+
     @Test
     void testGetBooking() {
         JavalinTest.test(app, (server, client) -> {
@@ -89,6 +110,73 @@ class BookingControllerTest {
         });
     }
 
+    @Test
+    void testGetBookingsPage() {
+        JavalinTest.test(app, (server, client) -> {
+            try (var response = client.get("/bookings?sort=checkIn DESC&limit=2&offset=1")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string())
+                        .isArray()
+                        .hasSize(2)
+                        .first().node("guestName").isEqualTo("Bob Johnson");
+            }
+
+            try (var response = client.get("/bookings?limit=-1")) {
+                assertThat(response.code()).isEqualTo(400);
+                assertThat(response.body()).isNotNull();
+                assertThat(response.body().string()).contains("Invalid value for query parameter limit");
+            }
+        });
+    }
+
+    @Test
+    void testGetBookingsWithCursor() {
+        JavalinTest.test(app, (server, client) -> {
+            String next;
+            try (var response = client.get("/bookings?sort=checkIn DESC&limit=2&cursor=")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                var json = response.body().string();
+                assertThatJson(json).node("items").isArray().hasSize(2);
+                assertThatJson(json).node("items[0].guestName").isEqualTo("Charlie Brown");
+                assertThatJson(json).node("_links.next.method").isEqualTo("GET");
+                next = new ObjectMapper().readTree(json).at("/_links/next/href").asText();
+            }
+
+            try (var response = client.get(next.substring(next.indexOf("/bookings")))) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                var json = response.body().string();
+                assertThatJson(json).node("items").isArray().hasSize(1);
+                assertThatJson(json).node("items[0].guestName").isEqualTo("Alice Smith");
+                assertThatJson(json).node("_links.next").isAbsent();
+            }
+
+            try (var response = client.get("/bookings?sort=guestName&cursor=" + next.substring(next.indexOf("cursor=") + 7))) {
+                assertThat(response.code()).isEqualTo(400);
+            }
+
+            // fields after the unique id do not take part in the cursor
+            try (var response = client.get("/bookings?sort=id DESC,checkIn&limit=2&cursor=")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                next = new ObjectMapper().readTree(response.body().string()).at("/_links/next/href").asText();
+            }
+            try (var response = client.get(next.substring(next.indexOf("/bookings")))) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string()).node("items").isArray().hasSize(1);
+            }
+
+            try (var response = client.get("/bookings?cursor=&limit=0")) {
+                assertThat(response.code()).isEqualTo(400);
+                assertThat(response.body()).isNotNull();
+                assertThat(response.body().string()).contains("limit must be positive with cursor");
+            }
+        });
+    }
+
     @Test
     void testGetByIdBooking() {
         JavalinTest.test(app, (server, client) -> {
@@ -142,6 +230,119 @@ class BookingControllerTest {
         });
     }
 
+    @Test
+    void testConditionalUpdatesWithIfMatch() {
+        JavalinTest.test(app, (server, client) -> {
+            var url = "/bookings/" + getFirstBooking().id();
+            String etag;
+            try (var response = client.get(url)) {
+                etag = response.header("ETag");
+                assertThat(etag).startsWith("\"").endsWith("\"");
+            }
+
+            try (var response = client.patch(url, Map.of("guestName", "First"), req -> req.header("If-Match", etag))) {
+                assertThat(response.code()).isEqualTo(204);
+            }
+            try (var response = client.patch(url, Map.of("guestName", "Lost update"), req -> req.header("If-Match", etag))) {
+                assertThat(response.code()).isEqualTo(412);
+                assertThat(response.body().string()).contains("is at version");
+            }
+            assertThat(getFirstBooking().guestName()).isEqualTo("First");
+
+            String current;
+            try (var response = client.get(url)) {
+                current = response.header("ETag");
+                assertThat(current).isNotEqualTo(etag);
+            }
+            var replacement = Map.of("hotelName", "HotelB", "guestName", "GuestB", "email", "new@gmail.com",
+                    "checkIn", "2024-07-10", "checkOut", "2024-07-15");
+            try (var response = client.put(url, replacement, req -> req.header("If-Match", "W/" + current))) {
+                assertThat(response.code()).as("weak tags never match").isEqualTo(412);
+            }
+            try (var response = client.put(url, replacement, req -> req.header("If-Match", current))) {
+                assertThat(response.code()).isEqualTo(204);
+            }
+            try (var response = client.patch(url, Map.of("guestName", "Anyone"), req -> req.header("If-Match", "*"))) {
+                assertThat(response.code()).isEqualTo(204);
+            }
+            try (var response = client.patch("/bookings/" + notExistingId, Map.of("guestName", "Nobody"), req -> req.header("If-Match", "*"))) {
+                assertThat(response.code()).isEqualTo(412);
+            }
+            assertThat(getFirstBooking().hotelName()).isEqualTo("HotelB");
+            assertThat(getFirstBooking().guestName()).isEqualTo("Anyone");
+        });
+    }
+
+    @Test
+    void testConditionalGetAnswersNotModified() {
+        JavalinTest.test(app, (server, client) -> {
+            var url = "/bookings/" + getFirstBooking().id();
+            var list = "/bookings?filter=hotelName neq 'Ritz' and guestName has 'o'&sort=checkIn&limit=2";
+            String bookingTag, listTag;
+            try (var response = client.get(url)) {
+                bookingTag = response.header("ETag");
+            }
+            try (var response = client.get(list)) {
+                listTag = response.header("ETag");
+                assertThat(listTag).startsWith("W/\"");
+            }
+
+            try (var response = client.get(url, req -> req.header("If-None-Match", "\"other\", " + bookingTag))) {
+                assertThat(response.code()).isEqualTo(304);
+                assertThat(response.body().string()).isEmpty();
+                assertThat(response.header("ETag")).isEqualTo(bookingTag);
+            }
+            try (var response = client.get("/bookings?filter=guestName has 'o'  AND hotelName neq 'Ritz'&sort=checkIn&limit=2",
+                    req -> req.header("If-None-Match", listTag))) {
+                assertThat(response.code()).as("same query, conditions reordered").isEqualTo(304);
+            }
+            try (var response = client.get(list.replace("limit=2", "limit=3"), req -> req.header("If-None-Match", listTag))) {
+                assertThat(response.code()).isEqualTo(200);
+            }
+
+            repository.patch(new ArrayList<>(bookings.keySet()).getLast(), Map.of("guestName", "Changed"));
+            try (var response = client.get(list, req -> req.header("If-None-Match", listTag))) {
+                assertThat(response.code()).as("any write changes listings").isEqualTo(200);
+                assertThat(response.header("ETag")).isNotEqualTo(listTag);
+            }
+            try (var response = client.get(url, req -> req.header("If-None-Match", bookingTag))) {
+                assertThat(response.code()).as("other bookings keep their tag").isEqualTo(304);
+            }
+            repository.patch(getFirstBooking().id(), Map.of("guestName", "Changed"));
+            try (var response = client.get(url, req -> req.header("If-None-Match", bookingTag))) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThatJson(response.body().string()).node("guestName").isEqualTo("Changed");
+            }
+        });
+    }
+
+    @Test
+    void testBoundedListingsAreCachedUntilAMatchingWrite() {
+        JavalinTest.test(app, (server, client) -> {
+            var list = "/bookings?sort=guestName&limit=10";
+            String first;
+            try (var response = client.get(list)) {
+                assertThat(response.header("Content-Type")).startsWith("application/json");
+                first = response.body().string();
+            }
+            try (var response = client.get(list)) {
+                assertThat(response.body().string()).isEqualTo(first);
+            }
+            try (var response = client.get("/bookings/query-cache")) {
+                assertThatJson(response.body().string()).isObject()
+                        .containsEntry("hits", 1).containsEntry("misses", 1).containsEntry("entries", 1);
+            }
+
+            repository.patch(getFirstBooking().id(), Map.of("guestName", "Aaron"));
+            try (var response = client.get(list)) {
+                assertThatJson(response.body().string()).node("[0].guestName").isEqualTo("Aaron");
+            }
+            try (var response = client.get("/bookings/query-cache")) {
+                assertThatJson(response.body().string()).isObject().containsEntry("invalidations", 1).containsEntry("misses", 2);
+            }
+        });
+    }
+
     @Test
     void testDeleteBooking() {
         JavalinTest.test(app, (server, client) -> {
@@ -155,7 +356,88 @@ class BookingControllerTest {
                 assertThat(response2.code()).isEqualTo(404);
             }
 
-            assertThat(bookings).hasSize(2);
+            assertThat(repository.get(null, null)).hasSize(2);
+        });
+    }
+
+    @Test
+    void testBatchEndpoints() {
+        JavalinTest.test(app, (server, client) -> {
+            var bookings = List.of(
+                    Map.of("hotelName", "TestHotel", "guestName", "John", "email", "john@gmail.com", "checkIn", "2024-07-01", "checkOut", "2024-07-05"),
+                    Map.of("hotelName", "TestHotel", "guestName", "Jane", "email", "jane@gmail.com", "checkIn", "2024-07-09", "checkOut", "2024-07-05"),
+                    Map.of("hotelName", "TestHotel", "guestName", "Jim", "email", "jim@gmail.com", "checkIn", "2024-07-02", "checkOut", "2024-07-03"));
+            try (var response = client.post("/bookings/batch", bookings)) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                var json = response.body().string();
+                assertThatJson(json).node("succeeded").isEqualTo(2);
+                assertThatJson(json).node("items[0].status").isEqualTo("CREATED");
+                assertThatJson(json).node("items[1].status").isEqualTo("INVALID");
+                assertThatJson(json).node("items[1].error").isEqualTo("checkIn cannot be after checkOut");
+                assertThatJson(json).node("items[2].bookingId").isEqualTo(new UUID(0L, 12L).toString());
+            }
+            verify(webSocketHub, times(1)).broadcast(any());
+            assertThat(repository.get(null, null)).hasSize(5);
+
+            var created = new UUID(0L, 10L);
+            try (var response = client.get("/bookings/batch?ids=%s,%s,%s".formatted(created, notExistingId, getFirstBooking().id()))) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string()).isArray().hasSize(2).first().node("guestName").isEqualTo("John");
+            }
+
+            var updates = List.of(
+                    Map.of("id", created.toString(), "hotelName", "OtherHotel", "guestName", "John", "email", "john@gmail.com", "checkIn", "2024-07-01", "checkOut", "2024-07-05"),
+                    Map.of("id", notExistingId.toString(), "hotelName", "OtherHotel", "guestName", "John", "email", "john@gmail.com", "checkIn", "2024-07-01", "checkOut", "2024-07-05"),
+                    Map.of("id", created.toString(), "hotelName", "OtherHotel", "guestName", "Johnny", "email", "john@gmail.com", "checkIn", "2024-07-01", "checkOut", "2024-07-05"));
+            try (var response = client.put("/bookings/batch", updates)) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                var json = response.body().string();
+                assertThatJson(json).inPath("$.items[*].status").isArray().containsExactly("UPDATED", "NOT_FOUND", "INVALID");
+            }
+            assertThat(repository.getById(created).hotelName()).isEqualTo("OtherHotel");
+
+            try (var response = client.delete("/bookings/batch", List.of(created.toString(), created.toString(), notExistingId.toString()))) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string()).inPath("$.items[*].status").isArray().containsExactly("DELETED", "NOT_FOUND", "NOT_FOUND");
+            }
+            assertThat(repository.getById(created)).isNull();
+
+            try (var response = client.delete("/bookings/batch", List.of("not-a-uuid"))) {
+                assertThat(response.code()).isEqualTo(400);
+            }
+            try (var response = client.post("/bookings/batch", List.of("not an object"))) {
+                assertThat(response.code()).isEqualTo(400);
+            }
+        });
+    }
+
+    @Test
+    void testAggregates() {
+        JavalinTest.test(app, (server, client) -> {
+            try (var response = client.get("/bookings/aggregates/hotels?filter=hotelName neq 'The Overlook'")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string()).isEqualTo(
+                        "[{\"hotelName\":\"Grand Budapest\",\"bookings\":1},{\"hotelName\":\"Hotel California\",\"bookings\":1}]");
+            }
+            try (var response = client.get("/bookings/aggregates/nights?filter=hotelName eq 'Hotel California'")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string()).isEqualTo(
+                        "[{\"hotelName\":\"Hotel California\",\"month\":\"2024-07\",\"nights\":4}]");
+            }
+            try (var response = client.get("/bookings/aggregates/check-ins?filter=checkIn gt '2024-08-01'")) {
+                assertThat(response.code()).isEqualTo(200);
+                assertThat(response.body()).isNotNull();
+                assertThatJson(response.body().string()).inPath("$[*].date").isArray().containsExactly("2024-08-10", "2024-09-20");
+            }
+            try (var response = client.get("/bookings/aggregates/hotels?filter=rooms eq '3'")) {
+                assertThat(response.code()).isEqualTo(400);
+            }
         });
     }
 
@@ -197,6 +479,9 @@ class BookingControllerTest {
                 Arguments.of(modify(validRequest, m -> m.put("email", "emailWithoutAtChar")),
                         "A valid email is required"),
 
+                Arguments.of(modify(validRequest, m -> m.put("email", "email@gmail.com\r\nBcc: everyone@gmail.com")),
+                        "A valid email is required"),
+
                 // Business rule
                 Arguments.of(modify(validRequest, m -> {
                             m.put("checkIn", "2024-07-10");
@@ -0,0 +1,116 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import pipelines.data.*;
+import pipelines.data.columnar.ColumnarBookingRepository;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarBookingRepositoryTest {
+    private static Map<UUID, Booking> randomBookings(int count) {
+        var random = new Random(7);
+        var hotels = List.of("Hilton", "Marriott", "Ritz", "Sheraton");
+        return IntStream.range(0, count).mapToObj(i -> {
+            var checkIn = LocalDate.of(2024, 1, 1).plusDays(random.nextInt(365));
+            return new Booking(new UUID(random.nextLong(), i), hotels.get(random.nextInt(hotels.size())), "Guest " + random.nextInt(500),
+                    "guest" + i + "@example.com", checkIn, checkIn.plusDays(1 + random.nextInt(14)));
+        }).collect(Collectors.toMap(Booking::id, b -> b));
+    }
+
+    private static Stream<Arguments> queries() {
+        return Stream.of(
+                Arguments.of("hotelName eq 'Ritz'", "checkIn DESC, guestName"),
+                Arguments.of("hotelName neq 'Ritz' AND checkOut lte '2024-06-30'", "hotelName, email DESC"),
+                Arguments.of("hotelName has 'o'", "checkOut"),
+                Arguments.of("guestName has '7' AND checkIn gt '2024-03-01'", "guestName DESC"),
+                Arguments.of("email eq 'guest5@example.com'", null),
+                Arguments.of("checkIn eq '2024-02-10'", "id DESC"),
+                Arguments.of("hotelName eq 'Plaza'", "checkIn"),
+                Arguments.of("stay overlaps '2024-05-01..2024-05-07'", "checkOut DESC"),
+                Arguments.of(null, "hotelName DESC, checkIn, id")
+        );
+    }
+
+    @ParameterizedTest(name = "filter={0}, sort={1}")
+    @MethodSource("queries")
+    void testMatchesInMemoryRepository(String filterParam, String sortParam) {
+        var bookings = randomBookings(2_000);
+        var expectedRepo = new InMemoryBookingRepository(bookings);
+        var repo = new ColumnarBookingRepository(bookings);
+        var filter = DataExpressionParser.parseFilter(filterParam, Booking.class);
+        var sort = Cursor.keyOrder(DataExpressionParser.parseSort(sortParam));
+
+        var expected = expectedRepo.get(filter, sort);
+        assertThat(repo.get(filter, sort)).containsExactlyElementsOf(expected);
+        assertThat(repo.get(filter, sort, new Page(10, 25))).containsExactlyElementsOf(expected.subList(Math.min(10, expected.size()), Math.min(35, expected.size())));
+        assertThat(repo.get(filter, null)).containsExactlyInAnyOrderElementsOf(expected);
+
+        // keyset walk
+        var walked = new ArrayList<Booking>();
+        var page = repo.get(filter, sort, new Page(0, 50));
+        while (!page.isEmpty()) {
+            walked.addAll(page);
+            var cursor = Cursor.decode(Cursor.after(sort, page.getLast()).encode());
+            page = repo.get(filter, sort, new Page(0, 50, cursor));
+        }
+        assertThat(walked).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void testWritesReuseRows() {
+        var repo = new ColumnarBookingRepository(16, 1 << 10);
+        var bookings = new ArrayList<>(randomBookings(500).values());
+        bookings.forEach(repo::add);
+
+        for (int i = 0; i < 250; i++) assertThat(repo.delete(bookings.get(i).id())).isTrue();
+        assertThat(repo.delete(bookings.getFirst().id())).isFalse();
+        assertThat(repo.getById(bookings.getFirst().id())).isNull();
+
+        var last = bookings.getLast();
+        assertThat(repo.patch(last.id(), Map.of("hotelName", "Plaza", "guestName", "Zoë"))).isTrue();
+        assertThat(repo.getById(last.id())).isEqualTo(new Booking(last.id(), "Plaza", "Zoë", last.email(), last.checkIn(), last.checkOut()));
+        assertThat(repo.get(Map.of("hotelName", new StringFilter("Plaza", Operator.EQ)), null)).extracting(Booking::id).containsExactly(last.id());
+
+        repo.add(new Booking(new UUID(0L, 1L), "Hilton", "Alice", "alice@example.com", LocalDate.of(2024, 6, 10), LocalDate.of(2024, 6, 15)));
+        assertThat(repo.get(null, null)).hasSize(251);
+        assertThat(repo.offHeapBytes()).isPositive();
+
+        assertThatThrownBy(() -> repo.patch(last.id(), Map.of("checkIn", "2030-01-01")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(repo.getById(last.id()).checkIn()).isEqualTo(last.checkIn());
+    }
+
+    @Test
+    void testReplacedStringsAreReclaimed() {
+        var repo = new ColumnarBookingRepository(16, 1 << 10);
+        var bookings = new ArrayList<>(randomBookings(100).values());
+        bookings.forEach(repo::add);
+        long allocated = repo.offHeapBytes();
+
+        var first = bookings.getFirst();
+        for (int i = 0; i < 1_000; i++) repo.patch(first.id(), Map.of("hotelName", "Hotel " + i));
+        assertThat(repo.offHeapBytes()).as("unchanged strings stay in place").isEqualTo(allocated);
+
+        for (int i = 0; i < 10_000; i++) {
+            var booking = bookings.get(i % bookings.size());
+            repo.patch(booking.id(), Map.of("guestName", "Guest " + i));
+        }
+        for (int i = 0; i < 50; i++) repo.delete(bookings.get(i).id());
+        assertThat(repo.offHeapBytes()).isLessThanOrEqualTo(4 * allocated);
+        assertThat(repo.get(null, null)).hasSize(50);
+        for (int i = 50; i < 100; i++)
+            assertThat(repo.getById(bookings.get(i).id()).guestName()).isEqualTo("Guest " + (9_900 + i));
+        assertThat(repo.get(Map.of("guestName", new StringFilter("Guest 9999", Operator.EQ)), null)).hasSize(1);
+    }
+}
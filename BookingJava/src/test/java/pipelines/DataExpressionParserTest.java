@@ -0,0 +1,63 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DataExpressionParserTest {
+    @Test
+    void testParseFilter() {
+        var filter = DataExpressionParser.parseFilter(
+                "hotelName eq 'Ritz' and checkIn gte '2024-06-01' AND id neq '00000000-0000-0000-0000-000000000001' and guestName has 'O''Brien'",
+                Booking.class);
+
+        assertThat(filter).isEqualTo(Map.of(
+                "hotelName", new StringFilter("Ritz", Operator.EQ),
+                "checkIn", new DateFilter(LocalDate.of(2024, 6, 1), Operator.GTE),
+                "id", new UuidFilter(new UUID(0L, 1L), Operator.NEQ),
+                "guestName", new StringFilter("O'Brien", Operator.IN)
+        ));
+    }
+
+    @Test
+    void testEquivalentExpressionsShareCachedPlan() {
+        var first = DataExpressionParser.parseFilter("hotelName eq 'Grand  Hotel' and guestName has 'smi'", Booking.class);
+        var second = DataExpressionParser.parseFilter("  hotelName   eq 'Grand  Hotel'  and guestName has 'smi' ", Booking.class);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.get("hotelName")).isEqualTo(new StringFilter("Grand  Hotel", Operator.EQ));
+
+        assertThat(DataExpressionParser.parseSort("checkIn DESC,  guestName"))
+                .isSameAs(DataExpressionParser.parseSort("checkIn  DESC, guestName"))
+                .isEqualTo(List.of(new SortField("checkIn", false), new SortField("guestName", true)));
+    }
+
+    @Test
+    void testParseStayOverlaps() {
+        var filter = DataExpressionParser.parseFilter("stay overlaps '2024-06-01..2024-06-10' and hotelName eq 'Ritz'", Booking.class);
+
+        assertThat(filter).isEqualTo(Map.of(
+                "stay", new DateRangeFilter(new DateRange(LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 10)), Operator.OVERLAPS),
+                "hotelName", new StringFilter("Ritz", Operator.EQ)
+        ));
+        assertThatThrownBy(() -> DataExpressionParser.parseFilter("stay overlaps '2024-06-10..2024-06-01'", Booking.class))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DataExpressionParser.parseFilter("stay eq '2024-06-01..2024-06-10'", Booking.class))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testUnknownField() {
+        assertThatThrownBy(() -> DataExpressionParser.parseFilter("room eq '12'", Booking.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unknown field: room");
+    }
+}
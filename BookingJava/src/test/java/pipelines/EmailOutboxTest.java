@@ -0,0 +1,237 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pipelines.domain.Booking;
+import pipelines.infrastructure.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmailOutboxTest {
+    private static final EmailOutbox.Retry FAST_RETRY = new EmailOutbox.Retry(Duration.ofMillis(5), Duration.ofMillis(20), 4);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * SMTP stand-in that reads commands line by line, so pipelined commands are answered in order. Recipients
+     * starting with "reject" are refused for good, those starting with "busy" are refused for now.
+     */
+    static final class SmtpStandIn implements AutoCloseable {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final AtomicInteger connections = new AtomicInteger();
+        final ServerSocket server = new ServerSocket(0);
+        final Thread acceptor = Thread.ofVirtual().start(this::accept);
+
+        SmtpStandIn() throws IOException {}
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    var socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread.ofVirtual().start(() -> serve(socket));
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket; var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 var out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                out.print("220 stand-in\r\n");
+                out.flush();
+                String recipient = null;
+                for (var line = in.readLine(); line != null; line = in.readLine()) {
+                    if (line.startsWith("EHLO")) out.print("250-stand-in\r\n250-PIPELINING\r\n250 8BITMIME\r\n");
+                    else if (line.startsWith("MAIL FROM")) out.print("250 OK\r\n");
+                    else if (line.startsWith("RCPT TO:<reject")) out.print("550 no such user\r\n");
+                    else if (line.startsWith("RCPT TO:<busy")) out.print("451 try again later\r\n");
+                    else if (line.startsWith("RCPT TO")) {
+                        recipient = line;
+                        out.print("250 OK\r\n");
+                    } else if (line.equals("DATA")) {
+                        if (recipient == null) out.print("554 no valid recipients\r\n");
+                        else {
+                            out.print("354 go ahead\r\n");
+                            out.flush();
+                            var message = new StringBuilder();
+                            for (var data = in.readLine(); !".".equals(data); data = in.readLine()) message.append(data).append('\n');
+                            messages.add(message.toString());
+                            out.print("250 queued\r\n");
+                            recipient = null;
+                        }
+                    } else if (line.equals("RSET")) {
+                        recipient = null;
+                        out.print("250 OK\r\n");
+                    } else if (line.equals("QUIT")) {
+                        out.print("221 bye\r\n");
+                        out.flush();
+                        return;
+                    } else out.print("500 unknown command\r\n");
+                    // like a real relay, answers pipelined commands together
+                    if (!in.ready()) out.flush();
+                }
+            } catch (IOException e) {
+                // client went away
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    private static SmtpTransport transport(SmtpStandIn relay) {
+        return new SmtpTransport("localhost", relay.port(), "bookings@example.com", Duration.ofSeconds(5));
+    }
+
+    @Test
+    void testSendsBatchesOverOneConnection() throws Exception {
+        try (var relay = new SmtpStandIn(); var outbox = new EmailOutbox(directory, transport(relay), 50, FAST_RETRY)) {
+            outbox.sendEmails(IntStream.range(0, 120)
+                    .mapToObj(i -> new Email("guest" + i + "@example.com", "Booking Confirmed", "Line one\n.line starting with a dot"))
+                    .toList());
+            outbox.sendEmail("reject@example.com", "Booking Confirmed", "never delivered");
+
+            await(() -> outbox.stats().queued() == 0);
+            assertThat(relay.messages).hasSize(120);
+            assertThat(relay.messages.getFirst())
+                    .contains("To: <guest0@example.com>", "Subject: Booking Confirmed", "\nLine one\n..line starting with a dot\n");
+            assertThat(relay.connections).hasValue(1);
+
+            var stats = outbox.stats();
+            assertThat(stats.sent()).isEqualTo(120);
+            assertThat(stats.abandoned()).isEqualTo(1);
+            assertThat(stats.retried()).isZero();
+            assertThat(stats.sentPerSecond()).isPositive();
+        }
+    }
+
+    @Test
+    void testRetriesWithBackoffAndGivesUpAfterLastAttempt() throws Exception {
+        var failures = new AtomicInteger(2);
+        var busyAttempts = new CopyOnWriteArrayList<Long>();
+        EmailTransport flaky = emails -> {
+            if (failures.getAndDecrement() > 0) throw new IOException("relay down");
+            var outcomes = new ArrayList<EmailTransport.Outcome>();
+            for (var email : emails) {
+                if (email.to().startsWith("busy")) busyAttempts.add(System.nanoTime());
+                outcomes.add(email.to().startsWith("busy") ? EmailTransport.Outcome.RETRY : EmailTransport.Outcome.SENT);
+            }
+            return outcomes;
+        };
+
+        try (var outbox = new EmailOutbox(directory, flaky, 10, FAST_RETRY)) {
+            outbox.sendEmail("alice@example.com", "Hi", "Hello");
+            await(() -> outbox.stats().queued() == 0);
+            assertThat(outbox.stats().sent()).isEqualTo(1);
+            assertThat(outbox.stats().retried()).isEqualTo(2);
+
+            outbox.sendEmail("busy@example.com", "Hi", "Hello");
+            await(() -> outbox.stats().queued() == 0);
+            var stats = outbox.stats();
+            assertThat(stats.abandoned()).as("given up after four attempts").isEqualTo(1);
+            assertThat(stats.retried()).isEqualTo(2 + 3);
+            assertThat(busyAttempts).hasSize(4);
+            // waits of at least 80% of 5, 10 and 20 ms between the attempts
+            assertThat(busyAttempts.get(3) - busyAttempts.get(0)).isGreaterThanOrEqualTo(Duration.ofMillis(4 + 8 + 16).toNanos());
+        }
+    }
+
+    @Test
+    void testQueuedEmailsSurviveRestart() throws Exception {
+        EmailTransport down = emails -> {
+            throw new IOException("relay down");
+        };
+        try (var outbox = new EmailOutbox(directory, down, 10, new EmailOutbox.Retry(Duration.ofHours(1), Duration.ofHours(1), 5))) {
+            outbox.sendEmail("alice@example.com", "Booking Confirmed", "Dear Alice");
+            outbox.sendEmail("bob@example.com", "Booking Confirmed", "Dear Bob");
+            await(() -> outbox.stats().retried() == 2);
+        }
+
+        try (var relay = new SmtpStandIn(); var outbox = new EmailOutbox(directory, transport(relay), 10, FAST_RETRY)) {
+            await(() -> relay.messages.size() == 2);
+            assertThat(relay.messages).anyMatch(message -> message.contains("Dear Alice")).anyMatch(message -> message.contains("Dear Bob"));
+            await(() -> outbox.stats().queued() == 0);
+        }
+        try (var files = Files.list(directory)) {
+            assertThat(files).hasSize(1);
+        }
+        try (var relay = new SmtpStandIn(); var outbox = new EmailOutbox(directory, transport(relay), 10, FAST_RETRY)) {
+            Thread.sleep(200);
+            assertThat(relay.messages).as("finished emails are not sent again").isEmpty();
+            assertThat(outbox.stats().queued()).isZero();
+        }
+    }
+
+    @Test
+    void testLargeBacklogIsNotRewrittenAfterEveryBatch() throws Exception {
+        var refusals = new AtomicInteger(50);
+        EmailTransport busy = emails -> Collections.nCopies(emails.size(),
+                refusals.getAndDecrement() > 0 ? EmailTransport.Outcome.RETRY : EmailTransport.Outcome.SENT);
+        var body = "x".repeat(1 << 20);
+
+        try (var outbox = new EmailOutbox(directory, busy, 4, new EmailOutbox.Retry(Duration.ZERO, Duration.ZERO, 100))) {
+            var journal = journalFiles();
+            // a backlog of more than 16 MiB, each email larger than a sixteenth of it
+            outbox.sendEmails(IntStream.range(0, 20).mapToObj(i -> new Email("guest" + i + "@example.com", "Hi", body)).toList());
+            await(() -> outbox.stats().batches() >= 20);
+            assertThat(journalFiles()).as("backlog kept in place while it is retried").isEqualTo(journal);
+
+            await(() -> outbox.stats().queued() == 0);
+            await(() -> journalFiles().size() == 1 && !journalFiles().equals(journal));
+        }
+    }
+
+    private List<Path> journalFiles() {
+        try (var files = Files.list(directory)) {
+            return files.toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    void testTemplatesRenderFieldsAndRejectHeaderInjection() {
+        var template = EmailTemplate.compile("Dear {guestName}, see you at {hotelName} on {checkIn}.", Booking::getFieldAccessor);
+        var booking = new Booking(UUID.randomUUID(), "Ritz", "Alice", "alice@example.com", LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 3));
+        assertThat(template.render(booking)).isEqualTo("Dear Alice, see you at Ritz on 2024-06-01.");
+
+        assertThatThrownBy(() -> EmailTemplate.compile("Dear {name}", Booking::getFieldAccessor)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new Email("alice@example.com\r\nBcc: everyone@example.com", "Hi", "Hello"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,143 @@
+package pipelines;
+
+import an.awesome.pipelinr.Command;
+import an.awesome.pipelinr.CommandHandlerNotFoundException;
+import an.awesome.pipelinr.Notification;
+import org.junit.jupiter.api.Test;
+import pipelines.infrastructure.AsyncPipeline;
+import pipelines.infrastructure.HandlerRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HandlerRegistryTest {
+    record Greet(String name) implements Command<String> {}
+
+    record Count(List<String> names) implements Command<Integer> {}
+
+    record Unhandled() implements Command<Void> {}
+
+    record Greeted(String name) implements Notification {}
+
+    record GreetHandler(HandlerRegistry pipeline) implements Command.Handler<Greet, String> {
+        @Override
+        public String handle(Greet command) {
+            pipeline.send(new Greeted(command.name()));
+            return "Hello " + command.name();
+        }
+    }
+
+    static class CountHandler implements Command.Handler<Count, Integer> {
+        @Override
+        public Integer handle(Count command) {
+            return command.names().size();
+        }
+    }
+
+    record Recording(String name, List<String> calls) implements Command.Middleware {
+        @Override
+        public <R, C extends Command<R>> R invoke(C command, Next<R> next) {
+            calls.add(name + ">" + command.getClass().getSimpleName());
+            var result = next.invoke();
+            calls.add(name + "<");
+            return result;
+        }
+    }
+
+    record AsyncGreetHandler(List<String> calls) implements AsyncPipeline.Handler<Greet, String> {
+        @Override
+        public CompletableFuture<String> handleAsync(Greet command) {
+            calls.add("async handler");
+            if (command.name().isEmpty()) throw new IllegalArgumentException("Nobody to greet");
+            return CompletableFuture.completedFuture("Hi " + command.name());
+        }
+    }
+
+    record AsyncRecording(String name, List<String> calls) implements AsyncPipeline.Middleware {
+        @Override
+        public <R, C extends Command<R>> CompletableFuture<R> invokeAsync(C command, Next<R> next) {
+            calls.add(name + ">" + command.getClass().getSimpleName());
+            return next.invoke().whenComplete((result, e) -> calls.add(name + "<"));
+        }
+    }
+
+    record Listener(String name, List<String> calls) implements Notification.Handler<Greeted> {
+        @Override
+        public void handle(Greeted notification) {
+            calls.add(name + ":" + notification.name());
+        }
+    }
+
+    @Test
+    void testRoutesCommandsThroughMiddlewaresInOrder() {
+        var calls = new ArrayList<String>();
+        var commandHandlers = new ArrayList<Command.Handler>();
+        var pipeline = new HandlerRegistry(commandHandlers::stream,
+                () -> Stream.of(new Recording("outer", calls), new Recording("inner", calls)),
+                () -> Stream.of(new Listener("first", calls), new Listener("second", calls)));
+        // handlers may depend on the pipeline, as the suppliers are read on the first send
+        commandHandlers.add(new GreetHandler(pipeline));
+        commandHandlers.add(new CountHandler());
+
+        assertThat(pipeline.send(new Greet("Alice"))).isEqualTo("Hello Alice");
+        assertThat(calls).containsExactly("outer>Greet", "inner>Greet", "first:Alice", "second:Alice", "inner<", "outer<");
+        assertThat(pipeline.send(new Count(List.of("a", "b")))).isEqualTo(2);
+        assertThatThrownBy(() -> pipeline.send(new Unhandled())).isInstanceOf(CommandHandlerNotFoundException.class);
+    }
+
+    @Test
+    void testRefreshRejectsTwoHandlersForOneCommand() {
+        var pipeline = new HandlerRegistry(() -> Stream.of(new CountHandler(), new CountHandler()), Stream::of, Stream::of);
+        assertThatThrownBy(pipeline::refresh).isInstanceOf(IllegalStateException.class).hasMessageContaining("Count");
+    }
+
+    @Test
+    void testRefreshPicksUpNewHandlers() {
+        var commandHandlers = new ArrayList<Command.Handler>();
+        var pipeline = new HandlerRegistry(commandHandlers::stream, Stream::of, Stream::of).refresh();
+        assertThatThrownBy(() -> pipeline.send(new Count(List.of()))).isInstanceOf(CommandHandlerNotFoundException.class);
+
+        commandHandlers.add(new CountHandler());
+        pipeline.refresh();
+        assertThat(pipeline.send(new Count(List.of("a")))).isEqualTo(1);
+        pipeline.send(new Greeted("nobody listens"));
+    }
+
+    @Test
+    void testSendsAsynchronouslyThroughAsyncMiddlewares() throws Exception {
+        var calls = new CopyOnWriteArrayList<String>();
+        var counter = new CountHandler() {
+            @Override
+            public Integer handle(Count command) {
+                calls.add("blocking handler on virtual thread: " + Thread.currentThread().isVirtual());
+                if (command.names().isEmpty()) throw new IllegalStateException("Nothing to count");
+                return super.handle(command);
+            }
+        };
+        var pipeline = new HandlerRegistry(() -> Stream.of(counter), () -> Stream.of(new Recording("blocking", calls)), Stream::of)
+                .withAsync(() -> Stream.of(new AsyncGreetHandler(calls)), () -> Stream.of(new AsyncRecording("outer", calls), new AsyncRecording("inner", calls)),
+                        Thread::startVirtualThread);
+
+        assertThat(pipeline.sendAsync(new Greet("Alice")).get()).isEqualTo("Hi Alice");
+        assertThat(calls).containsExactly("outer>Greet", "inner>Greet", "async handler", "inner<", "outer<");
+
+        calls.clear();
+        assertThat(pipeline.sendAsync(new Count(List.of("a", "b"))).get()).isEqualTo(2);
+        assertThat(calls).as("blocking middlewares only wrap send")
+                .containsExactly("outer>Count", "inner>Count", "blocking handler on virtual thread: true", "inner<", "outer<");
+
+        assertThatThrownBy(() -> pipeline.sendAsync(new Count(List.of())).get())
+                .isInstanceOf(ExecutionException.class).cause().isInstanceOf(IllegalStateException.class).hasMessage("Nothing to count");
+        assertThat(pipeline.sendAsync(new Greet(""))).isCompletedExceptionally();
+        assertThat(pipeline.sendAsync(new Unhandled())).failsWithin(Duration.ZERO)
+                .withThrowableOfType(ExecutionException.class).withCauseInstanceOf(CommandHandlerNotFoundException.class);
+    }
+}
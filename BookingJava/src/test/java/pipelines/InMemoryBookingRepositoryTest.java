@@ -1,19 +1,27 @@
 package pipelines;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import pipelines.data.DataFilter;
 import pipelines.data.InMemoryBookingRepository;
 import pipelines.data.*;
 import pipelines.domain.Booking;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class InMemoryBookingRepositoryTest {
     private static InMemoryBookingRepository repository() {
@@ -48,6 +56,39 @@ class InMemoryBookingRepositoryTest {
                         2
                 ),
 
+                Arguments.of("Filter hotelName eq Hilton and checkIn gt 2024-06-10",
+                        Map.of("hotelName", new StringFilter("Hilton", Operator.EQ),
+                                "checkIn", new DateFilter(LocalDate.of(2024, 6, 10), Operator.GT)),
+                        null,
+                        1
+                ),
+
+                Arguments.of("Filter checkIn gte 2024-06-12 and guestName has 'li'",
+                        Map.of("checkIn", new DateFilter(LocalDate.of(2024, 6, 12), Operator.GTE),
+                                "guestName", new StringFilter("li", Operator.IN)),
+                        null,
+                        1
+                ),
+
+                Arguments.of("Filter guestName neq Bob and id neq 3",
+                        Map.of("guestName", new StringFilter("Bob", Operator.NEQ),
+                                "id", new UuidFilter(new UUID(0L, 3L), Operator.NEQ)),
+                        null,
+                        1
+                ),
+
+                Arguments.of("Filter checkIn lt 2024-06-15, sort by hotelName DESC, checkOut",
+                        Map.of("checkIn", new DateFilter(LocalDate.of(2024, 6, 15), Operator.LT)),
+                        List.of(new SortField("hotelName", false), new SortField("checkOut", true)),
+                        2
+                ),
+
+                Arguments.of("Filter hotelName eq Ritz",
+                        Map.of("hotelName", new StringFilter("Ritz", Operator.EQ)),
+                        null,
+                        0
+                ),
+
                 Arguments.of("Filter hotelName eq Hilton, sort by checkIn DESC",
                         Map.of("hotelName", new StringFilter("Hilton", Operator.EQ)),
                         List.of(new SortField("checkIn", false)),
@@ -82,4 +123,346 @@ class InMemoryBookingRepositoryTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBatchWrites() {
+        var repo = repository();
+        var dave = new Booking(new UUID(0L, 4L), "Ritz", "Dave", "dave@example.com", LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 3));
+        var invalid = new Booking(new UUID(0L, 5L), "Ritz", "Eve", "eve@example.com", LocalDate.of(2024, 6, 3), LocalDate.of(2024, 6, 1));
+
+        assertThatThrownBy(() -> repo.addAll(List.of(dave, invalid))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(repo.getById(dave.id())).as("nothing added").isNull();
+
+        repo.addAll(List.of(dave));
+        var ritz = Map.<String, DataFilter<?>>of("hotelName", new StringFilter("Ritz", Operator.EQ));
+        assertThat(repo.get(ritz, null)).containsExactly(dave);
+
+        var moved = new Booking(dave.id(), "Hilton", "Dave", "dave@example.com", dave.checkIn(), dave.checkOut());
+        assertThat(repo.updateAll(List.of(moved, new Booking(new UUID(0L, 9L), "Hilton", "X", "x@example.com", dave.checkIn(), dave.checkOut()))))
+                .containsExactly(true, false);
+        assertThat(repo.get(ritz, null)).isEmpty();
+        assertThat(repo.getByIds(List.of(new UUID(0L, 9L), dave.id()))).containsExactly(null, moved);
+
+        assertThat(repo.deleteAll(List.of(dave.id(), new UUID(0L, 1L), dave.id()))).containsExactly(true, true, false);
+        assertThat(repo.get(null, null)).extracting(Booking::guestName).containsExactlyInAnyOrder("Bob", "Charlie");
+    }
+
+    @Test
+    void testBulkLoadMatchesIncrementalWrites() {
+        var incremental = randomRepository(3_000);
+        var blocks = new ArrayList<List<Booking>>();
+        var all = incremental.get(null, null);
+        for (int from = 0; from < all.size(); from += 1_000) blocks.add(all.subList(from, from + 1_000));
+        var loaded = new InMemoryBookingRepository();
+        loaded.load(blocks);
+
+        for (var filter : List.of("hotelName eq 'Ritz'", "guestName has '12'", "checkIn gt '2024-06-01'", "stay overlaps '2024-07-01..2024-07-05'")) {
+            var parsed = DataExpressionParser.parseFilter(filter, Booking.class);
+            assertThat(loaded.get(parsed, List.of(new SortField("checkOut", false), new SortField("id", true))))
+                    .as(filter).containsExactlyElementsOf(incremental.get(parsed, List.of(new SortField("checkOut", false), new SortField("id", true))));
+        }
+        assertThat(loaded.countNightsPerHotelAndMonth(null)).isEqualTo(incremental.countNightsPerHotelAndMonth(null));
+        assertThat(loaded.getVersioned(all.getFirst().id()).version()).isPositive().isLessThanOrEqualTo(loaded.version());
+
+        assertThatThrownBy(() -> loaded.load(blocks)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new InMemoryBookingRepository().load(List.of(all, all))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testBatchesLargerThanAChunk() throws Exception {
+        var repo = repository();
+        var changes = new AtomicInteger();
+        repo.onChange(change -> changes.incrementAndGet());
+        var bookings = IntStream.range(0, 1_000)
+                .mapToObj(i -> new Booking(new UUID(1L, i), "Hotel " + i % 7, "Guest " + i, "guest@example.com", LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 2)))
+                .toList();
+
+        // a single writer racing the batch makes it redo chunks, never the whole batch
+        var racing = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < 2_000; i++) repo.patch(new UUID(0L, 1L), Map.of("guestName", "Guest " + i));
+        });
+        repo.addAll(bookings);
+        racing.join();
+        assertThat(repo.get(null, null)).hasSize(3 + 1_000);
+        assertThat(changes).hasValue(1_000 + 2_000);
+
+        var ids = new ArrayList<>(bookings.stream().map(Booking::id).toList());
+        ids.add(new UUID(2L, 0L));
+        var expected = new boolean[ids.size()];
+        Arrays.fill(expected, 0, 1_000, true);
+        assertThat(repo.updateAll(bookings.reversed())).containsOnly(true).hasSize(1_000);
+        assertThat(repo.deleteAll(ids)).containsExactly(expected);
+        assertThat(repo.get(null, null)).hasSize(3);
+    }
+
+    @Test
+    void testIndexesFollowWrites() {
+        var repo = repository();
+        Map<String, DataFilter<?>> marriott = Map.of("hotelName", new StringFilter("Marriott", Operator.EQ));
+        Map<String, DataFilter<?>> lateCheckIn = Map.of("checkIn", new DateFilter(LocalDate.of(2024, 6, 14), Operator.GT));
+
+        repo.patch(new UUID(0L, 1L), Map.of("hotelName", "Marriott", "checkIn", "2024-06-14"));
+        assertThat(repo.get(marriott, null)).extracting(Booking::guestName).containsExactlyInAnyOrder("Alice", "Bob");
+        assertThat(repo.get(lateCheckIn, null)).extracting(Booking::guestName).containsExactly("Charlie");
+
+        repo.delete(new UUID(0L, 2L));
+        assertThat(repo.get(marriott, null)).extracting(Booking::guestName).containsExactly("Alice");
+        assertThat(repo.get(Map.of("guestName", new StringFilter("Bob", Operator.EQ)), null)).isEmpty();
+    }
+
+    private static InMemoryBookingRepository randomRepository(int count) {
+        return randomRepository(count, ParallelScan.DISABLED);
+    }
+
+    private static InMemoryBookingRepository randomRepository(int count, ParallelScan parallelScan) {
+        var random = new Random(42);
+        var hotels = List.of("Hilton", "Marriott", "Ritz", "Sheraton");
+        var bookings = IntStream.range(0, count).mapToObj(i -> {
+            var checkIn = LocalDate.of(2024, 1, 1).plusDays(random.nextInt(365));
+            return new Booking(new UUID(1L, i), hotels.get(random.nextInt(hotels.size())), "Guest " + random.nextInt(500),
+                    "guest" + i + "@example.com", checkIn, checkIn.plusDays(1 + random.nextInt(14)));
+        }).collect(Collectors.toMap(Booking::id, b -> b));
+        return new InMemoryBookingRepository(bookings, IdGenerator.timeOrdered(), parallelScan);
+    }
+
+    @ParameterizedTest(name = "filter={0}")
+    @CsvSource(nullValues = "null", value = {
+            "null",
+            "hotelName eq 'Ritz'",
+            "hotelName neq 'Ritz'",
+            "hotelName has 'r'",
+            "checkIn gte '2024-06-01'",
+            "checkIn lt '2024-03-15'",
+            "guestName has '7'",
+            "hotelName eq 'Ritz' AND checkIn gt '2024-06-01'"
+    })
+    void testAggregatesMatchScan(String filterParam) {
+        var repo = randomRepository(3_000);
+        var random = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            var id = new UUID(1L, random.nextInt(3_000));
+            switch (i % 3) {
+                case 0 -> repo.delete(id);
+                case 1 -> repo.patch(id, Map.of("checkOut", "2024-12-31"));
+                default -> repo.patch(id, Map.of("hotelName", "Plaza", "guestName", "Moved " + i));
+            }
+        }
+        var filter = DataExpressionParser.parseFilter(filterParam, Booking.class);
+        var matching = repo.get(filter, null);
+
+        var perHotel = matching.stream().collect(Collectors.groupingBy(Booking::hotelName, TreeMap::new, Collectors.counting()));
+        assertThat(repo.countPerHotel(filter))
+                .containsExactlyElementsOf(perHotel.entrySet().stream().map(e -> new HotelCount(e.getKey(), e.getValue())).toList());
+
+        var perDay = matching.stream().collect(Collectors.groupingBy(Booking::checkIn, TreeMap::new, Collectors.counting()));
+        assertThat(repo.countPerCheckInDay(filter))
+                .containsExactlyElementsOf(perDay.entrySet().stream().map(e -> new CheckInCount(e.getKey(), e.getValue())).toList());
+
+        var nights = new TreeMap<String, TreeMap<YearMonth, Long>>();
+        for (var booking : matching)
+            booking.checkIn().datesUntil(booking.checkOut()).forEach(night ->
+                    nights.computeIfAbsent(booking.hotelName(), h -> new TreeMap<>()).merge(YearMonth.from(night), 1L, Long::sum));
+        assertThat(repo.countNightsPerHotelAndMonth(filter)).containsExactlyElementsOf(nights.entrySet().stream()
+                .flatMap(h -> h.getValue().entrySet().stream().map(m -> new NightsCount(h.getKey(), m.getKey(), m.getValue())))
+                .toList());
+    }
+
+    @Test
+    void testPagingMatchesFullSort() {
+        var repo = randomRepository(2_000);
+
+        Map<String, DataFilter<?>> filter = Map.of("hotelName", new StringFilter("Ritz", Operator.NEQ));
+        var sort = List.of(new SortField("checkIn", false), new SortField("guestName", true), new SortField("id", true));
+        var all = repo.get(filter, sort);
+
+        assertThat(repo.get(filter, sort, new Page(0, 50))).containsExactlyElementsOf(all.subList(0, 50));
+        assertThat(repo.get(filter, sort, new Page(120, 30))).containsExactlyElementsOf(all.subList(120, 150));
+        assertThat(repo.get(filter, sort, new Page(all.size() - 5, 50))).containsExactlyElementsOf(all.subList(all.size() - 5, all.size()));
+        assertThat(repo.get(filter, sort, new Page(all.size(), 10))).isEmpty();
+        assertThat(repo.get(filter, null, new Page(10, 25))).hasSize(25).allMatch(b -> !b.hotelName().equals("Ritz"));
+        assertThat(repo.get(null, null, new Page(0, 0))).isEmpty();
+    }
+
+    @Test
+    void testStreamMatchesGet() {
+        var repo = randomRepository(3_000);
+        Map<String, DataFilter<?>> filter = Map.of("guestName", new StringFilter("7", Operator.IN));
+
+        assertThat(repo.stream(null, null, Page.ALL).toList()).containsExactlyInAnyOrderElementsOf(repo.get(null, null));
+        assertThat(repo.stream(filter, null, Page.ALL).toList()).containsExactlyInAnyOrderElementsOf(repo.get(filter, null));
+        assertThat(repo.stream(filter, null, new Page(5, 20)).toList()).hasSize(20).allMatch(b -> b.guestName().contains("7"));
+
+        var sort = List.of(new SortField("email", false));
+        assertThat(repo.stream(filter, sort, new Page(3, 10)).toList()).containsExactlyElementsOf(repo.get(filter, sort, new Page(3, 10)));
+    }
+
+    @ParameterizedTest(name = "sort={0}, filter={1}")
+    @MethodSource("keysetCases")
+    void testParallelScanMatchesSequential(String sortParam, String filterParam) {
+        var sequential = randomRepository(5_000);
+        var parallel = randomRepository(5_000, new ParallelScan(0, 4));
+        var sort = Cursor.keyOrder(DataExpressionParser.parseSort(sortParam));
+        var filter = DataExpressionParser.parseFilter(filterParam, Booking.class);
+
+        for (var page : List.of(Page.ALL, new Page(0, 10), new Page(40, 2_000), new Page(4_990, 100)))
+            assertThat(parallel.get(filter, sort, page)).as(page.toString()).containsExactlyElementsOf(sequential.get(filter, sort, page));
+        assertThat(parallel.get(filter, null)).containsExactlyInAnyOrderElementsOf(sequential.get(filter, null));
+    }
+
+    @ParameterizedTest(name = "{0} has ''{1}''")
+    @CsvSource({"guestName, 'est 12'", "guestName, 499", "email, '7@exa'", "email, '@example.com'", "hotelName, rri", "hotelName, Hil", "email, zzz"})
+    void testSubstringSearchMatchesScan(String field, String value) {
+        var repo = randomRepository(3_000);
+        repo.patch(new UUID(1L, 0L), Map.of("guestName", "Guest 12" + value, "email", "x" + value + "@example.com"));
+        repo.delete(new UUID(1L, 1L));
+
+        Map<String, DataFilter<?>> filter = Map.of(field, new StringFilter(value, Operator.IN));
+        var expected = repo.get(null, null).stream()
+                .filter(b -> Booking.<String>getFieldAccessor(field).apply(b).contains(value))
+                .toList();
+
+        assertThat(repo.get(filter, null)).containsExactlyInAnyOrderElementsOf(expected);
+        var july = LocalDate.of(2024, 7, 1);
+        assertThat(repo.get(Map.of(field, new StringFilter(value, Operator.IN), "checkIn", new DateFilter(july, Operator.GTE)), null))
+                .containsExactlyInAnyOrderElementsOf(expected.stream().filter(b -> !b.checkIn().isBefore(july)).toList());
+    }
+
+    @ParameterizedTest(name = "stay overlaps {0}")
+    @CsvSource({"2024-06-01..2024-06-01", "2024-06-01..2024-06-30", "2023-12-20..2024-01-02", "2024-12-31..2025-02-01", "2025-03-01..2025-04-01"})
+    void testStayOverlapsMatchesScan(String range) {
+        var repo = randomRepository(3_000);
+        repo.patch(new UUID(1L, 0L), Map.of("checkIn", "2023-12-01", "checkOut", "2025-12-01"));
+        repo.delete(new UUID(1L, 1L));
+
+        var stay = DateRange.parse(range);
+        var expected = repo.get(null, null).stream()
+                .filter(b -> new DateRange(b.checkIn(), b.checkOut()).overlaps(stay))
+                .toList();
+
+        var filter = DataExpressionParser.parseFilter("stay overlaps '" + range + "'", Booking.class);
+        assertThat(repo.get(filter, null)).containsExactlyInAnyOrderElementsOf(expected);
+
+        var ritz = DataExpressionParser.parseFilter("stay overlaps '" + range + "' and hotelName eq 'Ritz'", Booking.class);
+        assertThat(repo.get(ritz, null)).containsExactlyInAnyOrderElementsOf(expected.stream().filter(b -> b.hotelName().equals("Ritz")).toList());
+    }
+
+    private static Stream<Arguments> keysetCases() {
+        return Stream.of(
+                Arguments.of("checkIn DESC, guestName", null),
+                Arguments.of("checkOut", "hotelName neq 'Ritz'"),
+                Arguments.of("checkIn, id DESC", "checkOut gt '2024-06-01'"),
+                Arguments.of("guestName DESC", null),
+                Arguments.of("checkIn", "hotelName eq 'Hilton'"),
+                Arguments.of(null, "guestName has '1'"),
+                Arguments.of(null, null),
+                Arguments.of("hotelName, checkIn DESC", null),
+                Arguments.of("id DESC, checkIn", null)
+        );
+    }
+
+    @ParameterizedTest(name = "sort={0}, filter={1}")
+    @MethodSource("keysetCases")
+    void testKeysetPagingWalksWholeResult(String sortParam, String filterParam) {
+        var repo = randomRepository(1_000);
+        var sort = DataExpressionParser.parseSort(sortParam);
+        var filter = DataExpressionParser.parseFilter(filterParam, Booking.class);
+        var expected = repo.get(filter, Cursor.keyOrder(sort));
+
+        var walked = new ArrayList<Booking>();
+        Cursor cursor = null;
+        do {
+            var page = cursor == null
+                    ? repo.get(filter, Cursor.keyOrder(sort), new Page(0, 37))
+                    : repo.get(filter, sort, new Page(0, 37, Cursor.decode(cursor.encode())));
+            walked.addAll(page);
+            cursor = page.size() < 37 ? null : Cursor.after(sort, page.getLast());
+        } while (cursor != null);
+
+        assertThat(walked).containsExactlyElementsOf(expected);
+    }
+
+    @ParameterizedTest(name = "sort={0}")
+    @ValueSource(strings = {"hotelName", "hotelName DESC", "hotelName, guestName"})
+    void testKeysetPagingDeepInsideOneKey(String sortParam) {
+        var bookings = IntStream.range(0, 5_000).mapToObj(i -> new Booking(new UUID(1L, i * 7919L % 5_000), "Ritz",
+                        "Guest " + i % 13, "guest" + i + "@example.com", LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 3)))
+                .collect(Collectors.toMap(Booking::id, b -> b));
+        var repo = new InMemoryBookingRepository(bookings, IdGenerator.timeOrdered(), ParallelScan.DISABLED);
+        var sort = Cursor.keyOrder(DataExpressionParser.parseSort(sortParam));
+        var expected = repo.get(null, sort);
+
+        for (int depth : List.of(0, 1, 2_500, 4_950, 4_998, 4_999)) {
+            var cursor = Cursor.decode(Cursor.after(sort, expected.get(depth)).encode());
+            assertThat(repo.get(null, sort, new Page(0, 50, cursor))).as("after row " + depth)
+                    .containsExactlyElementsOf(expected.subList(depth + 1, Math.min(depth + 51, expected.size())));
+        }
+    }
+
+    @Test
+    void testConditionalWritesFailOnNewerVersion() {
+        var repo = repository();
+        var id = new UUID(0L, 1L);
+        var read = repo.getVersioned(id);
+
+        assertThat(repo.patch(id, Map.of("guestName", "Alicia"), read.version())).isTrue();
+        var patched = repo.getVersioned(id);
+        assertThat(patched.version()).isGreaterThan(read.version());
+
+        assertThatThrownBy(() -> repo.update(read.booking(), read.version())).isInstanceOf(VersionConflictException.class);
+        assertThatThrownBy(() -> repo.patch(id, Map.of("guestName", "Eve"), read.version())).isInstanceOf(VersionConflictException.class);
+        assertThat(repo.getById(id).guestName()).isEqualTo("Alicia");
+
+        assertThat(repo.update(read.booking(), patched.version())).isTrue();
+        assertThat(repo.update(read.booking(), BookingRepository.ANY_VERSION)).isTrue();
+        assertThat(repo.patch(new UUID(9L, 9L), Map.of("guestName", "Eve"), patched.version())).isFalse();
+
+        repo.delete(id);
+        repo.add(read.booking());
+        assertThat(repo.getVersioned(id).version()).as("never reused").isGreaterThan(patched.version());
+    }
+
+    @Test
+    void testConcurrentConditionalWritesNeverLoseUpdates() throws Exception {
+        var repo = repository();
+        var id = new UUID(0L, 1L);
+        int threads = 8, perThread = 200;
+        repo.patch(id, Map.of("guestName", "0"));
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            var futures = IntStream.range(0, threads).mapToObj(t -> executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    while (true) {
+                        var current = repo.getVersioned(id);
+                        var visits = Integer.parseInt(current.booking().guestName()) + 1;
+                        try {
+                            if (repo.patch(id, Map.of("guestName", String.valueOf(visits)), current.version())) break;
+                        } catch (VersionConflictException retry) {
+                        }
+                    }
+                }
+                return null;
+            })).toList();
+            for (var future : futures) future.get();
+        }
+        assertThat(repo.getById(id).guestName()).isEqualTo(String.valueOf(threads * perThread));
+    }
+
+    @Test
+    void testConcurrentWritesAreNotLost() throws Exception {
+        var repo = repository();
+        var booking = repo.getById(new UUID(0L, 1L));
+        int threads = 8, perThread = 1_000;
+
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            var futures = IntStream.range(0, threads).mapToObj(t -> executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    repo.add(new Booking(new UUID(t + 1L, i), "Hotel " + t, "Guest " + i, "guest@example.com", LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 2)));
+                    repo.patch(booking.id(), Map.of("guestName", "Guest " + t));
+                }
+            })).toList();
+            for (var future : futures) future.get();
+        }
+
+        assertThat(repo.get(null, null)).hasSize(3 + threads * perThread);
+        assertThat(repo.getById(booking.id()).email()).isEqualTo(booking.email());
+    }
+}
@@ -0,0 +1,237 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import pipelines.data.InMemoryBookingRepository;
+import pipelines.data.journal.FsyncPolicy;
+import pipelines.data.journal.Journal;
+import pipelines.data.journal.JournaledBookingRepository;
+import pipelines.domain.Booking;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JournaledBookingRepositoryTest {
+    private static Booking booking(long id, String hotelName) {
+        return new Booking(new UUID(0L, id), hotelName, "Guest " + id, "guest" + id + "@example.com",
+                LocalDate.of(2024, 6, 10), LocalDate.of(2024, 6, 15));
+    }
+
+    private static JournaledBookingRepository open(Path file, FsyncPolicy policy) throws IOException {
+        return new JournaledBookingRepository(new InMemoryBookingRepository(), new Journal(file, policy, 4096));
+    }
+
+    private static Stream<Arguments> policies() {
+        return Stream.of(
+                Arguments.of(FsyncPolicy.perWrite()),
+                Arguments.of(FsyncPolicy.batch()),
+                Arguments.of(FsyncPolicy.interval(Duration.ofMillis(5)))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("policies")
+    void testWritesSurviveReopen(FsyncPolicy policy, @TempDir Path dir) throws IOException {
+        var file = dir.resolve("bookings.journal");
+        try (var repo = open(file, policy)) {
+            // enough records to roll over several 4 KiB regions
+            for (int i = 0; i < 200; i++) repo.add(booking(i, "Hilton"));
+            assertThat(repo.update(booking(1, "Ritz"))).isTrue();
+            assertThat(repo.update(booking(999, "Ritz"))).isFalse();
+            assertThat(repo.patch(new UUID(0L, 2L), Map.of("guestName", "Zoë", "checkOut", "2024-06-20"))).isTrue();
+            assertThat(repo.delete(new UUID(0L, 3L))).isTrue();
+            assertThat(repo.delete(new UUID(0L, 3L))).isFalse();
+            assertThatThrownBy(() -> repo.patch(new UUID(0L, 4L), Map.of("checkIn", "2030-01-01")))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        try (var repo = open(file, policy)) {
+            assertThat(repo.get(null, null)).hasSize(199);
+            assertThat(repo.getById(new UUID(0L, 1L)).hotelName()).isEqualTo("Ritz");
+            assertThat(repo.getById(new UUID(0L, 2L)))
+                    .extracting(Booking::guestName, Booking::checkOut)
+                    .containsExactly("Zoë", LocalDate.of(2024, 6, 20));
+            assertThat(repo.getById(new UUID(0L, 3L))).isNull();
+            assertThat(repo.getById(new UUID(0L, 4L))).isEqualTo(booking(4, "Hilton"));
+
+            repo.add(booking(1000, "Plaza"));
+        }
+
+        try (var repo = open(file, policy)) {
+            assertThat(repo.get(null, null)).hasSize(200);
+        }
+    }
+
+    @Test
+    void testBatchesSurviveReopen(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("bookings.journal");
+        try (var repo = open(file, FsyncPolicy.perWrite())) {
+            repo.addAll(IntStream.range(0, 100).mapToObj(i -> booking(i, "Hilton")).toList());
+            assertThat(repo.updateAll(List.of(booking(1, "Ritz"), booking(500, "Ritz")))).containsExactly(true, false);
+            assertThat(repo.deleteAll(List.of(new UUID(0L, 2L), new UUID(0L, 2L), new UUID(0L, 600L)))).containsExactly(true, false, false);
+        }
+
+        try (var repo = open(file, FsyncPolicy.perWrite())) {
+            assertThat(repo.get(null, null)).hasSize(99);
+            assertThat(repo.getByIds(List.of(new UUID(0L, 1L), new UUID(0L, 2L)))).containsExactly(booking(1, "Ritz"), null);
+        }
+    }
+
+    @Test
+    void testConcurrentWritersShareFsync(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("bookings.journal");
+        int threads = 8, perThread = 250;
+
+        try (var repo = open(file, FsyncPolicy.batch());
+             var executor = Executors.newFixedThreadPool(threads)) {
+            var futures = IntStream.range(0, threads).mapToObj(t -> executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    repo.add(booking(t * 1_000L + i, "Hotel " + t));
+                    repo.patch(new UUID(0L, t * 1_000L), Map.of("guestName", "Guest " + i));
+                }
+            })).toList();
+            for (var future : futures) future.get();
+        }
+
+        try (var repo = open(file, FsyncPolicy.batch())) {
+            assertThat(repo.get(null, null)).hasSize(threads * perThread);
+            for (int t = 0; t < threads; t++)
+                assertThat(repo.getById(new UUID(0L, t * 1_000L)).guestName()).isEqualTo("Guest " + (perThread - 1));
+        }
+    }
+
+    @Test
+    void testTornTailIsDiscarded(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("bookings.journal");
+        long end;
+        try (var repo = open(file, FsyncPolicy.perWrite())) {
+            repo.add(booking(1, "Hilton"));
+            repo.add(booking(2, "Hilton"));
+        }
+        try (var journal = new Journal(file, FsyncPolicy.perWrite(), 4096)) {
+            end = journal.position();
+        }
+
+        // corrupt the last byte of the second record, as if the crash happened while it was written
+        try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(end - 1);
+            int last = raf.read();
+            raf.seek(end - 1);
+            raf.write(last ^ 0xff);
+        }
+
+        try (var repo = open(file, FsyncPolicy.perWrite())) {
+            assertThat(repo.get(null, null)).containsExactly(booking(1, "Hilton"));
+            repo.add(booking(3, "Ritz"));
+        }
+        try (var repo = open(file, FsyncPolicy.perWrite())) {
+            assertThat(repo.get(null, null)).containsExactlyInAnyOrder(booking(1, "Hilton"), booking(3, "Ritz"));
+        }
+    }
+
+    @Test
+    void testRecoversFromSnapshotAndJournalTail(@TempDir Path dir) throws Exception {
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.batch(), Duration.ofHours(1))) {
+            for (int i = 0; i < 5_000; i++) repo.add(booking(i, "Hilton"));
+            var first = repo.snapshot();
+            assertThat(repo.snapshot()).as("unchanged repository").isNull();
+
+            repo.delete(new UUID(0L, 1L));
+            repo.patch(new UUID(0L, 2L), Map.of("hotelName", "Ritz"));
+            var second = repo.snapshot();
+            assertThat(second.position()).isGreaterThan(first.position());
+
+            // tail after the last snapshot comes from the journal only
+            repo.add(booking(10_000, "Plaza"));
+            repo.update(booking(3, "Plaza"));
+        }
+
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.batch(), Duration.ofHours(1))) {
+            assertThat(repo.get(null, null)).hasSize(5_000);
+            assertThat(repo.getById(new UUID(0L, 1L))).isNull();
+            assertThat(repo.getById(new UUID(0L, 2L)).hotelName()).isEqualTo("Ritz");
+            assertThat(repo.getById(new UUID(0L, 3L)).hotelName()).isEqualTo("Plaza");
+            assertThat(repo.getById(new UUID(0L, 10_000L))).isEqualTo(booking(10_000, "Plaza"));
+        }
+    }
+
+    @Test
+    void testCorruptSnapshotFallsBackToOlderState(@TempDir Path dir) throws Exception {
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.perWrite(), Duration.ofHours(1))) {
+            for (int i = 0; i < 100; i++) repo.add(booking(i, "Hilton"));
+            repo.snapshot();
+            repo.delete(new UUID(0L, 5L));
+            var latest = repo.snapshot();
+
+            try (var raf = new RandomAccessFile(latest.file().toFile(), "rw")) {
+                raf.seek(raf.length() - 1);
+                raf.write(0x55);
+            }
+        }
+
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.perWrite(), Duration.ofHours(1))) {
+            assertThat(repo.get(null, null)).hasSize(99);
+            assertThat(repo.getById(new UUID(0L, 5L))).isNull();
+        }
+    }
+
+    @Test
+    void testSnapshotsDropTheJournalTheyCover(@TempDir Path dir) throws Exception {
+        // a journal from before segments is taken over as the first one
+        try (var repo = open(dir.resolve("bookings.journal"), FsyncPolicy.perWrite())) {
+            repo.add(booking(0, "Hilton"));
+        }
+
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.batch(), Duration.ofHours(1))) {
+            for (int round = 1; round <= 3; round++) {
+                repo.add(booking(round, "Ritz"));
+                repo.snapshot();
+            }
+            repo.add(booking(4, "Plaza"));
+            assertThat(segments(dir)).as("segments of the two retained snapshots").hasSize(2);
+        }
+
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.batch(), Duration.ofHours(1))) {
+            assertThat(repo.get(null, null)).containsExactlyInAnyOrder(
+                    booking(0, "Hilton"), booking(1, "Ritz"), booking(2, "Ritz"), booking(3, "Ritz"), booking(4, "Plaza"));
+        }
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".journal")).toList();
+        }
+    }
+
+    @Test
+    void testSnapshotWhileWriting(@TempDir Path dir) throws Exception {
+        int threads = 4, perThread = 500;
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.batch(), Duration.ofMillis(1));
+             var executor = Executors.newFixedThreadPool(threads)) {
+            var futures = IntStream.range(0, threads).mapToObj(t -> executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) repo.add(booking(t * 1_000L + i, "Hotel " + t));
+            })).toList();
+            for (var future : futures) future.get();
+        }
+
+        try (var repo = JournaledBookingRepository.open(new InMemoryBookingRepository(), dir, FsyncPolicy.batch(), Duration.ofHours(1))) {
+            assertThat(repo.get(null, null)).hasSize(threads * perThread);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import pipelines.commands.GetBookingsQuery;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+import pipelines.infrastructure.QueryResultCache;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryResultCacheTest {
+    private static final LocalDate CHECK_IN = LocalDate.of(2024, 6, 1);
+
+    private final InMemoryBookingRepository repository = new InMemoryBookingRepository();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<GetBookingsQuery, List<Booking>> loader = query -> {
+        loads.incrementAndGet();
+        return repository.get(query.filter(), query.sort(), query.page());
+    };
+
+    private Booking book(String hotel, String guest) {
+        var booking = new Booking(repository.getNextId(), hotel, guest, guest.toLowerCase() + "@example.com", CHECK_IN, CHECK_IN.plusDays(2));
+        repository.add(booking);
+        return booking;
+    }
+
+    private static GetBookingsQuery hotel(String hotel) {
+        return new GetBookingsQuery(Map.of("hotelName", new StringFilter(hotel, Operator.EQ)),
+                List.of(new SortField("guestName", true)), new Page(0, 10));
+    }
+
+    private static String text(byte[] json) {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testWritesDropOnlyEntriesTheyCanChange() {
+        var cache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES).invalidatedBy(repository);
+        var alice = book("Ritz", "Alice");
+        book("Hilton", "Bob");
+
+        assertThat(text(cache.get(hotel("Ritz"), loader))).contains("Alice").doesNotContain("Bob");
+        cache.get(hotel("Hilton"), loader);
+        cache.get(hotel("Ritz"), loader);
+        assertThat(loads).hasValue(2);
+
+        book("Hilton", "Carol");
+        assertThat(text(cache.get(hotel("Ritz"), loader))).doesNotContain("Carol");
+        assertThat(loads).as("a Hilton booking cannot change the Ritz listing").hasValue(2);
+        assertThat(text(cache.get(hotel("Hilton"), loader))).contains("Carol");
+        assertThat(loads).hasValue(3);
+
+        // moving a booking away from the Ritz changes the listing it matched before
+        repository.patch(alice.id(), Map.of("hotelName", "Savoy"));
+        assertThat(text(cache.get(hotel("Ritz"), loader))).doesNotContain("Alice");
+        assertThat(loads).hasValue(4);
+
+        var stats = cache.stats();
+        assertThat(stats.hits()).isEqualTo(2);
+        assertThat(stats.misses()).isEqualTo(4);
+        assertThat(stats.invalidations()).isEqualTo(2);
+        assertThat(stats.entries()).isEqualTo(2);
+    }
+
+    @Test
+    void testEquivalentQueriesShareAnEntry() {
+        var cache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES).invalidatedBy(repository);
+        book("Ritz", "Alice");
+        Map<String, DataFilter<?>> filter = new LinkedHashMap<>();
+        filter.put("guestName", new StringFilter("Alice", Operator.EQ));
+        filter.put("hotelName", new StringFilter("Ritz", Operator.EQ));
+        Map<String, DataFilter<?>> reordered = new LinkedHashMap<>();
+        reordered.put("hotelName", new StringFilter("Ritz", Operator.EQ));
+        reordered.put("guestName", new StringFilter("Alice", Operator.EQ));
+
+        cache.get(new GetBookingsQuery(filter, List.of(new SortField("id", true)), new Page(0, 5)), loader);
+        cache.get(new GetBookingsQuery(reordered, new ArrayList<>(List.of(new SortField("id", true))), new Page(0, 5)), loader);
+        cache.get(new GetBookingsQuery(null, null, null), loader);
+        cache.get(new GetBookingsQuery(Map.of(), List.of(), Page.ALL), loader);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void testResultComputedDuringAWriteIsNotStored() {
+        var cache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES).invalidatedBy(repository);
+        book("Ritz", "Alice");
+        Function<GetBookingsQuery, List<Booking>> racing = query -> {
+            var result = loader.apply(query);
+            book("Ritz", "Bob");
+            return result;
+        };
+
+        assertThat(text(cache.get(hotel("Ritz"), racing))).doesNotContain("Bob");
+        assertThat(text(cache.get(hotel("Ritz"), loader))).contains("Bob");
+        assertThat(cache.stats().hits()).isZero();
+    }
+
+    @Test
+    void testWritesDuringALoadOnlyDiscardResultsTheyCanChange() {
+        var cache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES).invalidatedBy(repository);
+        book("Ritz", "Alice");
+        var june = new GetBookingsQuery(Map.of("checkIn", new DateFilter(CHECK_IN, Operator.GTE)), List.of(new SortField("id", true)), Page.ALL);
+        Function<GetBookingsQuery, List<Booking>> racing = query -> {
+            var result = loader.apply(query);
+            book("Hilton", "Bob");
+            return result;
+        };
+
+        cache.get(hotel("Ritz"), racing);
+        cache.get(hotel("Ritz"), loader);
+        assertThat(cache.stats().hits()).as("a Hilton booking cannot change the Ritz listing").isEqualTo(1);
+
+        // a filter without an equality is tested against every write
+        assertThat(text(cache.get(june, loader))).contains("Bob").doesNotContain("Carol");
+        book("Savoy", "Carol");
+        assertThat(text(cache.get(june, loader))).contains("Carol");
+        assertThat(cache.stats().invalidations()).isEqualTo(1);
+    }
+
+    @Test
+    void testStaysWithinItsBytesAndKeepsFrequentQueries() {
+        for (int i = 0; i < 20; i++) book("Hotel " + i, "Guest " + i);
+        long entryBytes = cache(Long.MAX_VALUE).get(hotel("Hotel 0"), loader).length + 200;
+        var cache = cache(entryBytes * 8 + entryBytes / 2);
+
+        // eight popular hotels fill the cache
+        for (int round = 0; round < 3; round++)
+            for (int i = 0; i < 8; i++) cache.get(hotel("Hotel " + i), loader);
+        assertThat(cache.stats().entries()).isEqualTo(8);
+
+        // a scan over many hotels asked for once each does not displace them
+        for (int i = 8; i < 20; i++) cache.get(hotel("Hotel " + i), loader);
+        assertThat(cache.stats().rejections()).isEqualTo(12);
+        loads.set(0);
+        for (int i = 0; i < 8; i++) cache.get(hotel("Hotel " + i), loader);
+        assertThat(loads).hasValue(0);
+
+        // a hotel asked for more often than the least recently used one takes its place
+        for (int round = 0; round < 6; round++) cache.get(hotel("Hotel 10"), loader);
+        var stats = cache.stats();
+        assertThat(stats.evictions()).isEqualTo(1);
+        assertThat(stats.entries()).isEqualTo(8);
+        assertThat(stats.bytes()).isLessThanOrEqualTo(entryBytes * 8 + entryBytes / 2);
+        loads.set(0);
+        cache.get(hotel("Hotel 10"), loader);
+        cache.get(hotel("Hotel 0"), loader);
+        assertThat(loads).as("Hotel 0 was the least recently used").hasValue(1);
+    }
+
+    private QueryResultCache cache(long maxBytes) {
+        return new QueryResultCache(maxBytes).invalidatedBy(repository);
+    }
+}
@@ -0,0 +1,126 @@
+package pipelines;
+
+import an.awesome.pipelinr.Pipeline;
+import org.junit.jupiter.api.Test;
+import pipelines.commands.*;
+import pipelines.data.InMemoryBookingRepository;
+import pipelines.domain.Booking;
+import pipelines.domain.NoVacancyException;
+import pipelines.domain.RoomInventory;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RoomInventoryTest {
+    private static final LocalDate JUNE_1 = LocalDate.of(2024, 6, 1);
+
+    private static Booking booking(long id, String hotelName, LocalDate checkIn, LocalDate checkOut) {
+        return new Booking(new UUID(0L, id), hotelName, "Guest " + id, "guest" + id + "@example.com", checkIn, checkOut);
+    }
+
+    @Test
+    void testStayIsReservedEntirelyOrNotAtAll() {
+        var inventory = new RoomInventory(1);
+        inventory.reserve(booking(1, "Ritz", JUNE_1.plusDays(3), JUNE_1.plusDays(5)));
+
+        assertThatThrownBy(() -> inventory.reserve(booking(2, "Ritz", JUNE_1, JUNE_1.plusDays(4))))
+                .isInstanceOf(NoVacancyException.class)
+                .hasMessageContaining("2024-06-04");
+        assertThat(inventory.occupied("Ritz", JUNE_1)).as("rolled back").isZero();
+        assertThat(inventory.occupied("Ritz", JUNE_1.plusDays(3))).isOne();
+
+        // the check-out day is free for the next guest
+        inventory.reserve(booking(3, "Ritz", JUNE_1, JUNE_1.plusDays(3)));
+        inventory.reserve(booking(4, "Ritz", JUNE_1.plusDays(5), JUNE_1.plusDays(5)));
+        inventory.reserve(booking(5, "Hilton", JUNE_1, JUNE_1.plusDays(30)));
+        assertThat(inventory.available("Ritz", JUNE_1, JUNE_1.plusDays(10))).isZero();
+        assertThat(inventory.available("Ritz", JUNE_1.plusDays(6), JUNE_1.plusDays(10))).isOne();
+    }
+
+    @Test
+    void testChangesGiveCapacityBack() {
+        var repository = new InMemoryBookingRepository();
+        var inventory = new RoomInventory(RoomInventory.DEFAULT_ROOMS);
+        inventory.setRooms("Ritz", 2);
+        Pipeline pipeline = TestingInfrastructure.createPipeline(repository, (to, subject, body) -> {}, inventory);
+
+        UUID first = pipeline.send(new BookHotelCommand("Ritz", "Alice", "alice@example.com", JUNE_1, JUNE_1.plusDays(4)));
+        UUID second = pipeline.send(new BookHotelCommand("Ritz", "Bob", "bob@example.com", JUNE_1.plusDays(2), JUNE_1.plusDays(6)));
+        assertThatThrownBy(() -> pipeline.send(new BookHotelCommand("Ritz", "Eve", "eve@example.com", JUNE_1.plusDays(3), JUNE_1.plusDays(4))))
+                .isInstanceOf(NoVacancyException.class);
+        assertThat(repository.get(null, null)).hasSize(2);
+
+        // moving within the nights already held does not need a free room
+        assertThat(pipeline.send(new PatchBookingCommand(first, Map.of("checkIn", "2024-06-03")))).isTrue();
+        assertThat(inventory.occupied("Ritz", JUNE_1)).isZero();
+        assertThat(inventory.occupied("Ritz", JUNE_1.plusDays(3))).isEqualTo(2);
+
+        pipeline.send(new BookHotelCommand("Ritz", "Carol", "carol@example.com", JUNE_1.plusDays(6), JUNE_1.plusDays(9)));
+        pipeline.send(new BookHotelCommand("Ritz", "Dave", "dave@example.com", JUNE_1.plusDays(7), JUNE_1.plusDays(9)));
+        assertThatThrownBy(() -> pipeline.send(new UpdateBookingCommand(first, "Ritz", "Alice", "alice@example.com", JUNE_1.plusDays(2), JUNE_1.plusDays(8))))
+                .isInstanceOf(NoVacancyException.class);
+        assertThat(repository.getById(first).checkOut()).isEqualTo(JUNE_1.plusDays(4));
+        assertThat(inventory.occupied("Ritz", JUNE_1.plusDays(5))).as("rolled back").isOne();
+
+        assertThat(pipeline.send(new UpdateBookingCommand(first, "Hilton", "Alice", "alice@example.com", JUNE_1, JUNE_1.plusDays(4)))).isTrue();
+        assertThat(inventory.occupied("Ritz", JUNE_1.plusDays(3))).isOne();
+        assertThat(inventory.occupied("Hilton", JUNE_1.plusDays(3))).isOne();
+
+        assertThat(pipeline.send(new DeleteBookingCommand(second))).isTrue();
+        assertThat(pipeline.send(new DeleteBookingCommand(second))).isFalse();
+        assertThat(inventory.occupied("Ritz", JUNE_1.plusDays(3))).isZero();
+        pipeline.send(new BookHotelCommand("Ritz", "Eve", "eve@example.com", JUNE_1, JUNE_1.plusDays(7)));
+    }
+
+    @Test
+    void testNoOverbookingUnderContention() throws Exception {
+        int rooms = 20, days = 30, threads = 16, attemptsPerThread = 20_000;
+        var inventory = new RoomInventory(rooms);
+        var held = new ConcurrentLinkedQueue<Booking>();
+        var ids = new AtomicInteger();
+        var start = new CountDownLatch(1);
+
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            var futures = IntStream.range(0, threads).mapToObj(t -> executor.submit(() -> {
+                var random = ThreadLocalRandom.current();
+                var mine = new ArrayDeque<Booking>();
+                start.await();
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    if (!mine.isEmpty() && random.nextInt(3) == 0) {
+                        inventory.release(mine.poll());
+                        continue;
+                    }
+                    var checkIn = JUNE_1.plusDays(random.nextInt(days));
+                    var booking = booking(ids.incrementAndGet(), "Ritz", checkIn, checkIn.plusDays(1 + random.nextInt(7)));
+                    try {
+                        inventory.reserve(booking);
+                        mine.add(booking);
+                    } catch (NoVacancyException ignored) {
+                    }
+                    for (int day = 0; day < days; day++)
+                        assertThat(inventory.occupied("Ritz", JUNE_1.plusDays(day))).isLessThanOrEqualTo(rooms);
+                }
+                held.addAll(mine);
+                return null;
+            })).toList();
+            start.countDown();
+            for (var future : futures) future.get();
+        }
+
+        for (int day = 0; day < days + 7; day++) {
+            var night = JUNE_1.plusDays(day);
+            long expected = held.stream().filter(b -> !night.isBefore(b.checkIn()) && night.isBefore(b.checkOut())).count();
+            assertThat(inventory.occupied("Ritz", night)).as(night.toString()).isEqualTo((int) expected).isLessThanOrEqualTo(rooms);
+        }
+        assertThat(held).isNotEmpty();
+    }
+}
@@ -0,0 +1,118 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import pipelines.data.*;
+import pipelines.domain.Booking;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardedBookingRepositoryTest {
+    private static final List<String> HOTELS = List.of("Hilton", "Marriott", "Ritz", "Savoy", "Hyatt", "Plaza", "Westin");
+
+    private static List<Booking> bookings() {
+        var random = new Random(16);
+        var bookings = new ArrayList<Booking>();
+        for (long i = 1; i <= 500; i++) {
+            var checkIn = LocalDate.of(2024, 6, 1).plusDays(random.nextInt(60));
+            bookings.add(new Booking(new UUID(0L, i), HOTELS.get(random.nextInt(HOTELS.size())),
+                    "Guest " + random.nextInt(40), "guest" + i + "@example.com", checkIn, checkIn.plusDays(1 + random.nextInt(10))));
+        }
+        return bookings;
+    }
+
+    private static BookingRepository[] repositories() {
+        var reference = new InMemoryBookingRepository();
+        var sharded = new ShardedBookingRepository(4);
+        var bookings = bookings();
+        reference.addAll(bookings);
+        sharded.addAll(bookings);
+        return new BookingRepository[]{reference, sharded};
+    }
+
+    private static Stream<Arguments> queries() {
+        var byCheckIn = List.of(new SortField("checkIn", true), new SortField("id", true));
+        var byGuestDesc = List.of(new SortField("guestName", false), new SortField("checkOut", true), new SortField("id", false));
+        Map<String, DataFilter<?>> inJuly = Map.of("checkIn", new DateFilter(LocalDate.of(2024, 7, 1), Operator.GTE));
+        Map<String, DataFilter<?>> ritz = Map.of("hotelName", new StringFilter("Ritz", Operator.EQ));
+        return Stream.of(
+                Arguments.of(null, byCheckIn, Page.ALL),
+                Arguments.of(null, byCheckIn, new Page(0, 10)),
+                Arguments.of(null, byGuestDesc, new Page(95, 20)),
+                Arguments.of(inJuly, byGuestDesc, new Page(3, 50)),
+                Arguments.of(inJuly, byCheckIn, new Page(1000, 10)),
+                Arguments.of(ritz, byCheckIn, new Page(5, 5))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("queries")
+    void testPagesMatchSingleRepository(Map<String, DataFilter<?>> filter, List<SortField> sort, Page page) {
+        var repositories = repositories();
+        var expected = repositories[0].get(filter, sort, page);
+        assertThat(repositories[1].get(filter, sort, page)).containsExactlyElementsOf(expected);
+        assertThat(repositories[1].stream(filter, sort, page)).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void testKeysetPagingWalksAllShardsInOrder() {
+        var repositories = repositories();
+        var sort = List.of(new SortField("hotelName", true), new SortField("checkIn", false));
+        var expected = repositories[0].get(null, Cursor.keyOrder(sort));
+
+        var walked = new ArrayList<Booking>();
+        var page = repositories[1].get(null, Cursor.keyOrder(sort), new Page(0, 37));
+        while (!page.isEmpty()) {
+            walked.addAll(page);
+            page = repositories[1].get(null, sort, new Page(0, 37, Cursor.after(sort, page.getLast())));
+        }
+        assertThat(walked).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void testUnsortedQueriesAndAggregatesCoverEveryShard() {
+        var repositories = repositories();
+        Map<String, DataFilter<?>> filter = Map.of("checkOut", new DateFilter(LocalDate.of(2024, 7, 15), Operator.LT));
+
+        assertThat(repositories[1].get(filter, null)).containsExactlyInAnyOrderElementsOf(repositories[0].get(filter, null));
+        assertThat(repositories[1].stream(filter, null, new Page(10, 25))).hasSize(25);
+        assertThat(repositories[1].countPerHotel(filter)).isEqualTo(repositories[0].countPerHotel(filter));
+        assertThat(repositories[1].countPerCheckInDay(filter)).isEqualTo(repositories[0].countPerCheckInDay(filter));
+        assertThat(repositories[1].countNightsPerHotelAndMonth(null)).isEqualTo(repositories[0].countNightsPerHotelAndMonth(null));
+    }
+
+    @Test
+    void testChangingHotelMovesBookingBetweenShards() {
+        var repository = new ShardedBookingRepository(4);
+        var id = repository.getNextId();
+        var booking = new Booking(id, "Hilton", "Alice", "alice@example.com", LocalDate.of(2024, 6, 1), LocalDate.of(2024, 6, 3));
+        repository.add(booking);
+
+        // pick a hotel that lives on another shard than Hilton
+        var other = HOTELS.stream().filter(h -> Math.floorMod(h.hashCode(), 4) != Math.floorMod("Hilton".hashCode(), 4))
+                .findFirst().orElseThrow();
+
+        assertThat(repository.patch(id, Map.of("hotelName", other))).isTrue();
+        assertThat(repository.getById(id).hotelName()).isEqualTo(other);
+        assertThat(repository.get(Map.of("hotelName", new StringFilter("Hilton", Operator.EQ)), null)).isEmpty();
+        assertThat(repository.get(Map.of("hotelName", new StringFilter(other, Operator.EQ)), null)).containsExactly(repository.getById(id));
+        assertThat(repository.get(null, null)).hasSize(1);
+
+        repository.add(booking);
+        assertThat(repository.get(null, null)).containsExactly(booking);
+        assertThat(repository.update(booking.merge(Map.of("guestName", "Bob")))).isTrue();
+        assertThat(repository.getById(id).guestName()).isEqualTo("Bob");
+
+        assertThat(repository.delete(id)).isTrue();
+        assertThat(repository.delete(id)).isFalse();
+        assertThat(repository.getById(id)).isNull();
+        assertThat(repository.patch(id, Map.of("guestName", "Eve"))).isFalse();
+        assertThat(repository.get(null, null)).isEmpty();
+    }
+}
@@ -3,35 +3,71 @@ package pipelines;
 import an.awesome.pipelinr.*;
 import org.jetbrains.annotations.NotNull;
 import pipelines.data.BookingRepository;
+import pipelines.data.Page;
 import pipelines.domain.Booking;
+import pipelines.domain.RoomInventory;
 import pipelines.handlers.*;
-import pipelines.infrastructure.EmailService;
-import pipelines.infrastructure.NotificationPublisher;
+import pipelines.infrastructure.*;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 class TestingInfrastructure {
-    static Pipeline createPipeline(BookingRepository repository, EmailService emailService) {
-        Pipelinr pipeline = new Pipelinr();
+    static AsyncPipeline createPipeline(BookingRepository repository, EmailService emailService) {
+        return createPipeline(repository, emailService, WebAppCreator.blockingHandlers(false));
+    }
+
+    static AsyncPipeline createPipeline(BookingRepository repository, EmailService emailService, Executor blockingHandlers) {
+        return createPipeline(repository, emailService,
+                new RoomInventory(RoomInventory.DEFAULT_ROOMS).load(repository.stream(null, null, Page.ALL)), blockingHandlers);
+    }
+
+    static AsyncPipeline createPipeline(BookingRepository repository, EmailService emailService, RoomInventory inventory) {
+        return createPipeline(repository, emailService, inventory, WebAppCreator.blockingHandlers(false));
+    }
+
+    private static AsyncPipeline createPipeline(BookingRepository repository, EmailService emailService, RoomInventory inventory,
+                                                Executor blockingHandlers) {
+        var commandHandlers = new ArrayList<Command.Handler>();
+        var notificationHandlers = new ArrayList<Notification.Handler>();
+        var pipeline = new HandlerRegistry(commandHandlers::stream, Stream::of, notificationHandlers::stream)
+                .withAsync(Stream::of, () -> Stream.of(new AsyncLoggableMiddleware()), blockingHandlers);
 
         var publisher = new NotificationPublisher(pipeline);
+        var cache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES).invalidatedBy(repository);
 
-        pipeline = pipeline.with(() -> Stream.of(
-                        new BookHotelHandler(repository, publisher),
-                        new GetBookingsHandler(repository),
-                        new DeleteBookingsHandler(repository),
-                        new UpdateBookingHandler(repository),
-                        new PatchBookingHandler(repository),
-                        new GetBookingsByIdHandler(repository)
-                ))
-                .with(() -> Stream.of(
-                        new SendConfirmationEmailHandler(emailService),
-                        new UpdateInventoryHandler()
-                ));
+        commandHandlers.addAll(List.of(
+                new BookHotelHandler(repository, inventory, publisher),
+                new GetBookingsHandler(repository),
+                new GetBookingsJsonHandler(repository, cache),
+                new GetQueryCacheStatsHandler(cache),
+                new GetEmailOutboxStatsHandler(emailService),
+                new StreamBookingsHandler(repository),
+                new DeleteBookingsHandler(repository, inventory),
+                new UpdateBookingHandler(repository, inventory),
+                new PatchBookingHandler(repository, inventory),
+                new GetBookingsByIdHandler(repository),
+                new GetVersionedBookingHandler(repository),
+                new GetBookingsVersionHandler(repository),
+                new BookHotelBatchHandler(repository, inventory, publisher),
+                new UpdateBookingBatchHandler(repository, inventory),
+                new DeleteBookingBatchHandler(repository, inventory),
+                new GetBookingsByIdsHandler(repository),
+                new GetBookingsPerHotelHandler(repository),
+                new GetCheckInsPerDayHandler(repository),
+                new GetNightsPerHotelAndMonthHandler(repository)
+        ));
+        notificationHandlers.addAll(List.of(
+                new SendConfirmationEmailHandler(emailService),
+                new UpdateInventoryHandler(inventory),
+                new SendConfirmationEmailsHandler(emailService)
+        ));
 
         return pipeline;
     }
@@ -0,0 +1,83 @@
+package pipelines;
+
+import org.junit.jupiter.api.Test;
+import pipelines.data.TimeOrderedIdGenerator;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimeOrderedIdGeneratorTest {
+    @Test
+    void testIdsAreVersion7AndFollowTheClock() {
+        var clock = new AtomicLong(1_700_000_000_000L);
+        var generator = new TimeOrderedIdGenerator(clock::get);
+
+        var first = generator.nextId();
+        assertThat(first.version()).isEqualTo(7);
+        assertThat(first.variant()).isEqualTo(2);
+        assertThat(TimeOrderedIdGenerator.timestamp(first)).isEqualTo(1_700_000_000_000L);
+
+        clock.addAndGet(5);
+        var later = generator.nextId();
+        assertThat(TimeOrderedIdGenerator.timestamp(later)).isEqualTo(1_700_000_000_005L);
+        assertThat(later).isGreaterThan(first);
+        assertThat(later.toString()).isGreaterThan(first.toString());
+    }
+
+    @Test
+    void testMonotonicWhenClockStallsOrStepsBack() {
+        var clock = new AtomicLong(1_700_000_000_000L);
+        var generator = new TimeOrderedIdGenerator(clock::get);
+
+        var ids = new ArrayList<UUID>();
+        // more ids than the sequence holds in one millisecond
+        for (int i = 0; i < 10_000; i++) ids.add(generator.nextId());
+        clock.addAndGet(-1_000);
+        for (int i = 0; i < 100; i++) ids.add(generator.nextId());
+
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+        assertThat(TimeOrderedIdGenerator.timestamp(ids.getLast())).isGreaterThan(1_700_000_000_000L);
+    }
+
+    @Test
+    void testMonotonicAcrossThreads() throws Exception {
+        var generator = new TimeOrderedIdGenerator();
+        var perThread = new ConcurrentLinkedQueue<ArrayList<UUID>>();
+
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            var futures = IntStream.range(0, 8).mapToObj(t -> executor.submit(() -> {
+                var ids = new ArrayList<UUID>();
+                for (int i = 0; i < 50_000; i++) ids.add(generator.nextId());
+                perThread.add(ids);
+            })).toList();
+            for (var future : futures) future.get();
+        }
+
+        for (var ids : perThread) assertThat(ids).isSorted();
+        assertThat(perThread.stream().flatMap(ArrayList::stream).distinct().count()).isEqualTo(8 * 50_000);
+    }
+
+    @Test
+    void testMonotonicAcrossRequestThreadsWhenClockStepsBack() throws Exception {
+        var clock = new AtomicLong(1_700_000_000_000L);
+        var generator = new TimeOrderedIdGenerator(clock::get);
+
+        // each request runs on a fresh virtual thread
+        var ids = new ArrayList<UUID>();
+        for (int i = 0; i < 20; i++) {
+            var id = new AtomicReference<UUID>();
+            Thread.ofVirtual().start(() -> id.set(generator.nextId())).join();
+            ids.add(id.get());
+            clock.addAndGet(i % 2 == 0 ? -50 : 20);
+        }
+
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+    }
+}